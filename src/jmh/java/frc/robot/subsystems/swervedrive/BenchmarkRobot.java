@@ -0,0 +1,67 @@
+package frc.robot.subsystems.swervedrive;
+
+import com.pathplanner.lib.config.ModuleConfig;
+import com.pathplanner.lib.config.RobotConfig;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.system.plant.DCMotor;
+import frc.robot.Constants;
+
+/**
+ * Robot geometry shared by the benchmarks, matching the PathPlanner GUI settings in the deploy directory so that no
+ * benchmark needs hardware, the HAL or deploy files.
+ */
+final class BenchmarkRobot
+{
+
+  /**
+   * Module locations relative to the robot center, front left, front right, back left, back right.
+   */
+  static final Translation2d[] MODULE_LOCATIONS     = {new Translation2d(0.273, 0.273),
+                                                       new Translation2d(0.273, -0.273),
+                                                       new Translation2d(-0.273, 0.273),
+                                                       new Translation2d(-0.273, -0.273)};
+  /**
+   * Maximum chassis angular velocity in radians per second, the maximum speed over the module radius.
+   */
+  static final double          MAX_ANGULAR_VELOCITY = Constants.MAX_SPEED / MODULE_LOCATIONS[0].getNorm();
+  /**
+   * Maximum module steering velocity in radians per second.
+   */
+  static final double          MAX_STEER_VELOCITY   = 10 * Math.PI;
+
+  /**
+   * Utility class.
+   */
+  private BenchmarkRobot()
+  {
+  }
+
+  /**
+   * Create the kinematics of the benchmark robot.
+   *
+   * @return {@link SwerveDriveKinematics} for {@link BenchmarkRobot#MODULE_LOCATIONS}.
+   */
+  static SwerveDriveKinematics kinematics()
+  {
+    return new SwerveDriveKinematics(MODULE_LOCATIONS);
+  }
+
+  /**
+   * Create the PathPlanner robot config of the benchmark robot.
+   *
+   * @return {@link RobotConfig} equivalent to the GUI settings.
+   */
+  static RobotConfig robotConfig()
+  {
+    return new RobotConfig(74.088,
+                           6.883,
+                           new ModuleConfig(0.048,
+                                            5.45,
+                                            1.2,
+                                            DCMotor.getNEO(1).withReduction(5.143),
+                                            60.0,
+                                            1),
+                           MODULE_LOCATIONS);
+  }
+}
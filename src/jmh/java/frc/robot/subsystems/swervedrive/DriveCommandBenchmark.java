@@ -0,0 +1,67 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import frc.robot.Constants;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark of the per-loop body of {@link SwerveSubsystem#driveCommand(java.util.function.DoubleSupplier,
+ * java.util.function.DoubleSupplier, java.util.function.DoubleSupplier)}. A {@link swervelib.SwerveDrive} needs motor
+ * controllers, so the benchmark calls the {@link TeleopDrive} shaping the command runs, up to the call into YAGSL.
+ * YAGSL's inverse kinematics after that are measured by {@link KinematicsBenchmark}.
+ *
+ * <p>The gc.alloc.rate.norm of {@link DriveCommandBenchmark#teleopPipeline()} must stay at 0 B/op, anything else is an
+ * allocation regression, which {@code TeleopDriveTest} also checks on every build.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DriveCommandBenchmark
+{
+
+  /**
+   * Robot-relative speeds reused every loop, as in {@link SwerveSubsystem}.
+   */
+  private final ChassisSpeeds teleopSpeeds = new ChassisSpeeds();
+  /**
+   * Simulated joystick phase, advanced every call so the inputs are not constant.
+   */
+  private       double        phase;
+  /**
+   * Robot heading used for the field-relative conversion.
+   */
+  private       Rotation2d    heading;
+
+  /**
+   * Set the heading and joystick phase.
+   */
+  @Setup
+  public void setup()
+  {
+    heading = Rotation2d.fromDegrees(30);
+    phase = 0;
+  }
+
+  /**
+   * One loop of the allocation-free teleop path, up to the speeds handed to YAGSL.
+   *
+   * @return Robot-relative speeds which would be driven.
+   */
+  @Benchmark
+  public ChassisSpeeds teleopPipeline()
+  {
+    phase += 0.01;
+    double rotation = TeleopDrive.angularVelocity(Math.sin(phase * 0.5), BenchmarkRobot.MAX_ANGULAR_VELOCITY);
+    TeleopDrive.robotRelativeSpeeds(Math.sin(phase), Math.cos(phase), rotation, heading, Constants.MAX_SPEED,
+                                    false, teleopSpeeds);
+    return teleopSpeeds;
+  }
+}
@@ -0,0 +1,85 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.robot.Constants;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark of {@link SwerveDriveKinematics#toSwerveModuleStates}, which runs every loop a drive command is scheduled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KinematicsBenchmark
+{
+
+  /**
+   * Kinematics of the benchmark robot.
+   */
+  private SwerveDriveKinematics kinematics;
+  /**
+   * Translating and rotating chassis speeds.
+   */
+  private ChassisSpeeds         speeds;
+  /**
+   * Center of rotation offset from the robot center.
+   */
+  private Translation2d         centerOfRotation;
+
+  /**
+   * Create the kinematics.
+   */
+  @Setup
+  public void setup()
+  {
+    kinematics = BenchmarkRobot.kinematics();
+    speeds = new ChassisSpeeds(2.5, -1.0, 3.0);
+    centerOfRotation = new Translation2d(0.3, 0.1);
+  }
+
+  /**
+   * Module states about the robot center, the inverse kinematics matrix is cached.
+   *
+   * @return Module states.
+   */
+  @Benchmark
+  public SwerveModuleState[] toSwerveModuleStates()
+  {
+    return kinematics.toSwerveModuleStates(speeds);
+  }
+
+  /**
+   * Module states about a changing center of rotation, which rebuilds the inverse kinematics matrix.
+   *
+   * @return Module states.
+   */
+  @Benchmark
+  public SwerveModuleState[] toSwerveModuleStatesMovingCenter()
+  {
+    centerOfRotation = new Translation2d(-centerOfRotation.getX(), centerOfRotation.getY());
+    return kinematics.toSwerveModuleStates(speeds, centerOfRotation);
+  }
+
+  /**
+   * Module states followed by desaturation to the maximum module speed, as YAGSL drives them.
+   *
+   * @return Module states.
+   */
+  @Benchmark
+  public SwerveModuleState[] toSwerveModuleStatesDesaturated()
+  {
+    SwerveModuleState[] states = kinematics.toSwerveModuleStates(speeds);
+    SwerveDriveKinematics.desaturateWheelSpeeds(states, Constants.MAX_SPEED);
+    return states;
+  }
+}
@@ -0,0 +1,158 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark of one odometry sample on the high-rate odometry thread, in the order of
+ * {@link SwerveSubsystem#updateOdometry()}: the {@link WheelSlipDetector} check, the pose estimator update with the
+ * corrected module positions and the {@link PoseHistory} record. The robot drives a slow circle so every sample moves
+ * the modules and the gyro. The gyro readings are created in setup, so only the odometry itself allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OdometryBenchmark
+{
+
+  /**
+   * Odometry period of the high-rate odometry thread in seconds.
+   */
+  private static final double                   PERIOD    = 0.004;
+  /**
+   * Samples in one full circle, a power of two so the gyro readings wrap with a mask.
+   */
+  private static final int                      YAW_STEPS = 4096;
+  /**
+   * Pose estimator, as constructed by YAGSL.
+   */
+  private              SwerveDrivePoseEstimator estimator;
+  /**
+   * Wheel slip detector of the benchmark robot.
+   */
+  private              WheelSlipDetector        slipDetector;
+  /**
+   * Pose history as sized by {@link SwerveSubsystem}.
+   */
+  private              PoseHistory              poseHistory;
+  /**
+   * Module positions, mutated in place every sample like the YAGSL modules do.
+   */
+  private              SwerveModulePosition[]   positions;
+  /**
+   * Module states, driving at the speed the positions advance.
+   */
+  private              SwerveModuleState[]      states;
+  /**
+   * Gyro yaw of every sample of the circle.
+   */
+  private              Rotation2d[]             yaws;
+  /**
+   * Simulated time in seconds.
+   */
+  private              double                   time;
+  /**
+   * Index of the current sample.
+   */
+  private              int                      sample;
+
+  /**
+   * Create the estimator, detector, history and gyro readings.
+   */
+  @Setup
+  public void setup()
+  {
+    positions = new SwerveModulePosition[BenchmarkRobot.MODULE_LOCATIONS.length];
+    states = new SwerveModuleState[positions.length];
+    for (int i = 0; i < positions.length; i++)
+    {
+      Rotation2d angle = Rotation2d.fromRadians(0.1 * i);
+      positions[i] = new SwerveModulePosition(0, angle);
+      states[i] = new SwerveModuleState(2.0, angle);
+    }
+    yaws = new Rotation2d[YAW_STEPS];
+    for (int i = 0; i < YAW_STEPS; i++)
+    {
+      yaws[i] = Rotation2d.fromRadians(2 * Math.PI * i / YAW_STEPS);
+    }
+    slipDetector = new WheelSlipDetector(BenchmarkRobot.MODULE_LOCATIONS);
+    slipDetector.resetPositions(positions);
+    estimator = new SwerveDrivePoseEstimator(BenchmarkRobot.kinematics(),
+                                             yaws[0],
+                                             slipDetector.getCorrectedPositions(),
+                                             new Pose2d(),
+                                             VecBuilder.fill(0.1, 0.1, 0.1),
+                                             VecBuilder.fill(0.9, 0.9, 0.9));
+    poseHistory = new PoseHistory(512);
+    time = 0;
+    sample = 0;
+  }
+
+  /**
+   * Advance the simulated modules and gyro by one odometry period.
+   *
+   * @return Gyro yaw of the new sample.
+   */
+  private Rotation2d step()
+  {
+    time += PERIOD;
+    sample = (sample + 1) & (YAW_STEPS - 1);
+    for (SwerveModulePosition position : positions)
+    {
+      position.distanceMeters += 2.0 * PERIOD;
+    }
+    return yaws[sample];
+  }
+
+  /**
+   * Pose estimator update only.
+   *
+   * @return Estimated pose.
+   */
+  @Benchmark
+  public Pose2d poseEstimatorUpdate()
+  {
+    Rotation2d yaw = step();
+    return estimator.updateWithTime(time, yaw, positions);
+  }
+
+  /**
+   * Wheel slip check only.
+   *
+   * @return Whether the sample was flagged.
+   */
+  @Benchmark
+  public boolean wheelSlipCheck()
+  {
+    Rotation2d yaw = step();
+    return slipDetector.update(positions, states, yaw.getRadians(), 0, time);
+  }
+
+  /**
+   * Full odometry sample as {@link SwerveSubsystem#updateOdometry()} runs it with wheel slip detection: the slip
+   * check, the estimator update with the corrected positions and the pose history record.
+   *
+   * @return Estimated pose.
+   */
+  @Benchmark
+  public Pose2d odometrySample()
+  {
+    Rotation2d yaw = step();
+    slipDetector.update(positions, states, yaw.getRadians(), 0, time);
+    Pose2d pose = estimator.updateWithTime(time, yaw, slipDetector.getCorrectedPositions());
+    poseHistory.add(time, pose);
+    return pose;
+  }
+}
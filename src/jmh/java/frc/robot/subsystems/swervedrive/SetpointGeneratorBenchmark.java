@@ -0,0 +1,87 @@
+package frc.robot.subsystems.swervedrive;
+
+import com.pathplanner.lib.util.swerve.SwerveSetpoint;
+import com.pathplanner.lib.util.swerve.SwerveSetpointGenerator;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark of the {@link SwerveSetpointGenerator} path used by
+ * {@link SwerveSubsystem#driveWithSetpointGeneratorFieldRelative}: one setpoint per loop from the
+ * {@link SetpointGeneratorService}, chasing a target that reverses direction so the generator keeps limiting
+ * acceleration and steering. Every fifth loop overruns to exercise the step clamping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SetpointGeneratorBenchmark
+{
+
+  /**
+   * Loop period in seconds.
+   */
+  private static final double                   LOOP_PERIOD = 0.02;
+  /**
+   * Setpoint generator service of the benchmark robot.
+   */
+  private              SetpointGeneratorService service;
+  /**
+   * Target speeds driving forward and strafing while turning.
+   */
+  private              ChassisSpeeds            forward;
+  /**
+   * Target speeds in the opposite direction.
+   */
+  private              ChassisSpeeds            reverse;
+  /**
+   * Simulated time in seconds.
+   */
+  private              double                   timestamp;
+  /**
+   * Loops run, the target reverses every 25 loops.
+   */
+  private              int                      loops;
+
+  /**
+   * Create the service and reset it to a stopped robot.
+   */
+  @Setup
+  public void setup()
+  {
+    service = new SetpointGeneratorService(BenchmarkRobot.robotConfig(),
+                                           BenchmarkRobot.MAX_STEER_VELOCITY,
+                                           LOOP_PERIOD,
+                                           BenchmarkRobot.MODULE_LOCATIONS.length);
+    SwerveModuleState[] states = new SwerveModuleState[BenchmarkRobot.MODULE_LOCATIONS.length];
+    for (int i = 0; i < states.length; i++)
+    {
+      states[i] = new SwerveModuleState();
+    }
+    service.reset(new ChassisSpeeds(), states);
+    forward = new ChassisSpeeds(3.0, 1.0, 2.0);
+    reverse = new ChassisSpeeds(-3.0, -1.0, -2.0);
+    timestamp = 0;
+    loops = 0;
+  }
+
+  /**
+   * Generate one setpoint.
+   *
+   * @return New setpoint.
+   */
+  @Benchmark
+  public SwerveSetpoint generateSetpoint()
+  {
+    ChassisSpeeds target = (loops++ / 25) % 2 == 0 ? forward : reverse;
+    timestamp += loops % 5 == 0 ? LOOP_PERIOD * 4 : LOOP_PERIOD;
+    return service.update(target, timestamp);
+  }
+}
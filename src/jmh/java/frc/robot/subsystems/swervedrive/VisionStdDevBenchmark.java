@@ -0,0 +1,96 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.apriltag.AprilTagFields;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Transform3d;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Benchmark of the standard deviation heuristic run by {@code Vision.Cameras#updateEstimationStdDevs} for every camera
+ * result with a pose estimate, with one and with several visible tags.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VisionStdDevBenchmark
+{
+
+  /**
+   * Heuristic with the default camera standard deviations.
+   */
+  private VisionStdDevEstimator     estimator;
+  /**
+   * Tag poses of the field used by {@link Vision}.
+   */
+  private AprilTagTable             tagTable;
+  /**
+   * Result with a single tag.
+   */
+  private List<PhotonTrackedTarget> singleTarget;
+  /**
+   * Result with four tags.
+   */
+  private List<PhotonTrackedTarget> multipleTargets;
+
+  /**
+   * Load the field and build the camera results.
+   */
+  @Setup
+  public void setup()
+  {
+    estimator = new VisionStdDevEstimator(VecBuilder.fill(4, 4, 8), VecBuilder.fill(0.5, 0.5, 1));
+    tagTable = new AprilTagTable(AprilTagFieldLayout.loadField(AprilTagFields.k2025ReefscapeAndyMark));
+    singleTarget = List.of(target(18));
+    multipleTargets = new ArrayList<>(List.of(target(17), target(18), target(19), target(22)));
+  }
+
+  /**
+   * Create a target seeing a tag, only the fiducial ID is read by the heuristic.
+   *
+   * @param fiducialId Tag ID.
+   * @return Tracked target.
+   */
+  private static PhotonTrackedTarget target(int fiducialId)
+  {
+    List<TargetCorner> corners = List.of(new TargetCorner(), new TargetCorner(),
+                                         new TargetCorner(), new TargetCorner());
+    return new PhotonTrackedTarget(0, 0, 1, 0, fiducialId, -1, -1, new Transform3d(), new Transform3d(), 0.1,
+                                   corners, corners);
+  }
+
+  /**
+   * Heuristic for a single tag result.
+   *
+   * @return X standard deviation.
+   */
+  @Benchmark
+  public double singleTag()
+  {
+    estimator.update(3.5, 4.0, singleTarget, tagTable);
+    return estimator.get(VisionStdDevEstimator.X);
+  }
+
+  /**
+   * Heuristic for a multi-tag result.
+   *
+   * @return X standard deviation.
+   */
+  @Benchmark
+  public double multiTag()
+  {
+    estimator.update(3.5, 4.0, multipleTargets, tagTable);
+    return estimator.get(VisionStdDevEstimator.X);
+  }
+}
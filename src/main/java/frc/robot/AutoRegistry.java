@@ -0,0 +1,190 @@
+package frc.robot;
+
+import com.pathplanner.lib.auto.AutoBuilder;
+import com.pathplanner.lib.commands.PathPlannerAuto;
+import com.pathplanner.lib.path.PathPlannerPath;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.Commands;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Preloads every PathPlanner auto in the deploy directory so autonomous starts without parsing files or building
+ * commands in its first loop.
+ *
+ * <p>A background thread scans {@code deploy/pathplanner/paths} and {@code deploy/pathplanner/autos} and parses every
+ * file. It only validates them, reporting broken files at boot, and loads the JSON and path classes off the main loop;
+ * the parsed results are discarded. Commands are not thread safe, and {@link PathPlannerAuto} can only be built from
+ * its file, so each auto is read again when it is built on the main robot loop, one per
+ * {@link AutoRegistry#buildNext()} call while disabled, and cached by name. Autonomous then only looks the command up.
+ */
+public class AutoRegistry
+{
+
+  /**
+   * PathPlanner directory in the deploy directory.
+   */
+  private final    File                 pathplannerDirectory;
+  /**
+   * Autos built so far by name, only used on the main robot loop.
+   */
+  private final    Map<String, Command> autos      = new HashMap<>();
+  /**
+   * Names of the autos parsed by the loader thread, null until it finishes.
+   */
+  private volatile List<String>         autoNames;
+  /**
+   * Index in {@link AutoRegistry#autoNames} of the next auto to build.
+   */
+  private          int                  buildIndex = 0;
+
+  /**
+   * Construct the registry and start parsing the deploy directory in the background. {@link AutoBuilder} and the
+   * named commands must be set up before the autos are built.
+   */
+  public AutoRegistry()
+  {
+    pathplannerDirectory = new File(Filesystem.getDeployDirectory(), "pathplanner");
+    Thread loader = new Thread(this::loadFiles, "Auto Registry");
+    loader.setDaemon(true);
+    loader.start();
+  }
+
+  /**
+   * Parse every path and auto file to report the broken ones, run on the loader thread.
+   */
+  private void loadFiles()
+  {
+    for (String path : listFiles("paths", ".path"))
+    {
+      try
+      {
+        PathPlannerPath.fromPathFile(path);
+      } catch (Exception e)
+      {
+        DriverStation.reportWarning("Failed to parse path " + path + ": " + e, false);
+      }
+    }
+    List<String> parsed = new ArrayList<>();
+    for (String auto : listFiles("autos", ".auto"))
+    {
+      try
+      {
+        PathPlannerAuto.getPathGroupFromAutoFile(auto);
+        parsed.add(auto);
+      } catch (Exception e)
+      {
+        DriverStation.reportWarning("Failed to parse auto " + auto + ": " + e, false);
+      }
+    }
+    autoNames = List.copyOf(parsed);
+  }
+
+  /**
+   * List the files of a PathPlanner folder with an extension.
+   *
+   * @param folder    Folder in the PathPlanner directory.
+   * @param extension File extension, including the dot.
+   * @return Sorted file names without the extension.
+   */
+  private List<String> listFiles(String folder, String extension)
+  {
+    List<String> names = new ArrayList<>();
+    File[]       files = new File(pathplannerDirectory, folder).listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+      {
+        String name = file.getName();
+        if (file.isFile() && name.endsWith(extension))
+        {
+          names.add(name.substring(0, name.length() - extension.length()));
+        }
+      }
+    }
+    names.sort(null);
+    return names;
+  }
+
+  /**
+   * Build the next parsed auto, called every loop while disabled. Does nothing until the loader thread has finished or
+   * once every auto is built.
+   */
+  public void buildNext()
+  {
+    List<String> names = autoNames;
+    if (names == null || buildIndex >= names.size() || !AutoBuilder.isConfigured())
+    {
+      return;
+    }
+    String name = names.get(buildIndex++);
+    if (!autos.containsKey(name))
+    {
+      build(name);
+    }
+  }
+
+  /**
+   * Build an auto and cache it.
+   *
+   * @param name Auto name.
+   * @return Auto command, null if it could not be built.
+   */
+  private Command build(String name)
+  {
+    try
+    {
+      Command auto = new PathPlannerAuto(name);
+      autos.put(name, auto);
+      return auto;
+    } catch (Exception e)
+    {
+      DriverStation.reportError("Failed to build auto " + name + ": " + e, false);
+      return null;
+    }
+  }
+
+  /**
+   * Check if every parsed auto has been built.
+   *
+   * @return True once autonomous will not build anything.
+   */
+  public boolean isReady()
+  {
+    List<String> names = autoNames;
+    return names != null && buildIndex >= names.size();
+  }
+
+  /**
+   * Get an auto command, building it now if it has not been preloaded.
+   *
+   * @param name Auto name.
+   * @return Auto command, or a command doing nothing if the auto could not be built.
+   */
+  public Command getAuto(String name)
+  {
+    Command auto = autos.get(name);
+    if (auto == null)
+    {
+      DriverStation.reportWarning("Auto " + name + " was not preloaded, building it now", false);
+      auto = build(name);
+    }
+    return auto == null ? Commands.none() : auto;
+  }
+
+  /**
+   * Get the names of the parsed autos.
+   *
+   * @return Sorted auto names, empty until the loader thread has finished.
+   */
+  public List<String> getAutoNames()
+  {
+    List<String> names = autoNames;
+    return names == null ? List.of() : names;
+  }
+}
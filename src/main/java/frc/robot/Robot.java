@@ -79,6 +79,7 @@ public class Robot extends TimedRobot
   public void disabledInit()
   {
     m_robotContainer.setMotorBrake(true);
+    m_robotContainer.stopVisionRecording();
     disabledTimer.reset();
     disabledTimer.start();
   }
@@ -86,6 +87,7 @@ public class Robot extends TimedRobot
   @Override
   public void disabledPeriodic()
   {
+    m_robotContainer.preloadAutos();
     if (disabledTimer.hasElapsed(Constants.DrivebaseConstants.WHEEL_LOCK_TIME))
     {
       m_robotContainer.setMotorBrake(false);
@@ -101,6 +103,7 @@ public class Robot extends TimedRobot
   public void autonomousInit()
   {
     m_robotContainer.setMotorBrake(true);
+    m_robotContainer.startVisionRecording();
     m_autonomousCommand = m_robotContainer.getAutonomousCommand();
 
     // schedule the autonomous command (example)
@@ -121,6 +124,7 @@ public class Robot extends TimedRobot
   @Override
   public void teleopInit()
   {
+    m_robotContainer.startVisionRecording();
     // This makes sure that the autonomous stops running when
     // teleop starts running. If you want the autonomous to
     // continue until interrupted by another command, remove
@@ -36,6 +36,8 @@ public class RobotContainer
   // The robot's subsystems and commands are defined here...
   private final SwerveSubsystem       drivebase  = new SwerveSubsystem(new File(Filesystem.getDeployDirectory(),
                                                                                 "swerve/neo"));
+  // Autos are parsed in the background and built while disabled.
+  private final AutoRegistry          autos      = new AutoRegistry();
 
   /**
    * Converts driver input into a field-relative ChassisSpeeds that is controlled by angular velocity.
@@ -185,7 +187,31 @@ public class RobotContainer
   public Command getAutonomousCommand()
   {
     // An example command will be run in autonomous
-    return drivebase.getAutonomousCommand("New Auto");
+    return autos.getAuto("New Auto");
+  }
+
+  /**
+   * Build the next preloaded auto, called every loop while disabled so autonomous starts without building commands.
+   */
+  public void preloadAutos()
+  {
+    autos.buildNext();
+  }
+
+  /**
+   * Start recording vision for replay, called when the robot is enabled. Continues a recording already in progress.
+   */
+  public void startVisionRecording()
+  {
+    drivebase.startVisionRecording();
+  }
+
+  /**
+   * Stop and close the vision recording, called when the robot is disabled.
+   */
+  public void stopVisionRecording()
+  {
+    drivebase.stopVisionRecording();
   }
 
   public void setMotorBrake(boolean brake)
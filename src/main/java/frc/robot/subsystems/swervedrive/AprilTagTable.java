@@ -0,0 +1,165 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+
+/**
+ * Immutable lookup table of AprilTag poses indexed by fiducial ID. Built once from an {@link AprilTagFieldLayout} so
+ * per-frame lookups do not allocate {@link java.util.Optional}, {@link edu.wpi.first.math.geometry.Pose3d} or
+ * {@link Pose2d} objects.
+ */
+public final class AprilTagTable
+{
+
+  /**
+   * Whether a tag exists for the ID.
+   */
+  private final boolean[] present;
+  /**
+   * Field X position of each tag in meters.
+   */
+  private final double[]  x;
+  /**
+   * Field Y position of each tag in meters.
+   */
+  private final double[]  y;
+  /**
+   * Field Z position of each tag in meters.
+   */
+  private final double[]  z;
+  /**
+   * Yaw of each tag in radians.
+   */
+  private final double[]  yaw;
+  /**
+   * Cached 2D pose of each tag, null where there is no tag.
+   */
+  private final Pose2d[]  poses2d;
+
+  /**
+   * Build the table from a field layout.
+   *
+   * @param layout {@link AprilTagFieldLayout} to copy the tags from.
+   */
+  public AprilTagTable(AprilTagFieldLayout layout)
+  {
+    int maxId = 0;
+    for (AprilTag tag : layout.getTags())
+    {
+      maxId = Math.max(maxId, tag.ID);
+    }
+    present = new boolean[maxId + 1];
+    x = new double[maxId + 1];
+    y = new double[maxId + 1];
+    z = new double[maxId + 1];
+    yaw = new double[maxId + 1];
+    poses2d = new Pose2d[maxId + 1];
+    for (AprilTag tag : layout.getTags())
+    {
+      if (tag.ID < 0)
+      {
+        continue;
+      }
+      present[tag.ID] = true;
+      x[tag.ID] = tag.pose.getX();
+      y[tag.ID] = tag.pose.getY();
+      z[tag.ID] = tag.pose.getZ();
+      yaw[tag.ID] = tag.pose.getRotation().getZ();
+      poses2d[tag.ID] = tag.pose.toPose2d();
+    }
+  }
+
+  /**
+   * Check if the layout contains a tag.
+   *
+   * @param id Fiducial ID.
+   * @return True if the tag exists.
+   */
+  public boolean hasTag(int id)
+  {
+    return id >= 0 && id < present.length && present[id];
+  }
+
+  /**
+   * Largest fiducial ID in the table.
+   *
+   * @return Maximum ID.
+   */
+  public int getMaxId()
+  {
+    return present.length - 1;
+  }
+
+  /**
+   * Field X position of a tag. Only valid if {@link AprilTagTable#hasTag(int)} is true.
+   *
+   * @param id Fiducial ID.
+   * @return X in meters.
+   */
+  public double getX(int id)
+  {
+    return x[id];
+  }
+
+  /**
+   * Field Y position of a tag. Only valid if {@link AprilTagTable#hasTag(int)} is true.
+   *
+   * @param id Fiducial ID.
+   * @return Y in meters.
+   */
+  public double getY(int id)
+  {
+    return y[id];
+  }
+
+  /**
+   * Field Z position of a tag. Only valid if {@link AprilTagTable#hasTag(int)} is true.
+   *
+   * @param id Fiducial ID.
+   * @return Z in meters.
+   */
+  public double getZ(int id)
+  {
+    return z[id];
+  }
+
+  /**
+   * Yaw of a tag. Only valid if {@link AprilTagTable#hasTag(int)} is true.
+   *
+   * @param id Fiducial ID.
+   * @return Yaw in radians.
+   */
+  public double getYaw(int id)
+  {
+    return yaw[id];
+  }
+
+  /**
+   * Get the cached 2D pose of a tag.
+   *
+   * @param id Fiducial ID.
+   * @return Shared {@link Pose2d} of the tag, or null if the tag does not exist.
+   */
+  public Pose2d getPose2d(int id)
+  {
+    return hasTag(id) ? poses2d[id] : null;
+  }
+
+  /**
+   * Planar distance from a field position to a tag.
+   *
+   * @param id     Fiducial ID.
+   * @param fieldX Field X in meters.
+   * @param fieldY Field Y in meters.
+   * @return Distance in meters, or -1 if the tag does not exist.
+   */
+  public double getDistance(int id, double fieldX, double fieldY)
+  {
+    if (!hasTag(id))
+    {
+      return -1.0;
+    }
+    return Math.hypot(x[id] - fieldX, y[id] - fieldY);
+  }
+}
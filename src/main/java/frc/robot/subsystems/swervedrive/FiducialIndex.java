@@ -0,0 +1,87 @@
+package frc.robot.subsystems.swervedrive;
+
+import java.util.List;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Immutable table of the newest {@link PhotonTrackedTarget} for each fiducial ID seen in one batch of camera results.
+ * Built once per ingestion so target queries are constant time instead of scanning every cached result.
+ */
+final class FiducialIndex
+{
+
+  /**
+   * Index with no targets.
+   */
+  static final  FiducialIndex         EMPTY = new FiducialIndex(0);
+  /**
+   * Newest target for each fiducial ID, null where the tag was not seen.
+   */
+  private final PhotonTrackedTarget[] targets;
+  /**
+   * Timestamp of the result each target came from in seconds.
+   */
+  private final double[]              timestamps;
+
+  /**
+   * Construct an empty index.
+   *
+   * @param size Largest fiducial ID which can be stored plus one.
+   */
+  private FiducialIndex(int size)
+  {
+    targets = new PhotonTrackedTarget[size];
+    timestamps = new double[size];
+  }
+
+  /**
+   * Build an index from a batch of results.
+   *
+   * @param results Results sorted by timestamp, oldest first.
+   * @param maxId   Largest fiducial ID to index, higher IDs are ignored.
+   * @return Index of the newest target for each ID.
+   */
+  static FiducialIndex build(List<PhotonPipelineResult> results, int maxId)
+  {
+    FiducialIndex index = new FiducialIndex(maxId + 1);
+    for (int r = 0; r < results.size(); r++)
+    {
+      PhotonPipelineResult      result        = results.get(r);
+      List<PhotonTrackedTarget> resultTargets = result.getTargets();
+      for (int t = 0; t < resultTargets.size(); t++)
+      {
+        PhotonTrackedTarget target = resultTargets.get(t);
+        int                 id     = target.getFiducialId();
+        if (id >= 0 && id <= maxId && result.getTimestampSeconds() >= index.timestamps[id])
+        {
+          index.targets[id] = target;
+          index.timestamps[id] = result.getTimestampSeconds();
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Get the newest target for a fiducial ID.
+   *
+   * @param id Fiducial ID.
+   * @return Tracked target, or null if the tag was not seen.
+   */
+  PhotonTrackedTarget getTarget(int id)
+  {
+    return id >= 0 && id < targets.length ? targets[id] : null;
+  }
+
+  /**
+   * Get the timestamp of the newest target for a fiducial ID.
+   *
+   * @param id Fiducial ID.
+   * @return Timestamp in seconds, or negative infinity if the tag was not seen.
+   */
+  double getTimestamp(int id)
+  {
+    return getTarget(id) != null ? timestamps[id] : Double.NEGATIVE_INFINITY;
+  }
+}
@@ -0,0 +1,650 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.PhotonPoseEstimator.PoseStrategy;
+import org.photonvision.estimation.TargetModel;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Solves a single planar robot pose from the AprilTag corners seen by every camera within one time window, using each
+ * camera's robot-to-camera transform. Two cameras which each see one tag produce one well constrained estimate instead
+ * of two weak single-tag estimates.
+ *
+ * <p>The solve is a Gauss-Newton minimization of the pixel reprojection error over (x, y, heading), seeded with the
+ * most confident per-camera estimate. Lens distortion is ignored, which is accurate enough near the image center and
+ * is checked by {@link MultiCameraPoseSolver#maximumReprojectionErrorPixels}. Only the main robot loop may call
+ * {@link MultiCameraPoseSolver#solve}.
+ *
+ * <p>The pose is solved at the newest capture time of the window. Frames captured earlier are placed where the robot
+ * was when they were captured, by moving their camera back along the odometry recorded in the
+ * {@link MultiCameraPoseSolver#setPoseHistory pose history}, so a driving robot does not blur the solve.
+ *
+ * <p>Only single-tag estimates with a finite standard deviation take part, see
+ * {@link MultiCameraPoseSolver#isJointCandidate}. A coprocessor multi-tag estimate is already well constrained and
+ * corrects for lens distortion, so replacing it with this planar, distortion-free solve would lose accuracy, and it is
+ * fused on its own instead.
+ */
+final class MultiCameraPoseSolver
+{
+
+  /**
+   * Corners on every AprilTag.
+   */
+  private static final int    CORNERS_PER_TAG = 4;
+  /**
+   * Maximum Gauss-Newton iterations.
+   */
+  private static final int    MAX_ITERATIONS  = 10;
+  /**
+   * Step size below which the solve is considered converged.
+   */
+  private static final double CONVERGED_STEP  = 1.0e-6;
+  /**
+   * Closest distance in front of the camera a corner may project from, in meters.
+   */
+  private static final double MIN_DEPTH       = 0.05;
+
+  /**
+   * Field position of every tag corner, indexed by [fiducial ID * 4 + corner][axis], null where there is no tag.
+   */
+  private final double[][]                tagCorners;
+  /**
+   * Robot-to-camera translation of each camera, indexed by [{@link Cameras#ordinal()}][axis].
+   */
+  private final double[][]                cameraTranslation              = new double[Cameras.values().length][3];
+  /**
+   * Robot-to-camera rotation matrix of each camera, row major, indexed by {@link Cameras#ordinal()}.
+   */
+  private final double[][]                cameraRotation                 = new double[Cameras.values().length][9];
+  /**
+   * Camera intrinsics (fx, fy, cx, cy) of each camera, null until PhotonVision publishes the calibration.
+   */
+  private final double[][]                intrinsics                     = new double[Cameras.values().length][];
+  /**
+   * Smallest variance contributed by each camera in the current window, indexed by [{@link Cameras#ordinal()}][axis].
+   */
+  private final double[][]                cameraVariance                 = new double[Cameras.values().length][3];
+  /**
+   * Root mean square reprojection error above which the joint solution is discarded, in pixels.
+   */
+  private       double                    maximumReprojectionErrorPixels = 4.0;
+  /**
+   * Odometry history used to move earlier frames to the solve time, null to treat the window as one instant.
+   */
+  private       PoseHistory               poseHistory;
+  /**
+   * Odometry pose X, Y and heading at the solve time.
+   */
+  private final double[]                  referenceOdometry              = new double[3];
+  /**
+   * Odometry pose X, Y and heading at the capture time of a frame.
+   */
+  private final double[]                  frameOdometry                  = new double[3];
+  /**
+   * Number of frames gathered for the current solve.
+   */
+  private       int                       viewCount;
+  /**
+   * Camera ordinal of each frame.
+   */
+  private       int[]                     viewCamera                     = new int[16];
+  /**
+   * Robot motion from the solve time to the capture time of each frame, X, Y and heading in the robot frame at the
+   * solve time.
+   */
+  private       double[]                  viewMotion                     = new double[16 * 3];
+  /**
+   * Camera translation of each frame in the robot frame at the solve time, three values per frame.
+   */
+  private       double[]                  viewTranslation                = new double[16 * 3];
+  /**
+   * Camera rotation matrix of each frame in the robot frame at the solve time, row major, nine values per frame.
+   */
+  private       double[]                  viewRotation                   = new double[16 * 9];
+  /**
+   * Number of corners gathered for the current solve.
+   */
+  private       int                       cornerCount;
+  /**
+   * Frame of each corner.
+   */
+  private       int[]                     cornerView                     = new int[64];
+  /**
+   * Field position of each corner, three values per corner.
+   */
+  private       double[]                  cornerField                    = new double[64 * 3];
+  /**
+   * Detected pixel position of each corner, two values per corner.
+   */
+  private       double[]                  cornerPixel                    = new double[64 * 2];
+  /**
+   * Scratch Gauss-Newton normal matrix, row major.
+   */
+  private final double[]                  hessian                        = new double[9];
+  /**
+   * Scratch Gauss-Newton gradient.
+   */
+  private final double[]                  gradient                       = new double[3];
+  /**
+   * Scratch Gauss-Newton step.
+   */
+  private final double[]                  step                           = new double[3];
+  /**
+   * Scratch residual and Jacobian of one corner, (du, dv, du/dx, du/dy, du/dtheta, dv/dx, dv/dy, dv/dtheta).
+   */
+  private final double[]                  projection                     = new double[8];
+  /**
+   * Corners contributed by each camera to the current solve, indexed by {@link Cameras#ordinal()}.
+   */
+  private final int[]                     cameraCorner                   = new int[Cameras.values().length];
+  /**
+   * Standard deviations of the joint estimate X, Y and heading.
+   */
+  private final double[]                  stdDevs                        = new double[3];
+  /**
+   * Targets of the last joint estimate, reused by every successful solve.
+   */
+  private final List<PhotonTrackedTarget> targetsUsed                    = new ArrayList<>();
+
+  /**
+   * Construct the solver.
+   *
+   * @param layout Field layout the corners are taken from.
+   */
+  MultiCameraPoseSolver(AprilTagFieldLayout layout)
+  {
+    int maxId = 0;
+    for (AprilTag tag : layout.getTags())
+    {
+      maxId = Math.max(maxId, tag.ID);
+    }
+    tagCorners = new double[(maxId + 1) * CORNERS_PER_TAG][];
+    for (AprilTag tag : layout.getTags())
+    {
+      if (tag.ID < 0)
+      {
+        continue;
+      }
+      // Same corner order as PhotonTrackedTarget#getDetectedCorners(), which PhotonVision's own multi-tag uses.
+      List<Translation3d> vertices = TargetModel.kAprilTag36h11.getFieldVertices(tag.pose);
+      for (int k = 0; k < CORNERS_PER_TAG; k++)
+      {
+        Translation3d vertex = vertices.get(k);
+        tagCorners[tag.ID * CORNERS_PER_TAG + k] = new double[]{vertex.getX(), vertex.getY(), vertex.getZ()};
+      }
+    }
+
+    for (Cameras camera : Cameras.values())
+    {
+      Transform3d    robotToCam = camera.robotToCamTransform;
+      Matrix<N3, N3> rotation   = robotToCam.getRotation().toMatrix();
+      cameraTranslation[camera.ordinal()][0] = robotToCam.getX();
+      cameraTranslation[camera.ordinal()][1] = robotToCam.getY();
+      cameraTranslation[camera.ordinal()][2] = robotToCam.getZ();
+      for (int row = 0; row < 3; row++)
+      {
+        for (int col = 0; col < 3; col++)
+        {
+          cameraRotation[camera.ordinal()][row * 3 + col] = rotation.get(row, col);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check if an observation takes part in the joint solve: a single-tag estimate whose standard deviations square to a
+   * finite variance. Far single tags are reported with {@link Double#MAX_VALUE} and would make the combined
+   * information meaningless.
+   *
+   * @param observation Observation to check.
+   * @return True if the observation should be solved jointly, false if it should be fused on its own.
+   */
+  static boolean isJointCandidate(VisionObservation observation)
+  {
+    return observation.estimate.targetsUsed.size() == 1 &&
+           Double.isFinite(observation.stdDevX * observation.stdDevX) &&
+           Double.isFinite(observation.stdDevY * observation.stdDevY) &&
+           Double.isFinite(observation.stdDevTheta * observation.stdDevTheta);
+  }
+
+  /**
+   * Solve one robot pose from the {@link MultiCameraPoseSolver#isJointCandidate joint candidates} in a time window.
+   * The returned estimate shares its target list with the next successful solve.
+   *
+   * @param window Joint candidates sorted by timestamp, all captured within the fusion window.
+   * @return Joint observation at the newest capture time of the window, or null if the window has fewer than two
+   *     cameras with known intrinsics, or the solve did not converge to a consistent pose. The caller should fuse the
+   *     observations individually instead.
+   */
+  VisionObservation solve(List<VisionObservation> window)
+  {
+    if (window.size() < 2)
+    {
+      return null;
+    }
+
+    viewCount = 0;
+    cornerCount = 0;
+    int               cameraMask  = 0;
+    VisionObservation seed        = null;
+    int               seedView    = 0;
+    double            timestamp   = window.get(window.size() - 1).getTimestampSeconds();
+    double            ingestTime  = 0;
+    boolean           motionKnown = poseHistory != null && poseHistory.sample(timestamp, referenceOdometry);
+    Arrays.fill(cameraCorner, 0);
+    for (double[] variance : cameraVariance)
+    {
+      Arrays.fill(variance, Double.POSITIVE_INFINITY);
+    }
+    for (int i = 0; i < window.size(); i++)
+    {
+      VisionObservation observation = window.get(i);
+      int               camera      = observation.camera.ordinal();
+      if (!isJointCandidate(observation) || !updateIntrinsics(observation.camera))
+      {
+        return null;
+      }
+      cameraMask |= 1 << camera;
+      ingestTime = Math.max(ingestTime, observation.ingestTimestampSeconds);
+      cameraVariance[camera][0] = Math.min(cameraVariance[camera][0], observation.stdDevX * observation.stdDevX);
+      cameraVariance[camera][1] = Math.min(cameraVariance[camera][1], observation.stdDevY * observation.stdDevY);
+      cameraVariance[camera][2] = Math.min(cameraVariance[camera][2],
+                                           observation.stdDevTheta * observation.stdDevTheta);
+      int view = addView(camera, motionKnown, observation.getTimestampSeconds());
+      if (seed == null || observation.stdDevX + observation.stdDevY < seed.stdDevX + seed.stdDevY)
+      {
+        seed = observation;
+        seedView = view;
+      }
+      cameraCorner[camera] += addCorners(view, observation.estimate.targetsUsed);
+    }
+    if (Integer.bitCount(cameraMask) < 2 || cornerCount < 2 * CORNERS_PER_TAG)
+    {
+      return null;
+    }
+
+    // Seed with the most confident estimate, moved from its capture time to the solve time.
+    double heading = seed.estimate.estimatedPose.getRotation().getZ() - viewMotion[seedView * 3 + 2];
+    double cos     = Math.cos(heading);
+    double sin     = Math.sin(heading);
+    double x       = seed.estimate.estimatedPose.getX() - cos * viewMotion[seedView * 3] +
+                     sin * viewMotion[seedView * 3 + 1];
+    double y       = seed.estimate.estimatedPose.getY() - sin * viewMotion[seedView * 3] -
+                     cos * viewMotion[seedView * 3 + 1];
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++)
+    {
+      if (!buildNormalEquations(x, y, heading) || !solve3x3(hessian, gradient, step))
+      {
+        return null;
+      }
+      x -= step[0];
+      y -= step[1];
+      heading -= step[2];
+      if (Math.abs(step[0]) + Math.abs(step[1]) + Math.abs(step[2]) < CONVERGED_STEP)
+      {
+        break;
+      }
+    }
+    if (reprojectionError(x, y, heading) > maximumReprojectionErrorPixels)
+    {
+      return null;
+    }
+
+    // Independent cameras combine by inverse variance, so the joint estimate is trusted more than any single camera.
+    for (int axis = 0; axis < 3; axis++)
+    {
+      double information = 0;
+      for (int camera = 0; camera < cameraVariance.length; camera++)
+      {
+        if ((cameraMask & (1 << camera)) != 0 && Double.isFinite(cameraVariance[camera][axis]))
+        {
+          information += 1.0 / cameraVariance[camera][axis];
+        }
+      }
+      if (!(information > 0) || !Double.isFinite(information))
+      {
+        return null;
+      }
+      stdDevs[axis] = Math.sqrt(1.0 / information);
+    }
+
+    int primaryCamera = 0;
+    for (int camera = 1; camera < cameraCorner.length; camera++)
+    {
+      if (cameraCorner[camera] > cameraCorner[primaryCamera])
+      {
+        primaryCamera = camera;
+      }
+    }
+
+    targetsUsed.clear();
+    for (int i = 0; i < window.size(); i++)
+    {
+      targetsUsed.addAll(window.get(i).estimate.targetsUsed);
+    }
+    EstimatedRobotPose estimate = new EstimatedRobotPose(new Pose3d(x, y, 0, new Rotation3d(0, 0, heading)),
+                                                         timestamp,
+                                                         targetsUsed,
+                                                         PoseStrategy.MULTI_TAG_PNP_ON_RIO);
+    return new VisionObservation(Cameras.values()[primaryCamera],
+                                 estimate,
+                                 stdDevs[0],
+                                 stdDevs[1],
+                                 stdDevs[2],
+                                 ingestTime);
+  }
+
+  /**
+   * Add a frame to the current solve, placing its camera where it was at the capture time relative to the robot at
+   * the solve time.
+   *
+   * @param camera      Camera ordinal.
+   * @param motionKnown True if {@link MultiCameraPoseSolver#referenceOdometry} holds the odometry at the solve time.
+   * @param timestamp   Capture time of the frame in seconds.
+   * @return Frame index.
+   */
+  private int addView(int camera, boolean motionKnown, double timestamp)
+  {
+    if (viewCount == viewCamera.length)
+    {
+      viewCamera = Arrays.copyOf(viewCamera, viewCount * 2);
+      viewMotion = Arrays.copyOf(viewMotion, viewCount * 2 * 3);
+      viewTranslation = Arrays.copyOf(viewTranslation, viewCount * 2 * 3);
+      viewRotation = Arrays.copyOf(viewRotation, viewCount * 2 * 9);
+    }
+    int    view = viewCount++;
+    double dx   = 0;
+    double dy   = 0;
+    double dh   = 0;
+    if (motionKnown && poseHistory.sample(timestamp, frameOdometry))
+    {
+      double cos = Math.cos(referenceOdometry[2]);
+      double sin = Math.sin(referenceOdometry[2]);
+      double fx  = frameOdometry[0] - referenceOdometry[0];
+      double fy  = frameOdometry[1] - referenceOdometry[1];
+      dx = cos * fx + sin * fy;
+      dy = -sin * fx + cos * fy;
+      dh = MathUtil.angleModulus(frameOdometry[2] - referenceOdometry[2]);
+    }
+    viewCamera[view] = camera;
+    viewMotion[view * 3] = dx;
+    viewMotion[view * 3 + 1] = dy;
+    viewMotion[view * 3 + 2] = dh;
+
+    // The camera mounting composed with the robot motion, rotated about Z by the heading change.
+    double[] translation = cameraTranslation[camera];
+    double[] rotation    = cameraRotation[camera];
+    double   cos         = Math.cos(dh);
+    double   sin         = Math.sin(dh);
+    viewTranslation[view * 3] = dx + cos * translation[0] - sin * translation[1];
+    viewTranslation[view * 3 + 1] = dy + sin * translation[0] + cos * translation[1];
+    viewTranslation[view * 3 + 2] = translation[2];
+    for (int col = 0; col < 3; col++)
+    {
+      viewRotation[view * 9 + col] = cos * rotation[col] - sin * rotation[3 + col];
+      viewRotation[view * 9 + 3 + col] = sin * rotation[col] + cos * rotation[3 + col];
+      viewRotation[view * 9 + 6 + col] = rotation[6 + col];
+    }
+    return view;
+  }
+
+  /**
+   * Read the camera calibration from PhotonVision if it has not been read yet.
+   *
+   * @param camera Camera to read.
+   * @return True if the intrinsics are known.
+   */
+  private boolean updateIntrinsics(Cameras camera)
+  {
+    if (intrinsics[camera.ordinal()] == null)
+    {
+      Optional<Matrix<N3, N3>> cameraMatrix = camera.camera.getCameraMatrix();
+      if (cameraMatrix.isEmpty())
+      {
+        return false;
+      }
+      Matrix<N3, N3> matrix = cameraMatrix.get();
+      intrinsics[camera.ordinal()] = new double[]{matrix.get(0, 0), matrix.get(1, 1), matrix.get(0, 2),
+                                                  matrix.get(1, 2)};
+    }
+    return true;
+  }
+
+  /**
+   * Append the detected corners of every known tag to the corner buffers.
+   *
+   * @param view    Frame the targets were seen in.
+   * @param targets Targets used by the camera's estimate.
+   * @return Number of corners added.
+   */
+  private int addCorners(int view, List<PhotonTrackedTarget> targets)
+  {
+    int added = 0;
+    for (int t = 0; t < targets.size(); t++)
+    {
+      PhotonTrackedTarget target   = targets.get(t);
+      List<TargetCorner>  detected = target.getDetectedCorners();
+      int                 id       = target.getFiducialId();
+      if (id < 0 || (id + 1) * CORNERS_PER_TAG > tagCorners.length || tagCorners[id * CORNERS_PER_TAG] == null ||
+          detected == null || detected.size() != CORNERS_PER_TAG)
+      {
+        continue;
+      }
+      ensureCornerCapacity(cornerCount + CORNERS_PER_TAG);
+      for (int k = 0; k < CORNERS_PER_TAG; k++)
+      {
+        double[] corner = tagCorners[id * CORNERS_PER_TAG + k];
+        cornerView[cornerCount] = view;
+        cornerField[cornerCount * 3] = corner[0];
+        cornerField[cornerCount * 3 + 1] = corner[1];
+        cornerField[cornerCount * 3 + 2] = corner[2];
+        cornerPixel[cornerCount * 2] = detected.get(k).x;
+        cornerPixel[cornerCount * 2 + 1] = detected.get(k).y;
+        cornerCount++;
+      }
+      added += CORNERS_PER_TAG;
+    }
+    return added;
+  }
+
+  /**
+   * Grow the corner buffers.
+   *
+   * @param capacity Number of corners which must fit.
+   */
+  private void ensureCornerCapacity(int capacity)
+  {
+    if (capacity > cornerView.length)
+    {
+      int size = Math.max(capacity, cornerView.length * 2);
+      cornerView = Arrays.copyOf(cornerView, size);
+      cornerField = Arrays.copyOf(cornerField, size * 3);
+      cornerPixel = Arrays.copyOf(cornerPixel, size * 2);
+    }
+  }
+
+  /**
+   * Accumulate the Gauss-Newton normal equations J^T J and J^T r at a pose into {@link MultiCameraPoseSolver#hessian}
+   * and {@link MultiCameraPoseSolver#gradient}.
+   *
+   * @param x       Robot X in meters.
+   * @param y       Robot Y in meters.
+   * @param heading Robot heading in radians.
+   * @return False if a corner is behind a camera.
+   */
+  private boolean buildNormalEquations(double x, double y, double heading)
+  {
+    Arrays.fill(hessian, 0);
+    Arrays.fill(gradient, 0);
+    for (int i = 0; i < cornerCount; i++)
+    {
+      if (!project(i, x, y, heading))
+      {
+        return false;
+      }
+      for (int row = 0; row < 3; row++)
+      {
+        double ju = projection[2 + row];
+        double jv = projection[5 + row];
+        gradient[row] += ju * projection[0] + jv * projection[1];
+        for (int col = 0; col < 3; col++)
+        {
+          hessian[row * 3 + col] += ju * projection[2 + col] + jv * projection[5 + col];
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Root mean square reprojection error of every corner at a pose.
+   *
+   * @param x       Robot X in meters.
+   * @param y       Robot Y in meters.
+   * @param heading Robot heading in radians.
+   * @return Error in pixels, infinite if a corner is behind a camera.
+   */
+  private double reprojectionError(double x, double y, double heading)
+  {
+    double sumSquared = 0;
+    for (int i = 0; i < cornerCount; i++)
+    {
+      if (!project(i, x, y, heading))
+      {
+        return Double.POSITIVE_INFINITY;
+      }
+      sumSquared += projection[0] * projection[0] + projection[1] * projection[1];
+    }
+    return Math.sqrt(sumSquared / cornerCount);
+  }
+
+  /**
+   * Project a corner into its camera and write the pixel residual and its Jacobian into
+   * {@link MultiCameraPoseSolver#projection}.
+   *
+   * @param corner  Corner index.
+   * @param x       Robot X in meters.
+   * @param y       Robot Y in meters.
+   * @param heading Robot heading in radians.
+   * @return False if the corner is behind the camera.
+   */
+  private boolean project(int corner, double x, double y, double heading)
+  {
+    int      view      = cornerView[corner];
+    int      r         = view * 9;
+    int      t         = view * 3;
+    double[] intrinsic = intrinsics[viewCamera[view]];
+    double   cos       = Math.cos(heading);
+    double   sin       = Math.sin(heading);
+
+    // Field to robot frame.
+    double dx = cornerField[corner * 3] - x;
+    double dy = cornerField[corner * 3 + 1] - y;
+    double rx = cos * dx + sin * dy - viewTranslation[t];
+    double ry = -sin * dx + cos * dy - viewTranslation[t + 1];
+    double rz = cornerField[corner * 3 + 2] - viewTranslation[t + 2];
+    // Derivatives of the robot frame point with respect to (x, y, heading), z does not depend on the planar pose.
+    double rxDx = -cos, rxDy = -sin, rxDh = ry + viewTranslation[t + 1];
+    double ryDx = sin, ryDy = -cos, ryDh = -(rx + viewTranslation[t]);
+
+    // Robot to camera frame, multiplying by the transpose of the camera rotation. X forward, Y left, Z up.
+    double cx = viewRotation[r] * rx + viewRotation[r + 3] * ry + viewRotation[r + 6] * rz;
+    double cy = viewRotation[r + 1] * rx + viewRotation[r + 4] * ry + viewRotation[r + 7] * rz;
+    double cz = viewRotation[r + 2] * rx + viewRotation[r + 5] * ry + viewRotation[r + 8] * rz;
+    if (cx < MIN_DEPTH)
+    {
+      return false;
+    }
+
+    double u = intrinsic[2] - intrinsic[0] * cy / cx;
+    double v = intrinsic[3] - intrinsic[1] * cz / cx;
+    projection[0] = u - cornerPixel[corner * 2];
+    projection[1] = v - cornerPixel[corner * 2 + 1];
+
+    double invDepthSquared = 1.0 / (cx * cx);
+    for (int axis = 0; axis < 3; axis++)
+    {
+      double drx = axis == 0 ? rxDx : axis == 1 ? rxDy : rxDh;
+      double dry = axis == 0 ? ryDx : axis == 1 ? ryDy : ryDh;
+      double dcx = viewRotation[r] * drx + viewRotation[r + 3] * dry;
+      double dcy = viewRotation[r + 1] * drx + viewRotation[r + 4] * dry;
+      double dcz = viewRotation[r + 2] * drx + viewRotation[r + 5] * dry;
+      projection[2 + axis] = -intrinsic[0] * (dcy * cx - cy * dcx) * invDepthSquared;
+      projection[5 + axis] = -intrinsic[1] * (dcz * cx - cz * dcx) * invDepthSquared;
+    }
+    return true;
+  }
+
+  /**
+   * Solve a 3x3 linear system with Cramer's rule.
+   *
+   * @param a Row major matrix.
+   * @param b Right hand side.
+   * @param x Solution output.
+   * @return False if the matrix is singular.
+   */
+  private static boolean solve3x3(double[] a, double[] b, double[] x)
+  {
+    double c00 = a[4] * a[8] - a[5] * a[7];
+    double c01 = a[5] * a[6] - a[3] * a[8];
+    double c02 = a[3] * a[7] - a[4] * a[6];
+    double det = a[0] * c00 + a[1] * c01 + a[2] * c02;
+    if (Math.abs(det) < 1.0e-12)
+    {
+      return false;
+    }
+    x[0] = (b[0] * c00 + a[1] * (a[5] * b[2] - b[1] * a[8]) + a[2] * (b[1] * a[7] - a[4] * b[2])) / det;
+    x[1] = (a[0] * (b[1] * a[8] - a[5] * b[2]) + b[0] * c01 + a[2] * (a[3] * b[2] - b[1] * a[6])) / det;
+    x[2] = (a[0] * (a[4] * b[2] - b[1] * a[7]) + a[1] * (b[1] * a[6] - a[3] * b[2]) + b[0] * c02) / det;
+    return true;
+  }
+
+  /**
+   * Set the root mean square reprojection error above which the joint solution is discarded.
+   *
+   * @param pixels Error in pixels.
+   */
+  void setMaximumReprojectionError(double pixels)
+  {
+    maximumReprojectionErrorPixels = pixels;
+  }
+
+  /**
+   * Move frames captured before the newest one of a window by the odometry recorded since.
+   *
+   * @param history Odometry history, null to solve every frame of a window as if captured at once.
+   */
+  void setPoseHistory(PoseHistory history)
+  {
+    poseHistory = history;
+  }
+
+  /**
+   * Use a known camera calibration instead of waiting for PhotonVision to publish it.
+   *
+   * @param camera Camera the calibration belongs to.
+   * @param fx     Focal length along the image X axis in pixels.
+   * @param fy     Focal length along the image Y axis in pixels.
+   * @param cx     Principal point X in pixels.
+   * @param cy     Principal point Y in pixels.
+   */
+  void setIntrinsics(Cameras camera, double fx, double fy, double cx, double cy)
+  {
+    intrinsics[camera.ordinal()] = new double[]{fx, fy, cx, cy};
+  }
+}
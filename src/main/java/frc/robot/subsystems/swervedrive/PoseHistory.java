@@ -0,0 +1,215 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed capacity ring buffer of timestamped robot poses stored in primitive arrays, for asking where the robot was at
+ * the time a camera frame or sensor reading was captured.
+ *
+ * <p>One thread, normally the odometry update, writes with {@link PoseHistory#add}. Any number of threads may read
+ * with {@link PoseHistory#sample} at the same time: the buffer is guarded by a sequence lock, so readers never block
+ * the writer and simply retry if a sample was written while they were reading.
+ */
+public class PoseHistory
+{
+
+  /**
+   * Sample timestamps in seconds.
+   */
+  private final    double[] timestamps;
+  /**
+   * Sample X in meters.
+   */
+  private final    double[] x;
+  /**
+   * Sample Y in meters.
+   */
+  private final    double[] y;
+  /**
+   * Sample heading in radians.
+   */
+  private final    double[] heading;
+  /**
+   * Capacity minus one, the capacity is a power of two.
+   */
+  private final    int      mask;
+  /**
+   * Total samples written, the newest sample is at (count - 1) & mask.
+   */
+  private          long     count    = 0;
+  /**
+   * Sequence lock, odd while the writer is modifying the buffer.
+   */
+  private volatile long     sequence = 0;
+
+  /**
+   * Construct the pose history.
+   *
+   * @param capacity Minimum number of samples kept, rounded up to a power of two.
+   */
+  public PoseHistory(int capacity)
+  {
+    int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    timestamps = new double[size];
+    x = new double[size];
+    y = new double[size];
+    heading = new double[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Append a sample. Timestamps must not decrease, older samples are ignored. Only one thread may call this.
+   *
+   * @param timestamp Sample timestamp in seconds.
+   * @param poseX     Robot X in meters.
+   * @param poseY     Robot Y in meters.
+   * @param poseTheta Robot heading in radians.
+   */
+  public void add(double timestamp, double poseX, double poseY, double poseTheta)
+  {
+    if (count > 0 && timestamp < timestamps[(int) ((count - 1) & mask)])
+    {
+      return;
+    }
+    long seq = sequence;
+    sequence = seq + 1;
+    VarHandle.storeStoreFence();
+    int index = (int) (count & mask);
+    timestamps[index] = timestamp;
+    x[index] = poseX;
+    y[index] = poseY;
+    heading[index] = poseTheta;
+    count++;
+    sequence = seq + 2;
+  }
+
+  /**
+   * Append a sample. Only one thread may call this.
+   *
+   * @param timestamp Sample timestamp in seconds.
+   * @param pose      Robot pose.
+   */
+  public void add(double timestamp, Pose2d pose)
+  {
+    add(timestamp, pose.getX(), pose.getY(), pose.getRotation().getRadians());
+  }
+
+  /**
+   * Discard every sample, for example after the odometry is reset. Only the writing thread may call this.
+   */
+  public void clear()
+  {
+    long seq = sequence;
+    sequence = seq + 1;
+    VarHandle.storeStoreFence();
+    count = 0;
+    sequence = seq + 2;
+  }
+
+  /**
+   * Interpolate the robot pose at a timestamp without allocating. Timestamps outside the history use the oldest or
+   * newest sample. Safe to call from any thread.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @param out       Output of X, Y and heading in radians, at least three long.
+   * @return False if the history is empty, in which case out must be ignored.
+   */
+  public boolean sample(double timestamp, double[] out)
+  {
+    while (true)
+    {
+      long seq = sequence;
+      if ((seq & 1) != 0)
+      {
+        Thread.onSpinWait();
+        continue;
+      }
+
+      boolean found = interpolate(timestamp, out);
+      VarHandle.loadLoadFence();
+      if (sequence == seq)
+      {
+        return found;
+      }
+    }
+  }
+
+  /**
+   * Interpolate the robot pose at a timestamp.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @return Interpolated pose, or null if the history is empty.
+   */
+  public Pose2d getPose(double timestamp)
+  {
+    double[] out = new double[3];
+    return sample(timestamp, out) ? new Pose2d(out[0], out[1], new Rotation2d(out[2])) : null;
+  }
+
+  /**
+   * Interpolate inside the sequence lock. May read a torn state, which {@link PoseHistory#sample} detects and retries.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @param out       Output of X, Y and heading.
+   * @return False if the history is empty.
+   */
+  private boolean interpolate(double timestamp, double[] out)
+  {
+    long newest = count - 1;
+    long oldest = Math.max(0, count - timestamps.length);
+    if (newest < oldest)
+    {
+      return false;
+    }
+    if (timestamp <= timestamps[(int) (oldest & mask)])
+    {
+      copy((int) (oldest & mask), out);
+      return true;
+    }
+    if (timestamp >= timestamps[(int) (newest & mask)])
+    {
+      copy((int) (newest & mask), out);
+      return true;
+    }
+
+    // Binary search for the last sample at or before the timestamp, the one after it is strictly later.
+    long low  = oldest;
+    long high = newest;
+    while (high - low > 1)
+    {
+      long middle = (low + high) >>> 1;
+      if (timestamps[(int) (middle & mask)] <= timestamp)
+      {
+        low = middle;
+      } else
+      {
+        high = middle;
+      }
+    }
+
+    int    before = (int) (low & mask);
+    int    after  = (int) (high & mask);
+    double span   = timestamps[after] - timestamps[before];
+    double t      = span > 0 ? (timestamp - timestamps[before]) / span : 0;
+    out[0] = x[before] + (x[after] - x[before]) * t;
+    out[1] = y[before] + (y[after] - y[before]) * t;
+    out[2] = MathUtil.angleModulus(heading[before] + MathUtil.angleModulus(heading[after] - heading[before]) * t);
+    return true;
+  }
+
+  /**
+   * Copy one sample.
+   *
+   * @param index Buffer index.
+   * @param out   Output of X, Y and heading.
+   */
+  private void copy(int index, double[] out)
+  {
+    out[0] = x[index];
+    out[1] = y[index];
+    out[2] = heading[index];
+  }
+}
@@ -0,0 +1,423 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+
+/**
+ * Extrapolates the robot pose forward by the actuation latency, so controllers act on where the robot will be when
+ * their output takes effect rather than where odometry last saw it.
+ *
+ * <p>The latency is estimated online: the commanded and measured robot-relative chassis speeds of every loop are kept
+ * for one second, and the lag which best cross-correlates changes in the command with changes in the measured
+ * velocity is the actuation latency. The pose is then extrapolated by that latency with the measured velocity and a
+ * filtered acceleration. Only the main robot loop may use the predictor.
+ */
+public class PosePredictor
+{
+
+  /**
+   * Number of loop samples kept for the latency estimate.
+   */
+  private static final int           SAMPLES           = 50;
+  /**
+   * Largest lag tried, in samples.
+   */
+  private static final int           MAX_LAG           = 15;
+  /**
+   * Loops between latency estimates.
+   */
+  private static final int           ESTIMATE_INTERVAL = 10;
+  /**
+   * Minimum mean squared command change, in (m/s)^2 per sample, for a window to say anything about the latency.
+   */
+  private static final double        MIN_EXCITATION    = 1e-4;
+  /**
+   * Minimum normalized correlation for the best lag to be trusted.
+   */
+  private static final double        MIN_CORRELATION   = 0.5;
+  /**
+   * Commanded robot-relative X, Y and drive base radius scaled angular velocity, three values per sample.
+   */
+  private final        double[]      commanded         = new double[SAMPLES * 3];
+  /**
+   * Measured robot-relative X, Y and drive base radius scaled angular velocity, three values per sample.
+   */
+  private final        double[]      measured          = new double[SAMPLES * 3];
+  /**
+   * Radius used to compare angular velocity with linear velocity, in meters.
+   */
+  private final        double        driveBaseRadius;
+  /**
+   * Index of the next sample.
+   */
+  private              int           next              = 0;
+  /**
+   * Samples recorded, capped at {@link PosePredictor#SAMPLES}.
+   */
+  private              int           count             = 0;
+  /**
+   * Loops since the last latency estimate.
+   */
+  private              int           sinceEstimate     = 0;
+  /**
+   * Latest commanded robot-relative velocity X in meters per second.
+   */
+  private              double        commandVx         = 0;
+  /**
+   * Latest commanded robot-relative velocity Y in meters per second.
+   */
+  private              double        commandVy         = 0;
+  /**
+   * Latest commanded angular velocity in radians per second.
+   */
+  private              double        commandOmega      = 0;
+  /**
+   * Estimated actuation latency in seconds.
+   */
+  private              double        latency;
+  /**
+   * Filtered loop period in seconds.
+   */
+  private              double        loopPeriod        = 0.02;
+  /**
+   * Time of the previous update in seconds.
+   */
+  private              double        lastUpdate        = Double.NaN;
+  /**
+   * Snapshot time of the previous update in seconds.
+   */
+  private              double        lastSnapshotTime  = Double.NaN;
+  /**
+   * Previous field-relative velocity X in meters per second.
+   */
+  private              double        lastFieldVx       = 0;
+  /**
+   * Previous field-relative velocity Y in meters per second.
+   */
+  private              double        lastFieldVy       = 0;
+  /**
+   * Previous angular velocity in radians per second.
+   */
+  private              double        lastOmega         = 0;
+  /**
+   * Filtered field-relative acceleration X in meters per second squared.
+   */
+  private              double        accelX            = 0;
+  /**
+   * Filtered field-relative acceleration Y in meters per second squared.
+   */
+  private              double        accelY            = 0;
+  /**
+   * Filtered angular acceleration in radians per second squared.
+   */
+  private              double        alpha             = 0;
+  /**
+   * Largest acceleration used for extrapolation, in meters per second squared, limiting the effect of noise.
+   */
+  private              double        maximumAccel      = 10;
+  /**
+   * Pose predicted by the last update.
+   */
+  private              Pose2d        predictedPose     = new Pose2d();
+  /**
+   * Field-relative velocity predicted by the last update.
+   */
+  private              ChassisSpeeds predictedVelocity = new ChassisSpeeds();
+
+  /**
+   * Construct the predictor.
+   *
+   * @param initialLatency  Latency in seconds used until the first estimate, such as a measured loop and motor
+   *                        controller lag.
+   * @param driveBaseRadius Distance from the robot center to the furthest module in meters.
+   */
+  public PosePredictor(double initialLatency, double driveBaseRadius)
+  {
+    this.latency = initialLatency;
+    this.driveBaseRadius = driveBaseRadius;
+  }
+
+  /**
+   * Record the robot-relative speeds commanded to the drivetrain. Call whenever the drivetrain is commanded.
+   *
+   * @param robotRelativeSpeeds Commanded robot-relative speeds.
+   */
+  public void recordCommand(ChassisSpeeds robotRelativeSpeeds)
+  {
+    recordCommand(robotRelativeSpeeds.vxMetersPerSecond,
+                  robotRelativeSpeeds.vyMetersPerSecond,
+                  robotRelativeSpeeds.omegaRadiansPerSecond);
+  }
+
+  /**
+   * Record the robot-relative speeds commanded to the drivetrain without allocating.
+   *
+   * @param vx    Commanded robot-relative velocity X in meters per second.
+   * @param vy    Commanded robot-relative velocity Y in meters per second.
+   * @param omega Commanded angular velocity in radians per second.
+   */
+  public void recordCommand(double vx, double vy, double omega)
+  {
+    commandVx = vx;
+    commandVy = vy;
+    commandOmega = omega;
+  }
+
+  /**
+   * Record the latest command and this loop's measurement, refresh the latency estimate and predict the pose. Call once
+   * per loop, before the commands of the loop run.
+   *
+   * @param timestamp Current time in seconds.
+   * @param snapshot  Latest odometry snapshot.
+   */
+  void update(double timestamp, PoseSnapshot snapshot)
+  {
+    if (!Double.isNaN(lastUpdate) && timestamp > lastUpdate)
+    {
+      loopPeriod += 0.1 * ((timestamp - lastUpdate) - loopPeriod);
+    }
+    lastUpdate = timestamp;
+
+    int index = next * 3;
+    commanded[index] = commandVx;
+    commanded[index + 1] = commandVy;
+    commanded[index + 2] = commandOmega * driveBaseRadius;
+    measured[index] = snapshot.robotVx;
+    measured[index + 1] = snapshot.robotVy;
+    measured[index + 2] = snapshot.omega * driveBaseRadius;
+    next = (next + 1) % SAMPLES;
+    count = Math.min(count + 1, SAMPLES);
+    if (++sinceEstimate >= ESTIMATE_INTERVAL && count == SAMPLES)
+    {
+      sinceEstimate = 0;
+      estimateLatency();
+    }
+
+    updateAcceleration(snapshot);
+    predict(timestamp, snapshot);
+  }
+
+  /**
+   * Restart the prediction from a snapshot taken right after an odometry reset. The acceleration is differentiated
+   * across snapshots, so the jump of the reset would otherwise read as a huge acceleration, and the pose predicted
+   * before the reset would be served until the next update. The latency estimate is kept.
+   *
+   * @param snapshot Snapshot of the reset pose.
+   */
+  void reset(PoseSnapshot snapshot)
+  {
+    accelX = 0;
+    accelY = 0;
+    alpha = 0;
+    lastSnapshotTime = snapshot.timestampSeconds;
+    lastFieldVx = snapshot.fieldVx;
+    lastFieldVy = snapshot.fieldVy;
+    lastOmega = snapshot.omega;
+    predictedPose = snapshot.pose;
+    predictedVelocity = new ChassisSpeeds(snapshot.fieldVx, snapshot.fieldVy, snapshot.omega);
+  }
+
+  /**
+   * Find the lag which best correlates command changes with measured velocity changes and blend it into the latency.
+   */
+  private void estimateLatency()
+  {
+    double excitation = 0;
+    for (int i = 1; i < SAMPLES; i++)
+    {
+      for (int axis = 0; axis < 3; axis++)
+      {
+        double change = commandChange(i, axis);
+        excitation += change * change;
+      }
+    }
+    if (excitation / (SAMPLES - 1) < MIN_EXCITATION)
+    {
+      // The command barely changed, every lag fits equally well.
+      return;
+    }
+
+    double bestCorrelation = -1;
+    int    bestLag         = 0;
+    double previous        = 0;
+    double beforeBest      = 0;
+    double afterBest       = 0;
+    for (int lag = 0; lag <= MAX_LAG; lag++)
+    {
+      double correlation = correlation(lag);
+      if (lag == bestLag + 1)
+      {
+        afterBest = correlation;
+      }
+      if (correlation > bestCorrelation)
+      {
+        bestCorrelation = correlation;
+        bestLag = lag;
+        beforeBest = previous;
+        afterBest = 0;
+      }
+      previous = correlation;
+    }
+    if (bestCorrelation < MIN_CORRELATION)
+    {
+      return;
+    }
+
+    // Fit a parabola through the best lag and its neighbours for a sub-sample peak.
+    double offset = 0;
+    if (bestLag > 0 && bestLag < MAX_LAG)
+    {
+      double curvature = beforeBest - 2 * bestCorrelation + afterBest;
+      if (curvature < 0)
+      {
+        offset = MathUtil.clamp(0.5 * (beforeBest - afterBest) / curvature, -0.5, 0.5);
+      }
+    }
+    // Commands are recorded after the update of their loop, so each sample pairs the previous loop's command with this
+    // loop's measurement and the correlated lag is one loop short of the actuation latency.
+    double measuredLatency = (bestLag + offset + 1) * loopPeriod;
+    latency += 0.2 * (measuredLatency - latency);
+  }
+
+  /**
+   * Normalized cross-correlation of the command changes with the measured velocity changes a number of samples later.
+   *
+   * @param lag Lag in samples.
+   * @return Correlation from -1 to 1.
+   */
+  private double correlation(int lag)
+  {
+    double sumProduct  = 0;
+    double sumCommand  = 0;
+    double sumMeasured = 0;
+    for (int i = 1 + lag; i < SAMPLES; i++)
+    {
+      for (int axis = 0; axis < 3; axis++)
+      {
+        double command     = commandChange(i - lag, axis);
+        double measurement = measuredChange(i, axis);
+        sumProduct += command * measurement;
+        sumCommand += command * command;
+        sumMeasured += measurement * measurement;
+      }
+    }
+    double norm = Math.sqrt(sumCommand * sumMeasured);
+    return norm > 0 ? sumProduct / norm : 0;
+  }
+
+  /**
+   * Change of the command from one sample to the next.
+   *
+   * @param age  Sample position, 0 is the oldest kept sample.
+   * @param axis 0 for X, 1 for Y, 2 for rotation.
+   * @return Change from the sample before.
+   */
+  private double commandChange(int age, int axis)
+  {
+    return commanded[((next + age) % SAMPLES) * 3 + axis] - commanded[((next + age - 1) % SAMPLES) * 3 + axis];
+  }
+
+  /**
+   * Change of the measured velocity from one sample to the next.
+   *
+   * @param age  Sample position, 0 is the oldest kept sample.
+   * @param axis 0 for X, 1 for Y, 2 for rotation.
+   * @return Change from the sample before.
+   */
+  private double measuredChange(int age, int axis)
+  {
+    return measured[((next + age) % SAMPLES) * 3 + axis] - measured[((next + age - 1) % SAMPLES) * 3 + axis];
+  }
+
+  /**
+   * Differentiate the field-relative velocity between snapshots and low-pass filter it.
+   *
+   * @param snapshot Latest odometry snapshot.
+   */
+  private void updateAcceleration(PoseSnapshot snapshot)
+  {
+    double dt = snapshot.timestampSeconds - lastSnapshotTime;
+    if (dt > 0 && dt < 0.1)
+    {
+      accelX += 0.3 * ((snapshot.fieldVx - lastFieldVx) / dt - accelX);
+      accelY += 0.3 * ((snapshot.fieldVy - lastFieldVy) / dt - accelY);
+      alpha += 0.3 * ((snapshot.omega - lastOmega) / dt - alpha);
+    } else if (dt != 0)
+    {
+      accelX = 0;
+      accelY = 0;
+      alpha = 0;
+    }
+    lastSnapshotTime = snapshot.timestampSeconds;
+    lastFieldVx = snapshot.fieldVx;
+    lastFieldVy = snapshot.fieldVy;
+    lastOmega = snapshot.omega;
+  }
+
+  /**
+   * Extrapolate the snapshot pose to the current time plus the latency.
+   *
+   * @param timestamp Current time in seconds.
+   * @param snapshot  Latest odometry snapshot.
+   */
+  private void predict(double timestamp, PoseSnapshot snapshot)
+  {
+    double horizon = latency + Math.max(0, timestamp - snapshot.timestampSeconds);
+    double ax      = MathUtil.clamp(accelX, -maximumAccel, maximumAccel);
+    double ay      = MathUtil.clamp(accelY, -maximumAccel, maximumAccel);
+    double aTheta  = MathUtil.clamp(alpha, -maximumAccel, maximumAccel);
+    double x       = snapshot.pose.getX() + snapshot.fieldVx * horizon + 0.5 * ax * horizon * horizon;
+    double y       = snapshot.pose.getY() + snapshot.fieldVy * horizon + 0.5 * ay * horizon * horizon;
+    double heading = snapshot.pose.getRotation().getRadians() + snapshot.omega * horizon +
+                     0.5 * aTheta * horizon * horizon;
+    predictedPose = new Pose2d(x, y, new Rotation2d(heading));
+    predictedVelocity = new ChassisSpeeds(snapshot.fieldVx + ax * horizon,
+                                          snapshot.fieldVy + ay * horizon,
+                                          snapshot.omega + aTheta * horizon);
+  }
+
+  /**
+   * Pose the robot is predicted to have when a command issued now takes effect.
+   *
+   * @return Predicted field pose.
+   */
+  public Pose2d getPredictedPose()
+  {
+    return predictedPose;
+  }
+
+  /**
+   * Field-relative velocity the robot is predicted to have when a command issued now takes effect.
+   *
+   * @return Predicted field-relative velocity, a copy.
+   */
+  public ChassisSpeeds getPredictedFieldVelocity()
+  {
+    return new ChassisSpeeds(predictedVelocity.vxMetersPerSecond,
+                             predictedVelocity.vyMetersPerSecond,
+                             predictedVelocity.omegaRadiansPerSecond);
+  }
+
+  /**
+   * Estimated actuation latency.
+   *
+   * @return Latency in seconds.
+   */
+  public double getLatency()
+  {
+    return latency;
+  }
+
+  /**
+   * Set the largest acceleration used for extrapolation.
+   *
+   * @param metersPerSecondSquared Acceleration limit, also applied to angular acceleration in radians per second
+   *                               squared.
+   */
+  public void setMaximumAcceleration(double metersPerSecondSquared)
+  {
+    maximumAccel = metersPerSecondSquared;
+  }
+}
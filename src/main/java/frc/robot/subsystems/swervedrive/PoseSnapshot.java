@@ -0,0 +1,88 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+
+/**
+ * Immutable snapshot of the robot pose and velocities produced by one odometry update. The odometry thread publishes a
+ * new snapshot through a volatile reference after every update, so any thread can read a consistent pose and velocity
+ * wait-free, without taking the {@link swervelib.SwerveDrive} odometry lock.
+ */
+final class PoseSnapshot
+{
+
+  /**
+   * Snapshot used before the first odometry update.
+   */
+  static final PoseSnapshot EMPTY = new PoseSnapshot(0, new Pose2d(), new ChassisSpeeds());
+
+  /**
+   * Time the snapshot was taken in seconds.
+   */
+  final        double       timestampSeconds;
+  /**
+   * Estimated robot pose, immutable.
+   */
+  final        Pose2d       pose;
+  /**
+   * Field-relative velocity X in meters per second.
+   */
+  final        double       fieldVx;
+  /**
+   * Field-relative velocity Y in meters per second.
+   */
+  final        double       fieldVy;
+  /**
+   * Robot-relative velocity X in meters per second.
+   */
+  final        double       robotVx;
+  /**
+   * Robot-relative velocity Y in meters per second.
+   */
+  final        double       robotVy;
+  /**
+   * Angular velocity in radians per second.
+   */
+  final        double       omega;
+
+  /**
+   * Take a snapshot. The field-relative velocity is the robot-relative velocity rotated by the pose heading, so it
+   * always matches the pose and needs no second pass over the module states.
+   *
+   * @param timestampSeconds Time the snapshot was taken in seconds.
+   * @param pose             Estimated robot pose.
+   * @param robotVelocity    Robot-relative velocity, copied.
+   */
+  PoseSnapshot(double timestampSeconds, Pose2d pose, ChassisSpeeds robotVelocity)
+  {
+    double cos = pose.getRotation().getCos();
+    double sin = pose.getRotation().getSin();
+    this.timestampSeconds = timestampSeconds;
+    this.pose = pose;
+    this.fieldVx = robotVelocity.vxMetersPerSecond * cos - robotVelocity.vyMetersPerSecond * sin;
+    this.fieldVy = robotVelocity.vxMetersPerSecond * sin + robotVelocity.vyMetersPerSecond * cos;
+    this.robotVx = robotVelocity.vxMetersPerSecond;
+    this.robotVy = robotVelocity.vyMetersPerSecond;
+    this.omega = robotVelocity.omegaRadiansPerSecond;
+  }
+
+  /**
+   * Field-relative velocity. {@link ChassisSpeeds} is mutable, so every call returns a new copy.
+   *
+   * @return Field-relative velocity.
+   */
+  ChassisSpeeds getFieldVelocity()
+  {
+    return new ChassisSpeeds(fieldVx, fieldVy, omega);
+  }
+
+  /**
+   * Robot-relative velocity. {@link ChassisSpeeds} is mutable, so every call returns a new copy.
+   *
+   * @return Robot-relative velocity.
+   */
+  ChassisSpeeds getRobotVelocity()
+  {
+    return new ChassisSpeeds(robotVx, robotVy, omega);
+  }
+}
@@ -0,0 +1,595 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+
+/**
+ * Swerve pose estimator which keeps its state, gains and history in primitive fields and arrays, so the odometry
+ * predict and vision update steps run without allocating. It follows the same model as WPILib's
+ * {@link edu.wpi.first.math.estimator.SwerveDrivePoseEstimator}: odometry integrates module deltas with the gyro
+ * heading, every vision measurement is blended into the estimate at its capture time with a steady-state Kalman gain,
+ * and the newest correction is carried forward along the odometry recorded since. Like WPILib, a measurement captured
+ * before corrections already made discards them rather than reapplying them on top of it, so a slow camera can undo
+ * a faster camera's newer correction until that camera's next frame.
+ *
+ * <p>Odometry updates and vision measurements may come from different threads, every method is synchronized.
+ */
+public class PrimitivePoseEstimator implements VisionMeasurementConsumer
+{
+
+  /**
+   * How long odometry and vision corrections are kept for measurements to be applied in the past, in seconds.
+   */
+  private static final double      HISTORY_DURATION = 1.5;
+  /**
+   * Maximum vision corrections kept within {@link PrimitivePoseEstimator#HISTORY_DURATION}.
+   */
+  private static final int         MAX_CORRECTIONS  = 64;
+  /**
+   * Number of swerve modules.
+   */
+  private final        int         modules;
+  /**
+   * Least-squares forward kinematics, a 3 by 2N row-major matrix mapping module displacements to the chassis motion.
+   */
+  private final        double[]    forwardKinematics;
+  /**
+   * Module drive distances from the previous update in meters.
+   */
+  private final        double[]    previousDistance;
+  /**
+   * Squared state standard deviations X, Y and heading.
+   */
+  private final        double[]    stateVariance    = new double[3];
+  /**
+   * Vision Kalman gains for X, Y and heading of measurements without their own standard deviations.
+   */
+  private final        double[]    visionGain       = new double[3];
+  /**
+   * Odometry poses over the last {@link PrimitivePoseEstimator#HISTORY_DURATION}.
+   */
+  private final        PoseHistory odometryHistory;
+  /**
+   * Capture timestamps of the vision corrections, in increasing order.
+   */
+  private final        double[]    correctionTime   = new double[MAX_CORRECTIONS];
+  /**
+   * Corrected pose X, Y and heading followed by the odometry pose X, Y and heading at each correction.
+   */
+  private final        double[]    correction       = new double[MAX_CORRECTIONS * 6];
+  /**
+   * Number of vision corrections kept.
+   */
+  private              int         corrections      = 0;
+  /**
+   * Scratch pose X, Y and heading.
+   */
+  private final        double[]    scratch          = new double[3];
+  /**
+   * Second scratch pose X, Y and heading.
+   */
+  private final        double[]    scratch2         = new double[3];
+  /**
+   * Odometry pose X in meters.
+   */
+  private              double      odometryX;
+  /**
+   * Odometry pose Y in meters.
+   */
+  private              double      odometryY;
+  /**
+   * Odometry heading in radians.
+   */
+  private              double      odometryTheta;
+  /**
+   * Offset from the gyro yaw to the odometry heading in radians.
+   */
+  private              double      gyroOffset;
+  /**
+   * Timestamp of the newest odometry update in seconds.
+   */
+  private              double      latestTimestamp  = Double.NEGATIVE_INFINITY;
+  /**
+   * Estimated pose X in meters.
+   */
+  private              double      estimateX;
+  /**
+   * Estimated pose Y in meters.
+   */
+  private              double      estimateY;
+  /**
+   * Estimated heading in radians.
+   */
+  private              double      estimateTheta;
+
+  /**
+   * Construct the estimator.
+   *
+   * @param moduleLocations          Module locations relative to the robot center, in the order module positions
+   *                                 are given.
+   * @param gyroAngle                Current gyro yaw in radians.
+   * @param modulePositions          Current module positions.
+   * @param initialPose              Starting pose.
+   * @param stateStdDevs             Trust in the odometry X, Y and heading, in meters and radians.
+   * @param visionMeasurementStdDevs Default trust in vision X, Y and heading, in meters and radians.
+   */
+  public PrimitivePoseEstimator(Translation2d[] moduleLocations, double gyroAngle,
+                                SwerveModulePosition[] modulePositions, Pose2d initialPose,
+                                Matrix<N3, N1> stateStdDevs, Matrix<N3, N1> visionMeasurementStdDevs)
+  {
+    modules = moduleLocations.length;
+    previousDistance = new double[modules];
+    forwardKinematics = new double[3 * 2 * modules];
+    odometryHistory = new PoseHistory(512);
+    computeForwardKinematics(moduleLocations);
+    for (int i = 0; i < 3; i++)
+    {
+      stateVariance[i] = stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0);
+    }
+    setVisionMeasurementStdDevs(visionMeasurementStdDevs.get(0, 0),
+                                visionMeasurementStdDevs.get(1, 0),
+                                visionMeasurementStdDevs.get(2, 0));
+    resetPose(initialPose, gyroAngle, modulePositions);
+  }
+
+  /**
+   * Compute the least-squares forward kinematics (A^T A)^-1 A^T, where each module contributes the rows [1, 0, -y] and
+   * [0, 1, x] of A.
+   *
+   * @param moduleLocations Module locations relative to the robot center.
+   */
+  private void computeForwardKinematics(Translation2d[] moduleLocations)
+  {
+    double sumX  = 0;
+    double sumY  = 0;
+    double sumR2 = 0;
+    for (Translation2d location : moduleLocations)
+    {
+      sumX += location.getX();
+      sumY += location.getY();
+      sumR2 += location.getX() * location.getX() + location.getY() * location.getY();
+    }
+
+    // A^T A = [[n, 0, -sumY], [0, n, sumX], [-sumY, sumX, sumR2]], inverted by cofactors.
+    double n   = modules;
+    double a00 = n * sumR2 - sumX * sumX;
+    double a01 = -sumX * sumY;
+    double a02 = n * sumY;
+    double a11 = n * sumR2 - sumY * sumY;
+    double a12 = -n * sumX;
+    double a22 = n * n;
+    double det = n * a00 - sumY * a02;
+    double[] inverse = {a00 / det, a01 / det, a02 / det,
+                        a01 / det, a11 / det, a12 / det,
+                        a02 / det, a12 / det, a22 / det};
+
+    int columns = 2 * modules;
+    for (int i = 0; i < modules; i++)
+    {
+      double x = moduleLocations[i].getX();
+      double y = moduleLocations[i].getY();
+      for (int row = 0; row < 3; row++)
+      {
+        forwardKinematics[row * columns + 2 * i] = inverse[row * 3] - inverse[row * 3 + 2] * y;
+        forwardKinematics[row * columns + 2 * i + 1] = inverse[row * 3 + 1] + inverse[row * 3 + 2] * x;
+      }
+    }
+  }
+
+  /**
+   * Reset the estimator to a pose, discarding the odometry and vision history.
+   *
+   * @param pose            New robot pose.
+   * @param gyroAngle       Current gyro yaw in radians.
+   * @param modulePositions Current module positions.
+   */
+  public synchronized void resetPose(Pose2d pose, double gyroAngle, SwerveModulePosition[] modulePositions)
+  {
+    odometryX = pose.getX();
+    odometryY = pose.getY();
+    odometryTheta = pose.getRotation().getRadians();
+    gyroOffset = odometryTheta - gyroAngle;
+    for (int i = 0; i < modules; i++)
+    {
+      previousDistance[i] = modulePositions[i].distanceMeters;
+    }
+    odometryHistory.clear();
+    corrections = 0;
+    latestTimestamp = Double.NEGATIVE_INFINITY;
+    estimateX = odometryX;
+    estimateY = odometryY;
+    estimateTheta = odometryTheta;
+  }
+
+  /**
+   * Set the default trust in vision measurements added without standard deviations.
+   *
+   * @param stdDevX     Standard deviation of vision X in meters.
+   * @param stdDevY     Standard deviation of vision Y in meters.
+   * @param stdDevTheta Standard deviation of vision heading in radians.
+   */
+  public synchronized void setVisionMeasurementStdDevs(double stdDevX, double stdDevY, double stdDevTheta)
+  {
+    visionGain[0] = gain(0, stdDevX);
+    visionGain[1] = gain(1, stdDevY);
+    visionGain[2] = gain(2, stdDevTheta);
+  }
+
+  /**
+   * Steady-state Kalman gain for one axis, matching WPILib's closed form for an identity model.
+   *
+   * @param axis   0 for X, 1 for Y, 2 for heading.
+   * @param stdDev Measurement standard deviation.
+   * @return Gain from 0, ignore the measurement, to 1, trust it fully.
+   */
+  private double gain(int axis, double stdDev)
+  {
+    double q = stateVariance[axis];
+    return q == 0 ? 0 : q / (q + Math.sqrt(q * stdDev * stdDev));
+  }
+
+  /**
+   * Integrate one sample of module positions and gyro yaw into the odometry and carry the vision correction forward.
+   *
+   * @param timestamp       Time of the sample in seconds.
+   * @param gyroAngle       Gyro yaw in radians.
+   * @param modulePositions Module positions.
+   */
+  public synchronized void update(double timestamp, double gyroAngle, SwerveModulePosition[] modulePositions)
+  {
+    int    columns = 2 * modules;
+    double dx      = 0;
+    double dy      = 0;
+    for (int i = 0; i < modules; i++)
+    {
+      double distance = modulePositions[i].distanceMeters - previousDistance[i];
+      double moduleDx = distance * modulePositions[i].angle.getCos();
+      double moduleDy = distance * modulePositions[i].angle.getSin();
+      dx += forwardKinematics[2 * i] * moduleDx + forwardKinematics[2 * i + 1] * moduleDy;
+      dy += forwardKinematics[columns + 2 * i] * moduleDx + forwardKinematics[columns + 2 * i + 1] * moduleDy;
+      previousDistance[i] = modulePositions[i].distanceMeters;
+    }
+    integrate(timestamp, gyroAngle, dx, dy);
+  }
+
+  /**
+   * Integrate one sample with a robot-relative translation computed by the caller, such as one with slipping modules
+   * filtered out by a {@link WheelSlipDetector}. The module positions only advance the reference distances the next
+   * {@link PrimitivePoseEstimator#update(double, double, SwerveModulePosition[])} measures from.
+   *
+   * @param timestamp       Time of the sample in seconds.
+   * @param gyroAngle       Gyro yaw in radians.
+   * @param modulePositions Measured module positions.
+   * @param dx              Robot-relative X translation since the previous sample in meters.
+   * @param dy              Robot-relative Y translation since the previous sample in meters.
+   */
+  public synchronized void update(double timestamp, double gyroAngle, SwerveModulePosition[] modulePositions,
+                                  double dx, double dy)
+  {
+    for (int i = 0; i < modules; i++)
+    {
+      previousDistance[i] = modulePositions[i].distanceMeters;
+    }
+    integrate(timestamp, gyroAngle, dx, dy);
+  }
+
+  /**
+   * Integrate a robot-relative translation and the gyro yaw into the odometry and carry the vision correction forward.
+   *
+   * @param timestamp Time of the sample in seconds.
+   * @param gyroAngle Gyro yaw in radians.
+   * @param dx        Robot-relative X translation since the previous sample in meters.
+   * @param dy        Robot-relative Y translation since the previous sample in meters.
+   */
+  private void integrate(double timestamp, double gyroAngle, double dx, double dy)
+  {
+    // The gyro measures rotation far better than the wheels do.
+    double heading = gyroAngle + gyroOffset;
+    double dTheta  = MathUtil.angleModulus(heading - odometryTheta);
+
+    scratch[0] = odometryX;
+    scratch[1] = odometryY;
+    scratch[2] = odometryTheta;
+    exp(scratch, dx, dy, dTheta, scratch);
+    odometryX = scratch[0];
+    odometryY = scratch[1];
+    odometryTheta = MathUtil.angleModulus(heading);
+    if (timestamp >= latestTimestamp)
+    {
+      latestTimestamp = timestamp;
+      odometryHistory.add(timestamp, odometryX, odometryY, odometryTheta);
+    }
+
+    if (corrections == 0)
+    {
+      estimateX = odometryX;
+      estimateY = odometryY;
+      estimateTheta = odometryTheta;
+    } else
+    {
+      scratch[0] = odometryX;
+      scratch[1] = odometryY;
+      scratch[2] = odometryTheta;
+      compensate(corrections - 1, scratch, scratch);
+      estimateX = scratch[0];
+      estimateY = scratch[1];
+      estimateTheta = scratch[2];
+    }
+  }
+
+  /**
+   * Add a vision measurement with the default standard deviations.
+   *
+   * @param visionRobotPose  Robot pose measured by vision.
+   * @param timestampSeconds Capture timestamp of the measurement in seconds.
+   */
+  public synchronized void addVisionMeasurement(Pose2d visionRobotPose, double timestampSeconds)
+  {
+    applyVisionMeasurement(visionRobotPose.getX(),
+                         visionRobotPose.getY(),
+                         visionRobotPose.getRotation().getRadians(),
+                         timestampSeconds,
+                         visionGain[0],
+                         visionGain[1],
+                         visionGain[2]);
+  }
+
+  /**
+   * Add a vision measurement with its own standard deviations.
+   *
+   * @param visionRobotPose          Robot pose measured by vision.
+   * @param timestampSeconds         Capture timestamp of the measurement in seconds.
+   * @param visionMeasurementStdDevs Standard deviations of X, Y and heading, in meters and radians.
+   */
+  public void addVisionMeasurement(Pose2d visionRobotPose, double timestampSeconds,
+                                   Matrix<N3, N1> visionMeasurementStdDevs)
+  {
+    accept(visionRobotPose,
+           timestampSeconds,
+           visionMeasurementStdDevs.get(0, 0),
+           visionMeasurementStdDevs.get(1, 0),
+           visionMeasurementStdDevs.get(2, 0));
+  }
+
+  /**
+   * Add a vision measurement with its own standard deviations. Measurements with a non-finite or
+   * {@link Double#MAX_VALUE} standard deviation carry no information and are ignored.
+   *
+   * @param robotPose        Robot pose measured by vision.
+   * @param timestampSeconds Capture timestamp of the measurement in seconds.
+   * @param stdDevX          Standard deviation of the X estimate in meters.
+   * @param stdDevY          Standard deviation of the Y estimate in meters.
+   * @param stdDevTheta      Standard deviation of the heading estimate in radians.
+   */
+  @Override
+  public synchronized void accept(Pose2d robotPose, double timestampSeconds, double stdDevX, double stdDevY,
+                                  double stdDevTheta)
+  {
+    if (!isInformative(stdDevX) || !isInformative(stdDevY) || !isInformative(stdDevTheta))
+    {
+      return;
+    }
+    applyVisionMeasurement(robotPose.getX(),
+                         robotPose.getY(),
+                         robotPose.getRotation().getRadians(),
+                         timestampSeconds,
+                         gain(0, stdDevX),
+                         gain(1, stdDevY),
+                         gain(2, stdDevTheta));
+  }
+
+  /**
+   * Check if a standard deviation carries information.
+   *
+   * @param stdDev Standard deviation of a measurement.
+   * @return True if it is finite, below {@link Double#MAX_VALUE} and not negative.
+   */
+  private static boolean isInformative(double stdDev)
+  {
+    return Double.isFinite(stdDev) && stdDev < Double.MAX_VALUE && stdDev >= 0;
+  }
+
+  /**
+   * Blend a vision measurement into the estimate at its capture time, then carry it forward to now.
+   *
+   * @param visionX   Measured X in meters.
+   * @param visionY   Measured Y in meters.
+   * @param visionT   Measured heading in radians.
+   * @param timestamp Capture timestamp in seconds.
+   * @param gainX     Kalman gain for X.
+   * @param gainY     Kalman gain for Y.
+   * @param gainTheta Kalman gain for heading.
+   */
+  private void applyVisionMeasurement(double visionX, double visionY, double visionT, double timestamp,
+                                      double gainX, double gainY, double gainTheta)
+  {
+    // A NaN error would be carried into the estimate by any gain, even 0.
+    if (!Double.isFinite(visionX) || !Double.isFinite(visionY) || !Double.isFinite(visionT) ||
+        !Double.isFinite(timestamp))
+    {
+      return;
+    }
+    // Measurements older than the odometry history cannot be placed.
+    if (latestTimestamp == Double.NEGATIVE_INFINITY || latestTimestamp - HISTORY_DURATION > timestamp)
+    {
+      return;
+    }
+    discardCorrectionsBefore(latestTimestamp - HISTORY_DURATION);
+
+    // Odometry and estimate at the capture time.
+    odometryHistory.sample(timestamp, scratch2);
+    int before = lastCorrectionAtOrBefore(timestamp);
+    if (before < 0)
+    {
+      System.arraycopy(scratch2, 0, scratch, 0, 3);
+    } else
+    {
+      compensate(before, scratch2, scratch);
+    }
+
+    // Scale the twist from the estimate to the measurement by the gain and apply it.
+    double cos         = Math.cos(scratch[2]);
+    double sin         = Math.sin(scratch[2]);
+    double tx          = (visionX - scratch[0]) * cos + (visionY - scratch[1]) * sin;
+    double ty          = -(visionX - scratch[0]) * sin + (visionY - scratch[1]) * cos;
+    double dT          = MathUtil.angleModulus(visionT - scratch[2]);
+    double halfDTheta  = dT / 2;
+    double cosMinusOne = Math.cos(dT) - 1;
+    double halfThetaByTanOfHalfDTheta = Math.abs(cosMinusOne) < 1e-9
+                                        ? 1.0 - dT * dT / 12.0
+                                        : -(halfDTheta * Math.sin(dT)) / cosMinusOne;
+    // Same as Pose2d#log, the translation rotated by half the angle and scaled.
+    double twistX = tx * halfThetaByTanOfHalfDTheta + ty * halfDTheta;
+    double twistY = ty * halfThetaByTanOfHalfDTheta - tx * halfDTheta;
+    exp(scratch, gainX * twistX, gainY * twistY, gainTheta * dT, scratch);
+
+    // Record the correction. Later corrections were made against the old estimate and are dropped, as WPILib's
+    // addVisionMeasurement clears the vision updates after the measurement instead of replaying them.
+    int index = before + 1;
+    if (index == MAX_CORRECTIONS)
+    {
+      discardOldestCorrection();
+      index--;
+    }
+    correctionTime[index] = timestamp;
+    System.arraycopy(scratch, 0, correction, index * 6, 3);
+    System.arraycopy(scratch2, 0, correction, index * 6 + 3, 3);
+    corrections = index + 1;
+
+    scratch[0] = odometryX;
+    scratch[1] = odometryY;
+    scratch[2] = odometryTheta;
+    compensate(index, scratch, scratch);
+    estimateX = scratch[0];
+    estimateY = scratch[1];
+    estimateTheta = scratch[2];
+  }
+
+  /**
+   * Find the newest correction captured at or before a timestamp.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @return Correction index, or -1 if there is none.
+   */
+  private int lastCorrectionAtOrBefore(double timestamp)
+  {
+    int index = corrections - 1;
+    while (index >= 0 && correctionTime[index] > timestamp)
+    {
+      index--;
+    }
+    return index;
+  }
+
+  /**
+   * Discard corrections older than a timestamp, keeping the newest of them since it still applies after it.
+   *
+   * @param timestamp Oldest odometry timestamp kept, in seconds.
+   */
+  private void discardCorrectionsBefore(double timestamp)
+  {
+    int keep = lastCorrectionAtOrBefore(timestamp);
+    if (keep > 0)
+    {
+      System.arraycopy(correctionTime, keep, correctionTime, 0, corrections - keep);
+      System.arraycopy(correction, keep * 6, correction, 0, (corrections - keep) * 6);
+      corrections -= keep;
+    }
+  }
+
+  /**
+   * Discard the oldest correction to make room for a new one.
+   */
+  private void discardOldestCorrection()
+  {
+    System.arraycopy(correctionTime, 1, correctionTime, 0, corrections - 1);
+    System.arraycopy(correction, 6, correction, 0, (corrections - 1) * 6);
+    corrections--;
+  }
+
+  /**
+   * Carry a correction forward to an odometry pose, by applying the odometry motion since the correction to the
+   * corrected pose.
+   *
+   * @param index    Correction index.
+   * @param odometry Odometry pose X, Y and heading.
+   * @param out      Output of the estimated pose, may be the same array as odometry.
+   */
+  private void compensate(int index, double[] odometry, double[] out)
+  {
+    int    c   = index * 6;
+    double cos = Math.cos(correction[c + 5]);
+    double sin = Math.sin(correction[c + 5]);
+    double dx  = (odometry[0] - correction[c + 3]) * cos + (odometry[1] - correction[c + 4]) * sin;
+    double dy  = -(odometry[0] - correction[c + 3]) * sin + (odometry[1] - correction[c + 4]) * cos;
+    double dT  = odometry[2] - correction[c + 5];
+    cos = Math.cos(correction[c + 2]);
+    sin = Math.sin(correction[c + 2]);
+    out[0] = correction[c] + dx * cos - dy * sin;
+    out[1] = correction[c + 1] + dx * sin + dy * cos;
+    out[2] = MathUtil.angleModulus(correction[c + 2] + dT);
+  }
+
+  /**
+   * Apply a robot-relative twist to a pose, the same as {@link Pose2d#exp}.
+   *
+   * @param pose   Pose X, Y and heading.
+   * @param dx     Twist X in meters.
+   * @param dy     Twist Y in meters.
+   * @param dTheta Twist rotation in radians.
+   * @param out    Output pose, may be the same array as pose.
+   */
+  private static void exp(double[] pose, double dx, double dy, double dTheta, double[] out)
+  {
+    double sinTheta = Math.sin(dTheta);
+    double cosTheta = Math.cos(dTheta);
+    double s;
+    double c;
+    if (Math.abs(dTheta) < 1e-9)
+    {
+      s = 1.0 - dTheta * dTheta / 6.0;
+      c = 0.5 * dTheta;
+    } else
+    {
+      s = sinTheta / dTheta;
+      c = (1 - cosTheta) / dTheta;
+    }
+    double localX = dx * s - dy * c;
+    double localY = dx * c + dy * s;
+    double cos    = Math.cos(pose[2]);
+    double sin    = Math.sin(pose[2]);
+    double x      = pose[0] + localX * cos - localY * sin;
+    double y      = pose[1] + localX * sin + localY * cos;
+    out[2] = MathUtil.angleModulus(pose[2] + dTheta);
+    out[0] = x;
+    out[1] = y;
+  }
+
+  /**
+   * Copy the estimated pose without allocating.
+   *
+   * @param out Output of X and Y in meters and heading in radians, at least three long.
+   */
+  public synchronized void getPose(double[] out)
+  {
+    out[0] = estimateX;
+    out[1] = estimateY;
+    out[2] = estimateTheta;
+  }
+
+  /**
+   * Get the estimated pose.
+   *
+   * @return Estimated robot pose.
+   */
+  public synchronized Pose2d getPose()
+  {
+    return new Pose2d(estimateX, estimateY, new Rotation2d(estimateTheta));
+  }
+}
@@ -0,0 +1,74 @@
+package frc.robot.subsystems.swervedrive;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size window of samples with allocation-free percentile queries. Samples may be added from one thread while
+ * another thread queries percentiles.
+ */
+final class RollingPercentiles
+{
+
+  /**
+   * Circular window of the most recent samples.
+   */
+  private final double[] samples;
+  /**
+   * Sorted copy of {@link RollingPercentiles#samples} used while computing percentiles.
+   */
+  private final double[] sorted;
+  /**
+   * Number of valid samples in the window.
+   */
+  private       int      count = 0;
+  /**
+   * Index the next sample is written to.
+   */
+  private       int      next  = 0;
+
+  /**
+   * Construct the window.
+   *
+   * @param window Number of most recent samples to keep.
+   */
+  RollingPercentiles(int window)
+  {
+    samples = new double[window];
+    sorted = new double[window];
+  }
+
+  /**
+   * Add a sample, replacing the oldest one if the window is full.
+   *
+   * @param value Sample to add.
+   */
+  synchronized void add(double value)
+  {
+    samples[next] = value;
+    next = (next + 1) % samples.length;
+    count = Math.min(count + 1, samples.length);
+  }
+
+  /**
+   * Compute several percentiles of the current window using the nearest-rank method.
+   *
+   * @param percentiles Percentiles to compute, between (0,1].
+   * @param out         Output array, the same length as the percentiles.
+   * @return False if the window is empty and the output was not written.
+   */
+  synchronized boolean compute(double[] percentiles, double[] out)
+  {
+    if (count == 0)
+    {
+      return false;
+    }
+    System.arraycopy(samples, 0, sorted, 0, count);
+    Arrays.sort(sorted, 0, count);
+    for (int i = 0; i < percentiles.length; i++)
+    {
+      int rank = (int) Math.ceil(percentiles[i] * count) - 1;
+      out[i] = sorted[Math.max(0, Math.min(count - 1, rank))];
+    }
+    return true;
+  }
+}
@@ -0,0 +1,127 @@
+package frc.robot.subsystems.swervedrive;
+
+import com.pathplanner.lib.config.RobotConfig;
+import com.pathplanner.lib.util.DriveFeedforwards;
+import com.pathplanner.lib.util.swerve.SwerveSetpoint;
+import com.pathplanner.lib.util.swerve.SwerveSetpointGenerator;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Long-lived {@link SwerveSetpointGenerator} shared by every setpoint generator drive command, so the
+ * {@link RobotConfig} is loaded once instead of every time a command is built.
+ *
+ * <p>The generator is stepped with the measured time since the previous setpoint, clamped around the nominal loop
+ * period. A short loop then cannot freeze the setpoint and a loop overrun cannot let it jump by several loops worth of
+ * acceleration at once. Only the main robot loop may use the service.
+ */
+public class SetpointGeneratorService
+{
+
+  /**
+   * Smallest step, as a fraction of the nominal loop period.
+   */
+  private static final double                  MIN_PERIOD_SCALE = 0.5;
+  /**
+   * Largest step, as a multiple of the nominal loop period.
+   */
+  private static final double                  MAX_PERIOD_SCALE = 2.5;
+  /**
+   * Setpoint generator built from the robot config.
+   */
+  private final        SwerveSetpointGenerator generator;
+  /**
+   * Zero module feedforwards used when the setpoint is reset.
+   */
+  private final        DriveFeedforwards       zeroFeedforwards;
+  /**
+   * Nominal loop period in seconds.
+   */
+  private final        double                  nominalPeriod;
+  /**
+   * Setpoint generated by the previous update, or the measured state after a reset.
+   */
+  private              SwerveSetpoint          previousSetpoint;
+  /**
+   * Time of the previous update in seconds, NaN until the first update after a reset.
+   */
+  private              double                  previousTimestamp = Double.NaN;
+  /**
+   * Clamped step used by the previous update in seconds.
+   */
+  private              double                  lastPeriod;
+
+  /**
+   * Construct the service.
+   *
+   * @param config           PathPlanner robot config, loaded once.
+   * @param maxSteerVelocity Maximum module steering velocity in radians per second.
+   * @param nominalPeriod    Nominal loop period in seconds.
+   * @param moduleCount      Number of swerve modules.
+   */
+  public SetpointGeneratorService(RobotConfig config, double maxSteerVelocity, double nominalPeriod, int moduleCount)
+  {
+    this.generator = new SwerveSetpointGenerator(config, maxSteerVelocity);
+    this.nominalPeriod = nominalPeriod;
+    this.lastPeriod = nominalPeriod;
+    this.zeroFeedforwards = DriveFeedforwards.zeros(moduleCount);
+    SwerveModuleState[] states = new SwerveModuleState[moduleCount];
+    for (int i = 0; i < moduleCount; i++)
+    {
+      states[i] = new SwerveModuleState();
+    }
+    this.previousSetpoint = new SwerveSetpoint(new ChassisSpeeds(), states, zeroFeedforwards);
+  }
+
+  /**
+   * Start generating from the measured state of the robot, called when a drive command starts.
+   *
+   * @param robotRelativeSpeeds Measured robot-relative chassis speeds.
+   * @param moduleStates        Measured module states.
+   */
+  public void reset(ChassisSpeeds robotRelativeSpeeds, SwerveModuleState[] moduleStates)
+  {
+    previousSetpoint = new SwerveSetpoint(robotRelativeSpeeds, moduleStates, zeroFeedforwards);
+    previousTimestamp = Double.NaN;
+  }
+
+  /**
+   * Generate the next setpoint towards the target speeds.
+   *
+   * @param robotRelativeSpeeds Target robot-relative chassis speeds.
+   * @param timestamp           Current time in seconds.
+   * @return Setpoint to drive, valid until the next update.
+   */
+  public SwerveSetpoint update(ChassisSpeeds robotRelativeSpeeds, double timestamp)
+  {
+    double period = timestamp - previousTimestamp;
+    if (!Double.isFinite(period))
+    {
+      period = nominalPeriod;
+    }
+    lastPeriod = Math.max(nominalPeriod * MIN_PERIOD_SCALE, Math.min(period, nominalPeriod * MAX_PERIOD_SCALE));
+    previousSetpoint = generator.generateSetpoint(previousSetpoint, robotRelativeSpeeds, lastPeriod);
+    previousTimestamp = timestamp;
+    return previousSetpoint;
+  }
+
+  /**
+   * Get the setpoint generated by the last update.
+   *
+   * @return Last setpoint.
+   */
+  public SwerveSetpoint getSetpoint()
+  {
+    return previousSetpoint;
+  }
+
+  /**
+   * Get the clamped step used by the last update.
+   *
+   * @return Step in seconds.
+   */
+  public double getLastPeriod()
+  {
+    return lastPeriod;
+  }
+}
@@ -5,6 +5,7 @@
 package frc.robot.subsystems.swervedrive;
 
 import static edu.wpi.first.units.Units.Meter;
+import static edu.wpi.first.units.Units.Seconds;
 
 import com.pathplanner.lib.auto.AutoBuilder;
 import com.pathplanner.lib.commands.PathPlannerAuto;
@@ -14,18 +15,23 @@ import com.pathplanner.lib.config.RobotConfig;
 import com.pathplanner.lib.controllers.PPHolonomicDriveController;
 import com.pathplanner.lib.path.PathConstraints;
 import com.pathplanner.lib.path.PathPlannerPath;
-import com.pathplanner.lib.util.DriveFeedforwards;
 import com.pathplanner.lib.util.swerve.SwerveSetpoint;
 import com.pathplanner.lib.util.swerve.SwerveSetpointGenerator;
+import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.controller.SimpleMotorFeedforward;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.trajectory.Trajectory;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.Commands;
@@ -36,16 +42,22 @@ import frc.robot.Constants;
 import frc.robot.subsystems.swervedrive.Vision.Cameras;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.DoubleSupplier;
 import java.util.function.Supplier;
 import org.json.simple.parser.ParseException;
 import org.photonvision.targeting.PhotonPipelineResult;
+import org.ironmaple.simulation.SimulatedArena;
+import org.photonvision.targeting.PhotonTrackedTarget;
 import swervelib.SwerveController;
 import swervelib.SwerveDrive;
 import swervelib.SwerveDriveTest;
+import swervelib.SwerveModule;
 import swervelib.math.SwerveMath;
 import swervelib.parser.SwerveControllerConfiguration;
 import swervelib.parser.SwerveDriveConfiguration;
@@ -59,15 +71,102 @@ public class SwerveSubsystem extends SubsystemBase
   /**
    * Swerve drive object.
    */
-  private final SwerveDrive swerveDrive;
+  private final    SwerveDrive              swerveDrive;
   /**
    * Enable vision odometry updates while driving.
    */
-  private final boolean     visionDriveTest = false;
+  private final    boolean                  visionDriveTest     = false;
   /**
    * PhotonVision class to keep an accurate odometry.
    */
-  private       Vision      vision;
+  private          Vision                   vision;
+  /**
+   * Run odometry on a dedicated thread at {@link SwerveSubsystem#odometryPeriod} instead of the main robot loop while
+   * vision is fused with {@link SwerveSubsystem#visionDriveTest}, keeping high-rate wheel data. Without vision YAGSL's
+   * own odometry thread is left running.
+   */
+  private final    boolean                  highRateOdometry    = true;
+  /**
+   * Period of the high-rate odometry thread in seconds (250 Hz).
+   */
+  private final    double                   odometryPeriod      = 0.004;
+  /**
+   * High-rate odometry thread, null unless both {@link SwerveSubsystem#highRateOdometry} and
+   * {@link SwerveSubsystem#visionDriveTest} are enabled.
+   */
+  private          Notifier                 odometryThread;
+  /**
+   * Timestamped odometry poses used for latency compensation, written by whichever thread updates odometry.
+   */
+  private final    PoseHistory              poseHistory         = new PoseHistory(512);
+  /**
+   * Latest pose and velocities, republished after every odometry update and read without locking.
+   */
+  private volatile PoseSnapshot             poseSnapshot        = PoseSnapshot.EMPTY;
+  /**
+   * Set when odometry is reset, the odometry thread then clears {@link SwerveSubsystem#poseHistory}.
+   */
+  private volatile boolean                  poseHistoryStale    = false;
+  /**
+   * Scratch output of {@link PoseHistory#sample}, only used on the main robot loop.
+   */
+  private final    double[]                 poseSample          = new double[3];
+  /**
+   * Check every odometry sample for wheel slip and collisions and filter the deltas of slipping modules before they
+   * reach the pose estimator. Only applies while this subsystem updates odometry itself, with vision or the primitive
+   * estimator, YAGSL's own odometry thread feeds the measured positions.
+   */
+  private final    boolean                  wheelSlipDetection  = true;
+  /**
+   * Drop the delta of a slipping module entirely, instead of only down-weighting it. Collisions keep every delta since
+   * no module can be trusted more than the others.
+   */
+  private final    boolean                  dropSlipSamples     = true;
+  /**
+   * Fraction of a slipping module's own delta kept when it is down-weighted instead of dropped.
+   */
+  private final    double                   slipDownWeight      = 0.25;
+  /**
+   * Wheel slip and collision detector, only used by the thread which updates odometry or under the odometry lock.
+   */
+  private          WheelSlipDetector        slipDetector;
+  /**
+   * Pose estimator behind {@link SwerveSubsystem#getPose()} and the vision measurements.
+   */
+  private final    PoseEstimatorEngine      poseEstimatorEngine = PoseEstimatorEngine.YAGSL;
+  /**
+   * Allocation-free pose estimator, null unless {@link SwerveSubsystem#poseEstimatorEngine} is
+   * {@link PoseEstimatorEngine#PRIMITIVE}.
+   */
+  private          PrimitivePoseEstimator   primitiveEstimator;
+  /**
+   * Let controllers act on the pose extrapolated by the actuation latency instead of the measured pose.
+   */
+  private final    boolean                  poseExtrapolation   = true;
+  /**
+   * Latency-compensated pose predictor, updated on the main robot loop.
+   */
+  private          PosePredictor            posePredictor;
+  /**
+   * Robot-relative speeds commanded by the teleop drive commands, reused every loop.
+   */
+  private final    ChassisSpeeds            teleopSpeeds        = new ChassisSpeeds();
+  /**
+   * Field heading held by the heading drive command, in radians.
+   */
+  private          double                   teleopHeading       = 0;
+  /**
+   * Center of rotation of the teleop drive commands, the robot center.
+   */
+  private final    Translation2d            centerOfRotation    = new Translation2d();
+  /**
+   * Setpoint generator shared by the setpoint generator drive commands, created once the robot config is loaded.
+   */
+  private          SetpointGeneratorService setpointGenerator;
+  /**
+   * Robot-relative target speeds of the field-relative setpoint generator command, reused every loop.
+   */
+  private final    ChassisSpeeds            setpointSpeeds      = new ChassisSpeeds();
 
   /**
    * Initialize {@link SwerveDrive} with the directory provided.
@@ -102,9 +201,19 @@ public class SwerveSubsystem extends SubsystemBase
     swerveDrive.setModuleEncoderAutoSynchronize(false,
                                                 1); // Enable if you want to resynchronize your absolute encoders and motor encoders periodically when they are not moving.
     // swerveDrive.pushOffsetsToEncoders(); // Set the absolute encoder to be used over the internal encoder and push the offsets onto it. Throws warning if not possible
+    setupWheelSlipDetector(swerveDrive.swerveDriveConfiguration.moduleLocationsMeters);
+    setupPoseEstimator(swerveDrive.swerveDriveConfiguration.moduleLocationsMeters);
+    setupPosePredictor();
     if (visionDriveTest)
     {
       setupPhotonVision();
+    }
+    if (visionDriveTest && highRateOdometry)
+    {
+      // Vision measurements are fused by timestamp under the odometry lock, so odometry can keep running at full rate.
+      startOdometryThread();
+    } else if (visionDriveTest || primitiveEstimator != null)
+    {
       // Stop the odometry thread if we are using vision that way we can synchronize updates better.
       swerveDrive.stopOdometryThread();
     }
@@ -125,24 +234,277 @@ public class SwerveSubsystem extends SubsystemBase
                                   Constants.MAX_SPEED,
                                   new Pose2d(new Translation2d(Meter.of(2), Meter.of(0)),
                                              Rotation2d.fromDegrees(0)));
+    setupWheelSlipDetector(driveCfg.moduleLocationsMeters);
+    setupPoseEstimator(driveCfg.moduleLocationsMeters);
+    setupPosePredictor();
+    if (primitiveEstimator != null)
+    {
+      swerveDrive.stopOdometryThread();
+    }
+  }
+
+  /**
+   * Create the {@link WheelSlipDetector}, starting its corrected module positions from the ones the pose estimator was
+   * created with.
+   *
+   * @param moduleLocations Module locations relative to the robot center.
+   */
+  private void setupWheelSlipDetector(Translation2d[] moduleLocations)
+  {
+    slipDetector = new WheelSlipDetector(moduleLocations);
+    slipDetector.setSlipWeight(dropSlipSamples ? 0 : slipDownWeight);
+    slipDetector.resetPositions(swerveDrive.getModulePositions());
   }
 
   /**
-   * Setup the photon vision class.
+   * Create the {@link PrimitivePoseEstimator} when it is the selected engine, starting from the {@link SwerveDrive}
+   * pose with the same standard deviations YAGSL uses.
+   *
+   * @param moduleLocations Module locations relative to the robot center.
+   */
+  private void setupPoseEstimator(Translation2d[] moduleLocations)
+  {
+    if (poseEstimatorEngine == PoseEstimatorEngine.PRIMITIVE)
+    {
+      primitiveEstimator = new PrimitivePoseEstimator(moduleLocations,
+                                                      swerveDrive.getYaw().getRadians(),
+                                                      swerveDrive.getModulePositions(),
+                                                      swerveDrive.getPose(),
+                                                      VecBuilder.fill(0.1, 0.1, 0.1),
+                                                      VecBuilder.fill(0.9, 0.9, 0.9));
+    }
+  }
+
+  /**
+   * Create the {@link PosePredictor}, starting from the hardcoded loop and motor controller lag until the latency has
+   * been measured, and publish the first snapshot.
+   */
+  private void setupPosePredictor()
+  {
+    posePredictor = new PosePredictor(Constants.LOOP_TIME,
+                                      swerveDrive.swerveDriveConfiguration.getDriveBaseRadiusMeters());
+    posePredictor.update(Timer.getFPGATimestamp(), publishSnapshot());
+  }
+
+  /**
+   * Setup the photon vision class, gating its estimates against the odometry pose at their capture time and moving
+   * the frames of a joint solve to the same instant.
    */
   public void setupPhotonVision()
   {
-    vision = new Vision(swerveDrive::getPose, swerveDrive.field);
+    vision = new Vision(this::getPose, swerveDrive.field);
+    vision.setPoseHistory(poseHistory);
   }
 
   @Override
   public void periodic()
   {
-    // When vision is enabled we must manually update odometry in SwerveDrive
+    // When vision is enabled without the high-rate odometry thread we must manually update odometry in SwerveDrive
+    if ((visionDriveTest || primitiveEstimator != null) && odometryThread == null)
+    {
+      updateOdometry();
+      publishSnapshot();
+    }
     if (visionDriveTest)
+    {
+      if (primitiveEstimator != null)
+      {
+        vision.updatePoseEstimation(swerveDrive, primitiveEstimator);
+      } else
+      {
+        vision.updatePoseEstimation(swerveDrive);
+      }
+    }
+    if (odometryThread == null)
+    {
+      recordPose();
+    }
+    if (primitiveEstimator != null || (visionDriveTest && wheelSlipDetection))
+    {
+      // YAGSL only updates the field from its own odometry update.
+      swerveDrive.field.setRobotPose(getPose());
+    }
+    posePredictor.update(Timer.getFPGATimestamp(), poseSnapshot);
+  }
+
+  /**
+   * Replace the YAGSL odometry thread with one running at {@link SwerveSubsystem#odometryPeriod} which also records
+   * every sample into {@link SwerveSubsystem#poseHistory}. Every sample steps the simulated arena, so its period is
+   * set to the odometry period to keep simulated time in step with real time.
+   */
+  private void startOdometryThread()
+  {
+    swerveDrive.stopOdometryThread();
+    if (SwerveDriveTelemetry.isSimulation)
+    {
+      SimulatedArena.overrideSimulationTimings(Seconds.of(odometryPeriod), 1);
+    }
+    odometryThread = new Notifier(() -> {
+      updateOdometry();
+      recordPose();
+    });
+    odometryThread.setName("Swerve Odometry");
+    odometryThread.startPeriodic(odometryPeriod);
+  }
+
+  /**
+   * Update the pose estimator with one sample of module positions and gyro yaw.
+   *
+   * <p>With {@link SwerveSubsystem#wheelSlipDetection}, the sample is checked by {@link SwerveSubsystem#slipDetector}
+   * first and the {@link SwerveDrive} pose estimator is fed the corrected module positions under the odometry lock,
+   * instead of going through {@link SwerveDrive#updateOdometry()} with the measured ones. The delta of a slipping
+   * module never reaches the estimator, so it cannot be replayed when a vision measurement rewinds the estimator
+   * history. The rest of {@link SwerveDrive#updateOdometry()} still has to happen every sample: the sensor cache is
+   * invalidated so the sample is fresh, the simulated arena is stepped and the module telemetry is published. Only the
+   * thread which updates odometry may call this.
+   */
+  void updateOdometry()
+  {
+    if (primitiveEstimator != null)
+    {
+      updatePrimitiveOdometry();
+      return;
+    }
+    if (!wheelSlipDetection)
     {
       swerveDrive.updateOdometry();
-      vision.updatePoseEstimation(swerveDrive);
+      return;
+    }
+
+    swerveDrive.odometryLock.lock();
+    try
+    {
+      if (SwerveDriveTelemetry.isSimulation)
+      {
+        SimulatedArena.getInstance().simulationPeriodic();
+      }
+      swerveDrive.invalidateCache();
+      Rotation2d yaw = swerveDrive.getYaw();
+      checkWheelSlip(swerveDrive.getModulePositions(), yaw.getRadians(), Timer.getFPGATimestamp());
+      swerveDrive.swerveDrivePoseEstimator.update(yaw, slipDetector.getCorrectedPositions());
+      if (SwerveDriveTelemetry.verbosity == TelemetryVerbosity.HIGH)
+      {
+        for (SwerveModule module : swerveDrive.getModules())
+        {
+          module.updateTelemetry();
+        }
+        SwerveDriveTelemetry.updateData();
+      }
+    } finally
+    {
+      swerveDrive.odometryLock.unlock();
+    }
+  }
+
+  /**
+   * Update the {@link PrimitivePoseEstimator} with one sample of module positions and gyro yaw. With
+   * {@link SwerveSubsystem#wheelSlipDetection}, a sample with slipping modules is integrated with the translation of
+   * the corrected module deltas instead. {@link SwerveDrive#updateOdometry()} still runs first for its sensor cache,
+   * simulation and telemetry updates, the positions read afterwards are the ones it just refreshed. Runs under the
+   * odometry lock so resets cannot interleave with the check.
+   */
+  private void updatePrimitiveOdometry()
+  {
+    swerveDrive.odometryLock.lock();
+    try
+    {
+      swerveDrive.updateOdometry();
+      double                 timestamp = Timer.getFPGATimestamp();
+      double                 yaw       = swerveDrive.getYaw().getRadians();
+      SwerveModulePosition[] positions = swerveDrive.getModulePositions();
+      if (wheelSlipDetection && checkWheelSlip(positions, yaw, timestamp))
+      {
+        primitiveEstimator.update(timestamp,
+                                  yaw,
+                                  positions,
+                                  slipDetector.getCorrectedDx(),
+                                  slipDetector.getCorrectedDy());
+      } else
+      {
+        primitiveEstimator.update(timestamp, yaw, positions);
+      }
+    } finally
+    {
+      swerveDrive.odometryLock.unlock();
+    }
+  }
+
+  /**
+   * Check an odometry sample with {@link SwerveSubsystem#slipDetector}.
+   *
+   * @param positions Measured module positions.
+   * @param yaw       Gyro yaw in radians.
+   * @param timestamp Time of the sample in seconds.
+   * @return True if a slipping module delta was corrected.
+   */
+  private boolean checkWheelSlip(SwerveModulePosition[] positions, double yaw, double timestamp)
+  {
+    Optional<Translation3d> accel   = swerveDrive.getAccel();
+    double                  accelXY = accel.isPresent() ? Math.hypot(accel.get().getX(), accel.get().getY()) : 0;
+    return slipDetector.update(positions, swerveDrive.getStates(), yaw, accelXY, timestamp);
+  }
+
+  /**
+   * Start the corrected module positions of {@link SwerveSubsystem#slipDetector} over after the pose estimator was
+   * reset, and reset the {@link SwerveDrive} estimator with them so both use the same positions. Call with the
+   * odometry lock held.
+   *
+   * @param pose Pose the estimator was reset to.
+   */
+  private void resetWheelSlip(Pose2d pose)
+  {
+    slipDetector.resetPositions(swerveDrive.getModulePositions());
+    if (wheelSlipDetection && primitiveEstimator == null)
+    {
+      swerveDrive.swerveDrivePoseEstimator.resetPosition(swerveDrive.getYaw(),
+                                                         slipDetector.getCorrectedPositions(),
+                                                         pose);
+    }
+  }
+
+  /**
+   * Publish the current odometry pose as a {@link PoseSnapshot} and record it into {@link SwerveSubsystem#poseHistory}.
+   * Only the thread which updates odometry may call this, so the history keeps a single writer. Runs under the
+   * odometry lock, so a snapshot taken before a reset can neither be published nor recorded after it.
+   */
+  private void recordPose()
+  {
+    swerveDrive.odometryLock.lock();
+    try
+    {
+      PoseSnapshot snapshot = publishSnapshot();
+      if (poseHistoryStale)
+      {
+        poseHistoryStale = false;
+        poseHistory.clear();
+      }
+      poseHistory.add(snapshot.timestampSeconds, snapshot.pose);
+    } finally
+    {
+      swerveDrive.odometryLock.unlock();
+    }
+  }
+
+  /**
+   * Read the pose and velocity from the active pose estimator and the {@link SwerveDrive} once, under its odometry
+   * lock, and publish them for lock-free readers. Safe to call from any thread, taking and publishing the snapshot is
+   * atomic with respect to odometry updates and resets.
+   *
+   * @return The published snapshot.
+   */
+  private PoseSnapshot publishSnapshot()
+  {
+    swerveDrive.odometryLock.lock();
+    try
+    {
+      // The SwerveDrive field velocity is rotated by its own heading, the snapshot rotates by the published pose.
+      Pose2d       pose     = primitiveEstimator != null ? primitiveEstimator.getPose() : swerveDrive.getPose();
+      PoseSnapshot snapshot = new PoseSnapshot(Timer.getFPGATimestamp(), pose, swerveDrive.getRobotVelocity());
+      poseSnapshot = snapshot;
+      return snapshot;
+    } finally
+    {
+      swerveDrive.odometryLock.unlock();
     }
   }
 
@@ -162,17 +524,19 @@ public class SwerveSubsystem extends SubsystemBase
     try
     {
       config = RobotConfig.fromGUISettings();
+      setupSetpointGenerator(config);
 
       final boolean enableFeedforward = true;
       // Configure AutoBuilder last
       AutoBuilder.configure(
-          this::getPose,
-          // Robot pose supplier
+          this::getControlPose,
+          // Robot pose supplier, extrapolated by the actuation latency
           this::resetOdometry,
           // Method to reset odometry (will be called if your auto has a starting pose)
           this::getRobotVelocity,
           // ChassisSpeeds supplier. MUST BE ROBOT RELATIVE
           (speedsRobotRelative, moduleFeedForwards) -> {
+            posePredictor.recordCommand(speedsRobotRelative);
             if (enableFeedforward)
             {
               swerveDrive.drive(
@@ -222,6 +586,19 @@ public class SwerveSubsystem extends SubsystemBase
     PathfindingCommand.warmupCommand().schedule();
   }
 
+  /**
+   * Create the {@link SetpointGeneratorService} used by every setpoint generator drive command.
+   *
+   * @param config PathPlanner robot config.
+   */
+  private void setupSetpointGenerator(RobotConfig config)
+  {
+    setpointGenerator = new SetpointGeneratorService(config,
+                                                     swerveDrive.getMaximumChassisAngularVelocity(),
+                                                     TimedRobot.kDefaultPeriod,
+                                                     swerveDrive.getModules().length);
+  }
+
   /**
    * Aim the robot at the target returned by PhotonVision.
    *
@@ -237,15 +614,88 @@ public class SwerveSubsystem extends SubsystemBase
         var result = resultO.get();
         if (result.hasTargets())
         {
-          drive(getTargetSpeeds(0,
-                                0,
-                                Rotation2d.fromDegrees(result.getBestTarget()
-                                                             .getYaw()))); // Not sure if this will work, more math may be required.
+          drive(getAimSpeeds(getHeadingToTarget(result.getBestTarget(), result.getTimestampSeconds())));
         }
       }
     });
   }
 
+  /**
+   * Aim the robot at an AprilTag using whichever camera has the best view of it from the current pose. Requires
+   * vision to be set up.
+   *
+   * @param tagId AprilTag ID to aim at.
+   * @return A {@link Command} which will run the alignment.
+   */
+  public Command aimAtTarget(int tagId)
+  {
+    return run(() -> {
+      Cameras camera = vision.getBestCamera(tagId);
+      if (camera != null)
+      {
+        // The ingestion thread replaces the index with every frame, read it once so the target and its capture time
+        // come from the same frame.
+        FiducialIndex       index  = camera.fiducialIndex;
+        PhotonTrackedTarget target = index.getTarget(tagId);
+        if (target != null)
+        {
+          drive(getAimSpeeds(getHeadingToTarget(target, index.getTimestamp(tagId))));
+        }
+      }
+    });
+  }
+
+  /**
+   * Field heading which points the robot at a target, compensated for camera latency by applying the target yaw to the
+   * heading the robot had when the frame was captured rather than the current heading.
+   *
+   * @param target    Tracked target.
+   * @param timestamp Capture timestamp of the frame the target was seen in, in seconds.
+   * @return Field heading to aim at.
+   */
+  private Rotation2d getHeadingToTarget(PhotonTrackedTarget target, double timestamp)
+  {
+    double heading = poseHistory.sample(timestamp, poseSample) ? poseSample[2] : getHeading().getRadians();
+    // PhotonVision yaw is positive to the right, which is a clockwise (negative) rotation.
+    return new Rotation2d(heading - Math.toRadians(target.getYaw()));
+  }
+
+  /**
+   * Chassis speeds which turn the robot in place to a field heading, controlled against the predicted heading so the
+   * rotation does not overshoot by the actuation latency.
+   *
+   * @param heading Field heading to turn to.
+   * @return Robot-relative {@link ChassisSpeeds} to drive.
+   */
+  private ChassisSpeeds getAimSpeeds(Rotation2d heading)
+  {
+    return swerveDrive.swerveController.getTargetSpeeds(0,
+                                                        0,
+                                                        heading.getRadians(),
+                                                        getControlPose().getRotation().getRadians(),
+                                                        Constants.MAX_SPEED);
+  }
+
+  /**
+   * Get the wheel slip and collision detector, to read its flags and counts.
+   *
+   * @return {@link WheelSlipDetector} checking every odometry sample.
+   */
+  public WheelSlipDetector getWheelSlipDetector()
+  {
+    return slipDetector;
+  }
+
+  /**
+   * Get the history of odometry poses, for looking up where the robot was when a measurement was captured.
+   *
+   * @return {@link PoseHistory} which may be read from any thread.
+   */
+  public PoseHistory getPoseHistory()
+  {
+    return poseHistory;
+  }
+
   /**
    * Get the path follower with events.
    *
@@ -290,26 +740,20 @@ public class SwerveSubsystem extends SubsystemBase
   private Command driveWithSetpointGenerator(Supplier<ChassisSpeeds> robotRelativeChassisSpeed)
   throws IOException, ParseException
   {
-    SwerveSetpointGenerator setpointGenerator = new SwerveSetpointGenerator(RobotConfig.fromGUISettings(),
-                                                                            swerveDrive.getMaximumChassisAngularVelocity());
-    AtomicReference<SwerveSetpoint> prevSetpoint
-        = new AtomicReference<>(new SwerveSetpoint(swerveDrive.getRobotVelocity(),
-                                                   swerveDrive.getStates(),
-                                                   DriveFeedforwards.zeros(swerveDrive.getModules().length)));
-    AtomicReference<Double> previousTime = new AtomicReference<>();
+    if (setpointGenerator == null)
+    {
+      // PathPlanner was not set up, load the robot config once here instead.
+      setupSetpointGenerator(RobotConfig.fromGUISettings());
+    }
 
-    return startRun(() -> previousTime.set(Timer.getFPGATimestamp()),
+    return startRun(() -> setpointGenerator.reset(swerveDrive.getRobotVelocity(), swerveDrive.getStates()),
                     () -> {
-                      double newTime = Timer.getFPGATimestamp();
-                      SwerveSetpoint newSetpoint = setpointGenerator.generateSetpoint(prevSetpoint.get(),
-                                                                                      robotRelativeChassisSpeed.get(),
-                                                                                      newTime - previousTime.get());
+                      SwerveSetpoint newSetpoint = setpointGenerator.update(robotRelativeChassisSpeed.get(),
+                                                                            Timer.getFPGATimestamp());
+                      posePredictor.recordCommand(newSetpoint.robotRelativeSpeeds());
                       swerveDrive.drive(newSetpoint.robotRelativeSpeeds(),
                                         newSetpoint.moduleStates(),
                                         newSetpoint.feedforwards().linearForces());
-                      prevSetpoint.set(newSetpoint);
-                      previousTime.set(newTime);
-
                     });
   }
 
@@ -324,8 +768,14 @@ public class SwerveSubsystem extends SubsystemBase
     try
     {
       return driveWithSetpointGenerator(() -> {
-        return ChassisSpeeds.fromFieldRelativeSpeeds(fieldRelativeSpeeds.get(), getHeading());
-
+        ChassisSpeeds speeds  = fieldRelativeSpeeds.get();
+        Rotation2d    heading = getHeading();
+        setpointSpeeds.vxMetersPerSecond = speeds.vxMetersPerSecond * heading.getCos() +
+                                           speeds.vyMetersPerSecond * heading.getSin();
+        setpointSpeeds.vyMetersPerSecond = -speeds.vxMetersPerSecond * heading.getSin() +
+                                           speeds.vyMetersPerSecond * heading.getCos();
+        setpointSpeeds.omegaRadiansPerSecond = speeds.omegaRadiansPerSecond;
+        return setpointSpeeds;
       });
     } catch (Exception e)
     {
@@ -385,7 +835,7 @@ public class SwerveSubsystem extends SubsystemBase
   public Command driveToDistanceCommand(double distanceInMeters, double speedInMetersPerSecond)
   {
     return run(() -> drive(new ChassisSpeeds(speedInMetersPerSecond, 0, 0)))
-        .until(() -> swerveDrive.getPose().getTranslation().getDistance(new Translation2d(0, 0)) >
+        .until(() -> getPose().getTranslation().getDistance(new Translation2d(0, 0)) >
                      distanceInMeters);
   }
 
@@ -404,29 +854,28 @@ public class SwerveSubsystem extends SubsystemBase
   /**
    * Command to drive the robot using translative values and heading as angular velocity.
    *
-   * @param translationX     Translation in the X direction. Cubed for smoother controls.
-   * @param translationY     Translation in the Y direction. Cubed for smoother controls.
-   * @param angularRotationX Angular velocity of the robot to set. Cubed for smoother controls.
+   * @param translationX     Translation in the X direction. Deadbanded and scaled to 80% of the maximum speed.
+   * @param translationY     Translation in the Y direction. Deadbanded and scaled to 80% of the maximum speed.
+   * @param angularRotationX Angular velocity of the robot to set. Deadbanded and cubed for smoother controls.
    * @return Drive command.
    */
   public Command driveCommand(DoubleSupplier translationX, DoubleSupplier translationY, DoubleSupplier angularRotationX)
   {
     return run(() -> {
       // Make the robot move
-      swerveDrive.drive(SwerveMath.scaleTranslation(new Translation2d(
-                            translationX.getAsDouble() * swerveDrive.getMaximumChassisVelocity(),
-                            translationY.getAsDouble() * swerveDrive.getMaximumChassisVelocity()), 0.8),
-                        Math.pow(angularRotationX.getAsDouble(), 3) * swerveDrive.getMaximumChassisAngularVelocity(),
-                        true,
-                        false);
+      driveTeleop(translationX.getAsDouble(),
+                  translationY.getAsDouble(),
+                  TeleopDrive.angularVelocity(angularRotationX.getAsDouble(),
+                                              swerveDrive.getMaximumChassisAngularVelocity()),
+                  false);
     });
   }
 
   /**
    * Command to drive the robot using translative values and heading as a setpoint.
    *
-   * @param translationX Translation in the X direction. Cubed for smoother controls.
-   * @param translationY Translation in the Y direction. Cubed for smoother controls.
+   * @param translationX Translation in the X direction. Deadbanded, scaled to 80% and cubed for smoother controls.
+   * @param translationY Translation in the Y direction. Deadbanded, scaled to 80% and cubed for smoother controls.
    * @param headingX     Heading X to calculate angle of the joystick.
    * @param headingY     Heading Y to calculate angle of the joystick.
    * @return Drive command.
@@ -435,20 +884,42 @@ public class SwerveSubsystem extends SubsystemBase
                               DoubleSupplier headingY)
   {
     // swerveDrive.setHeadingCorrection(true); // Normally you would want heading correction for this kind of control.
-    return run(() -> {
-
-      Translation2d scaledInputs = SwerveMath.scaleTranslation(new Translation2d(translationX.getAsDouble(),
-                                                                                 translationY.getAsDouble()), 0.8);
+    return startRun(() -> teleopHeading = getHeading().getRadians(), () -> {
+      double x = headingX.getAsDouble();
+      double y = headingY.getAsDouble();
+      // Hold the last heading while the heading joystick is centered.
+      if (Math.hypot(x, y) >= swerveDrive.swerveController.config.angleJoyStickRadiusDeadband)
+      {
+        teleopHeading = Math.atan2(x, y);
+      }
 
       // Make the robot move
-      driveFieldOriented(swerveDrive.swerveController.getTargetSpeeds(scaledInputs.getX(), scaledInputs.getY(),
-                                                                      headingX.getAsDouble(),
-                                                                      headingY.getAsDouble(),
-                                                                      swerveDrive.getOdometryHeading().getRadians(),
-                                                                      swerveDrive.getMaximumChassisVelocity()));
+      driveTeleop(translationX.getAsDouble(),
+                  translationY.getAsDouble(),
+                  swerveDrive.swerveController.headingCalculate(getHeading().getRadians(), teleopHeading),
+                  true);
     });
   }
 
+  /**
+   * Drive field-relative from joystick translation inputs without allocating: the inputs are deadbanded and scaled to
+   * the maximum chassis velocity, then rotated into the robot frame and written into
+   * {@link SwerveSubsystem#teleopSpeeds} by {@link TeleopDrive}. Only YAGSL's own module state calculation allocates
+   * after this.
+   *
+   * @param translationX    Joystick X input from -1 to 1.
+   * @param translationY    Joystick Y input from -1 to 1.
+   * @param rotation        Angular velocity in radians per second.
+   * @param cubeTranslation Cube the translation magnitude, as YAGSL's heading control does.
+   */
+  private void driveTeleop(double translationX, double translationY, double rotation, boolean cubeTranslation)
+  {
+    TeleopDrive.robotRelativeSpeeds(translationX, translationY, rotation, getHeading(),
+                                    swerveDrive.getMaximumChassisVelocity(), cubeTranslation, teleopSpeeds);
+    posePredictor.recordCommand(teleopSpeeds.vxMetersPerSecond, teleopSpeeds.vyMetersPerSecond, rotation);
+    swerveDrive.drive(teleopSpeeds, false, centerOfRotation);
+  }
+
   /**
    * The primary method for controlling the drivebase.  Takes a {@link Translation2d} and a rotation rate, and
    * calculates and commands module states accordingly.  Can use either open-loop or closed-loop velocity control for
@@ -465,9 +936,12 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void drive(Translation2d translation, double rotation, boolean fieldRelative)
   {
-    swerveDrive.drive(translation,
+    // Field-relative conversions use the published heading so they follow the selected pose estimator.
+    Translation2d robotRelative = fieldRelative ? translation.rotateBy(getHeading().unaryMinus()) : translation;
+    posePredictor.recordCommand(robotRelative.getX(), robotRelative.getY(), rotation);
+    swerveDrive.drive(robotRelative,
                       rotation,
-                      fieldRelative,
+                      false,
                       false); // Open loop is disabled since it shouldn't be used most of the time.
   }
 
@@ -478,7 +952,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void driveFieldOriented(ChassisSpeeds velocity)
   {
-    swerveDrive.driveFieldOriented(velocity);
+    drive(ChassisSpeeds.fromFieldRelativeSpeeds(velocity, getHeading()));
   }
 
   /**
@@ -489,7 +963,7 @@ public class SwerveSubsystem extends SubsystemBase
   public Command driveFieldOriented(Supplier<ChassisSpeeds> velocity)
   {
     return run(() -> {
-      swerveDrive.driveFieldOriented(velocity.get());
+      driveFieldOriented(velocity.get());
     });
   }
 
@@ -500,6 +974,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void drive(ChassisSpeeds velocity)
   {
+    posePredictor.recordCommand(velocity);
     swerveDrive.drive(velocity);
   }
 
@@ -523,7 +998,27 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void resetOdometry(Pose2d initialHolonomicPose)
   {
-    swerveDrive.resetOdometry(initialHolonomicPose);
+    PoseSnapshot snapshot;
+    swerveDrive.odometryLock.lock();
+    try
+    {
+      swerveDrive.resetOdometry(initialHolonomicPose);
+      if (primitiveEstimator != null)
+      {
+        primitiveEstimator.resetPose(initialHolonomicPose,
+                                     swerveDrive.getYaw().getRadians(),
+                                     swerveDrive.getModulePositions());
+      }
+      resetWheelSlip(initialHolonomicPose);
+      // Poses from before the reset are in a different frame and must not be interpolated with the new ones.
+      poseHistoryStale = true;
+      snapshot = publishSnapshot();
+    } finally
+    {
+      swerveDrive.odometryLock.unlock();
+    }
+    // A path started in the same loop reads the control pose, which must already be the reset pose.
+    posePredictor.reset(snapshot);
   }
 
   /**
@@ -533,7 +1028,39 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public Pose2d getPose()
   {
-    return swerveDrive.getPose();
+    return poseSnapshot.pose;
+  }
+
+  /**
+   * Gets the pose the robot is predicted to have when a command issued now takes effect, extrapolated from the
+   * odometry pose by the measured actuation latency.
+   *
+   * @return The predicted pose.
+   */
+  public Pose2d getPredictedPose()
+  {
+    return posePredictor.getPredictedPose();
+  }
+
+  /**
+   * Gets the pose controllers should act on, the predicted pose when pose extrapolation is enabled and the odometry
+   * pose otherwise.
+   *
+   * @return The pose to control against.
+   */
+  public Pose2d getControlPose()
+  {
+    return poseExtrapolation ? posePredictor.getPredictedPose() : getPose();
+  }
+
+  /**
+   * Get the estimated actuation latency used to extrapolate the pose.
+   *
+   * @return Latency in seconds.
+   */
+  public double getActuationLatency()
+  {
+    return posePredictor.getLatency();
   }
 
   /**
@@ -543,6 +1070,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void setChassisSpeeds(ChassisSpeeds chassisSpeeds)
   {
+    posePredictor.recordCommand(chassisSpeeds);
     swerveDrive.setChassisSpeeds(chassisSpeeds);
   }
 
@@ -561,7 +1089,24 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void zeroGyro()
   {
-    swerveDrive.zeroGyro();
+    PoseSnapshot snapshot;
+    swerveDrive.odometryLock.lock();
+    try
+    {
+      swerveDrive.zeroGyro();
+      Pose2d pose = new Pose2d(getPose().getTranslation(), new Rotation2d());
+      if (primitiveEstimator != null)
+      {
+        primitiveEstimator.resetPose(pose, swerveDrive.getYaw().getRadians(), swerveDrive.getModulePositions());
+      }
+      resetWheelSlip(pose);
+      poseHistoryStale = true;
+      snapshot = publishSnapshot();
+    } finally
+    {
+      swerveDrive.odometryLock.unlock();
+    }
+    posePredictor.reset(snapshot);
   }
 
   /**
@@ -611,7 +1156,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public Rotation2d getHeading()
   {
-    return getPose().getRotation();
+    return poseSnapshot.pose.getRotation();
   }
 
   /**
@@ -662,7 +1207,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public ChassisSpeeds getFieldVelocity()
   {
-    return swerveDrive.getFieldVelocity();
+    return poseSnapshot.getFieldVelocity();
   }
 
   /**
@@ -672,7 +1217,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public ChassisSpeeds getRobotVelocity()
   {
-    return swerveDrive.getRobotVelocity();
+    return poseSnapshot.getRobotVelocity();
   }
 
   /**
@@ -718,7 +1263,68 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void addFakeVisionReading()
   {
-    swerveDrive.addVisionMeasurement(new Pose2d(3, 3, Rotation2d.fromDegrees(65)), Timer.getFPGATimestamp());
+    if (primitiveEstimator != null)
+    {
+      primitiveEstimator.addVisionMeasurement(new Pose2d(3, 3, Rotation2d.fromDegrees(65)), Timer.getFPGATimestamp());
+    } else
+    {
+      swerveDrive.addVisionMeasurement(new Pose2d(3, 3, Rotation2d.fromDegrees(65)), Timer.getFPGATimestamp());
+    }
+  }
+
+  /**
+   * Start recording every camera frame and the odometry used for fusion into a new timestamped file, for replay with
+   * {@link VisionReplay}. Recordings go in vision-logs under /home/lvuser on the robot, and under the ignored build
+   * directory in simulation. Does nothing without vision or while a recording is in progress, so autonomous and teleop
+   * end up in one recording.
+   */
+  public void startVisionRecording()
+  {
+    if (vision == null || vision.isRecording())
+    {
+      return;
+    }
+    Path   operatingDirectory = Filesystem.getOperatingDirectory().toPath();
+    Path   logDirectory       = (SwerveDriveTelemetry.isSimulation ? operatingDirectory.resolve("build")
+                                                                     : operatingDirectory).resolve("vision-logs");
+    String name               = "vision-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))
+                                + ".bin";
+    try
+    {
+      Files.createDirectories(logDirectory);
+      vision.startRecording(logDirectory.resolve(name));
+    } catch (IOException e)
+    {
+      DriverStation.reportError("Could not start vision recording: " + e, e.getStackTrace());
+    }
+  }
+
+  /**
+   * Stop the vision recording in progress and close its file, does nothing if there is none.
+   */
+  public void stopVisionRecording()
+  {
+    if (vision != null)
+    {
+      vision.stopRecording();
+    }
+  }
+
+  /**
+   * Apply every measurement gathered in a {@link VisionMeasurementBatch} to the pose estimator, oldest first, and clear
+   * the batch.
+   *
+   * @param batch Vision measurements gathered this loop.
+   */
+  public void addVisionMeasurements(VisionMeasurementBatch batch)
+  {
+    if (primitiveEstimator != null)
+    {
+      batch.apply(primitiveEstimator);
+    } else
+    {
+      batch.apply(swerveDrive);
+    }
   }
 
   /**
@@ -730,4 +1336,21 @@ public class SwerveSubsystem extends SubsystemBase
   {
     return swerveDrive;
   }
+
+  /**
+   * Pose estimators the subsystem can run.
+   */
+  public enum PoseEstimatorEngine
+  {
+    /**
+     * The {@link SwerveDrive} pose estimator.
+     */
+    YAGSL,
+    /**
+     * {@link PrimitivePoseEstimator}, which predicts and corrects without allocating. YAGSL's own estimator is no
+     * longer updated, so {@link SwerveDrive#getPose()} and YAGSL helpers reading it, such as the heading modes of
+     * {@link swervelib.SwerveInputStream}, must not be used with it.
+     */
+    PRIMITIVE
+  }
 }
@@ -0,0 +1,496 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Precomputed grid over robot pose space (x, y, heading) storing, per camera, a bitmask of the AprilTags the camera can
+ * possibly see, and the best camera for each tag. Visibility only depends on the fixed {@link Vision#fieldLayout} and
+ * camera mounts, so the grid is built once and cached to disk.
+ *
+ * <p>Visibility is conservative: a tag is marked visible from a cell if it could be seen from any pose inside the cell,
+ * so an empty mask means the camera certainly cannot see a tag.
+ */
+final class TagVisibilityMap
+{
+
+  /**
+   * Cache file magic, "TVIS".
+   */
+  private static final int    MAGIC     = 0x54564953;
+  /**
+   * Cache file format version.
+   */
+  private static final int    VERSION   = 1;
+  /**
+   * Size of a grid cell in meters.
+   */
+  private static final double CELL_SIZE = 0.25;
+  /**
+   * Number of heading bins.
+   */
+  private static final int    HEADINGS  = 16;
+  /**
+   * Mask returned where visibility is unknown.
+   */
+  static final         long   ALL_TAGS  = -1L;
+
+  /**
+   * Number of cells along the field length.
+   */
+  private final int    columns;
+  /**
+   * Number of cells along the field width.
+   */
+  private final int    rows;
+  /**
+   * Number of tag slots per cell in {@link TagVisibilityMap#bestCamera}.
+   */
+  private final int    tagSlots;
+  /**
+   * Hash of every input to the map, used to invalidate the disk cache.
+   */
+  private final long   inputHash;
+  /**
+   * Visible tag bitmask indexed by [cell * cameras + {@link Cameras#ordinal()}], bit n is fiducial ID n.
+   */
+  private final long[] visibleTags;
+  /**
+   * Best camera ordinal indexed by [cell * tagSlots + fiducial ID], -1 where no camera can see the tag.
+   */
+  private final byte[] bestCamera;
+
+  /**
+   * Allocate an empty map.
+   *
+   * @param fieldLength Field length in meters.
+   * @param fieldWidth  Field width in meters.
+   * @param tagSlots    Largest fiducial ID plus one, at most 64.
+   * @param inputHash   Hash of every input to the map.
+   */
+  private TagVisibilityMap(double fieldLength, double fieldWidth, int tagSlots, long inputHash)
+  {
+    this.columns = (int) Math.ceil(fieldLength / CELL_SIZE);
+    this.rows = (int) Math.ceil(fieldWidth / CELL_SIZE);
+    this.tagSlots = tagSlots;
+    this.inputHash = inputHash;
+    int cells = columns * rows * HEADINGS;
+    visibleTags = new long[cells * Cameras.values().length];
+    bestCamera = new byte[cells * tagSlots];
+  }
+
+  /**
+   * Load the map from the cache file, or build it and write the cache file if it is missing or stale.
+   *
+   * @param cacheFile     Cache file.
+   * @param layout        Field layout.
+   * @param horizontalFov Horizontal field of view of every camera in radians.
+   * @param verticalFov   Vertical field of view of every camera in radians.
+   * @param maxDistance   Distance beyond which tags are not detected, in meters.
+   * @return Visibility map.
+   */
+  static TagVisibilityMap loadOrBuild(Path cacheFile, AprilTagFieldLayout layout, double horizontalFov,
+                                      double verticalFov, double maxDistance)
+  {
+    long hash = hashInputs(layout, horizontalFov, verticalFov, maxDistance);
+    if (Files.exists(cacheFile))
+    {
+      try
+      {
+        TagVisibilityMap cached = read(cacheFile, layout, hash);
+        if (cached != null)
+        {
+          return cached;
+        }
+      } catch (IOException e)
+      {
+        DriverStation.reportWarning("Rebuilding tag visibility map, could not read " + cacheFile + ": " + e, false);
+      }
+    }
+
+    TagVisibilityMap map = build(layout, horizontalFov, verticalFov, maxDistance, hash);
+    try
+    {
+      map.write(cacheFile);
+    } catch (IOException e)
+    {
+      DriverStation.reportWarning("Could not cache tag visibility map to " + cacheFile + ": " + e, false);
+    }
+    return map;
+  }
+
+  /**
+   * Compute the map.
+   *
+   * @param layout        Field layout.
+   * @param horizontalFov Horizontal field of view in radians.
+   * @param verticalFov   Vertical field of view in radians.
+   * @param maxDistance   Maximum detection distance in meters.
+   * @param hash          Hash of the inputs.
+   * @return Visibility map.
+   */
+  private static TagVisibilityMap build(AprilTagFieldLayout layout, double horizontalFov, double verticalFov,
+                                        double maxDistance, long hash)
+  {
+    TagVisibilityMap map         = new TagVisibilityMap(layout.getFieldLength(), layout.getFieldWidth(),
+                                                        tagSlots(layout), hash);
+    Cameras[]        cameras     = Cameras.values();
+    double           headingStep = 2 * Math.PI / HEADINGS;
+    // Half the cell diagonal, the furthest any pose in a cell is from the cell center.
+    double           cellRadius  = Math.hypot(CELL_SIZE, CELL_SIZE) / 2;
+    double[]         camera      = new double[12];
+    double[]         bestScore   = new double[map.tagSlots];
+    // Tag poses and camera mounts are unpacked into plain arrays once, the cells below run millions of times.
+    double[]         tags        = tagGeometry(layout, map.tagSlots);
+    double[][]       mounts      = new double[cameras.length][];
+    for (Cameras c : cameras)
+    {
+      mounts[c.ordinal()] = mountGeometry(c.robotToCamTransform);
+    }
+
+    for (int column = 0; column < map.columns; column++)
+    {
+      for (int row = 0; row < map.rows; row++)
+      {
+        for (int h = 0; h < HEADINGS; h++)
+        {
+          int    cell    = map.cellIndex(column, row, h);
+          double x       = (column + 0.5) * CELL_SIZE;
+          double y       = (row + 0.5) * CELL_SIZE;
+          double heading = h * headingStep;
+          double cos     = Math.cos(heading);
+          double sin     = Math.sin(heading);
+          Arrays.fill(map.bestCamera, cell * map.tagSlots, (cell + 1) * map.tagSlots, (byte) -1);
+          Arrays.fill(bestScore, Double.POSITIVE_INFINITY);
+
+          for (int c = 0; c < cameras.length; c++)
+          {
+            cameraPose(mounts[c], x, y, cos, sin, camera);
+            long mask = 0;
+            for (int id = 0; id < map.tagSlots; id++)
+            {
+              double score = visibilityScore(camera, tags, id, horizontalFov, verticalFov, maxDistance,
+                                             headingStep / 2, cellRadius);
+              if (score < Double.POSITIVE_INFINITY)
+              {
+                mask |= 1L << id;
+                if (score < bestScore[id])
+                {
+                  bestScore[id] = score;
+                  map.bestCamera[cell * map.tagSlots + id] = (byte) c;
+                }
+              }
+            }
+            map.visibleTags[cell * cameras.length + c] = mask;
+          }
+        }
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Unpack the tag positions and facing directions of a layout.
+   *
+   * @param layout   Field layout.
+   * @param tagSlots Number of tag slots.
+   * @return Position (3 values) followed by the unit normal (3 values) per fiducial ID, NaN for missing IDs.
+   */
+  private static double[] tagGeometry(AprilTagFieldLayout layout, int tagSlots)
+  {
+    double[] tags = new double[tagSlots * 6];
+    Arrays.fill(tags, Double.NaN);
+    for (AprilTag tag : layout.getTags())
+    {
+      if (tag.ID < 0 || tag.ID >= tagSlots)
+      {
+        continue;
+      }
+      // Tags face along their own +X axis.
+      Translation3d normal = new Translation3d(1, 0, 0).rotateBy(tag.pose.getRotation());
+      int           offset = tag.ID * 6;
+      tags[offset] = tag.pose.getX();
+      tags[offset + 1] = tag.pose.getY();
+      tags[offset + 2] = tag.pose.getZ();
+      tags[offset + 3] = normal.getX();
+      tags[offset + 4] = normal.getY();
+      tags[offset + 5] = normal.getZ();
+    }
+    return tags;
+  }
+
+  /**
+   * Unpack a camera mount.
+   *
+   * @param robotToCam Robot to camera transform.
+   * @return Mount translation (3 values) followed by the row major robot-to-camera rotation.
+   */
+  private static double[] mountGeometry(Transform3d robotToCam)
+  {
+    double[]       mount    = new double[12];
+    Matrix<N3, N3> rotation = robotToCam.getRotation().toMatrix();
+    mount[0] = robotToCam.getX();
+    mount[1] = robotToCam.getY();
+    mount[2] = robotToCam.getZ();
+    for (int row = 0; row < 3; row++)
+    {
+      for (int col = 0; col < 3; col++)
+      {
+        mount[3 + row * 3 + col] = rotation.get(row, col);
+      }
+    }
+    return mount;
+  }
+
+  /**
+   * Compute the field position and orientation of a camera.
+   *
+   * @param mount Camera mount from {@link TagVisibilityMap#mountGeometry}.
+   * @param x     Robot X in meters.
+   * @param y     Robot Y in meters.
+   * @param cos   Cosine of the robot heading.
+   * @param sin   Sine of the robot heading.
+   * @param out   Output of the camera position (3 values) followed by the row major field-to-camera rotation.
+   */
+  private static void cameraPose(double[] mount, double x, double y, double cos, double sin, double[] out)
+  {
+    out[0] = x + cos * mount[0] - sin * mount[1];
+    out[1] = y + sin * mount[0] + cos * mount[1];
+    out[2] = mount[2];
+    // Field-to-camera rotation is the robot heading rotation followed by the mount rotation.
+    for (int col = 0; col < 3; col++)
+    {
+      out[3 + col] = cos * mount[3 + col] - sin * mount[6 + col];
+      out[6 + col] = sin * mount[3 + col] + cos * mount[6 + col];
+      out[9 + col] = mount[9 + col];
+    }
+  }
+
+  /**
+   * Score how well a camera could see a tag from anywhere inside a cell.
+   *
+   * @param camera        Camera position and rotation from {@link TagVisibilityMap#cameraPose}.
+   * @param tags          Tag geometry from {@link TagVisibilityMap#tagGeometry}.
+   * @param id            Fiducial ID to check.
+   * @param horizontalFov Horizontal field of view in radians.
+   * @param verticalFov   Vertical field of view in radians.
+   * @param maxDistance   Maximum detection distance in meters.
+   * @param headingMargin Heading uncertainty within the cell in radians.
+   * @param cellRadius    Position uncertainty within the cell in meters.
+   * @return Lower is better, positive infinity if the tag cannot be seen or is not in the layout.
+   */
+  private static double visibilityScore(double[] camera, double[] tags, int id, double horizontalFov,
+                                        double verticalFov, double maxDistance, double headingMargin,
+                                        double cellRadius)
+  {
+    int    offset   = id * 6;
+    double dx       = tags[offset] - camera[0];
+    double dy       = tags[offset + 1] - camera[1];
+    double dz       = tags[offset + 2] - camera[2];
+    double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+    // Also rejects IDs missing from the layout, whose NaN distance fails every comparison.
+    if (!(distance - cellRadius <= maxDistance))
+    {
+      return Double.POSITIVE_INFINITY;
+    }
+
+    // The camera must be in front of the tag.
+    if (-(dx * tags[offset + 3] + dy * tags[offset + 4] + dz * tags[offset + 5]) < -cellRadius)
+    {
+      return Double.POSITIVE_INFINITY;
+    }
+
+    // Tag in the camera frame, X forward, Y left, Z up.
+    double forward = camera[3] * dx + camera[6] * dy + camera[9] * dz;
+    double left    = camera[4] * dx + camera[7] * dy + camera[10] * dz;
+    double up      = camera[5] * dx + camera[8] * dy + camera[11] * dz;
+    double margin  = headingMargin + Math.atan2(cellRadius, Math.max(distance - cellRadius, cellRadius));
+
+    double yaw   = Math.abs(Math.atan2(left, forward));
+    double pitch = Math.abs(Math.atan2(up, Math.hypot(forward, left)));
+    if (yaw > horizontalFov / 2 + margin || pitch > verticalFov / 2 + margin)
+    {
+      return Double.POSITIVE_INFINITY;
+    }
+    // Prefer close tags near the middle of the image, where detection is the most accurate.
+    return distance * (1 + Math.max(yaw / (horizontalFov / 2), pitch / (verticalFov / 2)));
+  }
+
+  /**
+   * Get the tags a camera can possibly see from a robot pose.
+   *
+   * @param camera  Camera to check.
+   * @param x       Robot X in meters.
+   * @param y       Robot Y in meters.
+   * @param heading Robot heading in radians.
+   * @return Bitmask where bit n is set if fiducial ID n may be visible.
+   */
+  long getVisibleTags(Cameras camera, double x, double y, double heading)
+  {
+    return visibleTags[cellIndex(x, y, heading) * Cameras.values().length + camera.ordinal()];
+  }
+
+  /**
+   * Get the camera with the best view of a tag from a robot pose.
+   *
+   * @param id      Fiducial ID.
+   * @param x       Robot X in meters.
+   * @param y       Robot Y in meters.
+   * @param heading Robot heading in radians.
+   * @return Best camera, or null if no camera can see the tag.
+   */
+  Cameras getBestCamera(int id, double x, double y, double heading)
+  {
+    if (id < 0 || id >= tagSlots)
+    {
+      return null;
+    }
+    int camera = bestCamera[cellIndex(x, y, heading) * tagSlots + id];
+    return camera < 0 ? null : Cameras.values()[camera];
+  }
+
+  /**
+   * Cell containing a robot pose, poses off the field use the nearest cell.
+   *
+   * @param x       Robot X in meters.
+   * @param y       Robot Y in meters.
+   * @param heading Robot heading in radians.
+   * @return Cell index.
+   */
+  private int cellIndex(double x, double y, double heading)
+  {
+    int column = MathUtil.clamp((int) Math.floor(x / CELL_SIZE), 0, columns - 1);
+    int row    = MathUtil.clamp((int) Math.floor(y / CELL_SIZE), 0, rows - 1);
+    int h      = Math.floorMod((int) Math.round(MathUtil.inputModulus(heading, 0, 2 * Math.PI) /
+                                                (2 * Math.PI / HEADINGS)), HEADINGS);
+    return cellIndex(column, row, h);
+  }
+
+  /**
+   * Cell index of a grid coordinate.
+   *
+   * @param column Column along the field length.
+   * @param row    Row along the field width.
+   * @param h      Heading bin.
+   * @return Cell index.
+   */
+  private int cellIndex(int column, int row, int h)
+  {
+    return (column * rows + row) * HEADINGS + h;
+  }
+
+  /**
+   * Number of tag slots needed for a layout.
+   *
+   * @param layout Field layout.
+   * @return Largest fiducial ID plus one, capped to the 64 bits of a mask.
+   */
+  private static int tagSlots(AprilTagFieldLayout layout)
+  {
+    int maxId = 0;
+    for (AprilTag tag : layout.getTags())
+    {
+      maxId = Math.max(maxId, tag.ID);
+    }
+    return Math.min(maxId + 1, Long.SIZE);
+  }
+
+  /**
+   * Hash every input which changes the map.
+   *
+   * @param layout        Field layout.
+   * @param horizontalFov Horizontal field of view in radians.
+   * @param verticalFov   Vertical field of view in radians.
+   * @param maxDistance   Maximum detection distance in meters.
+   * @return Hash of the inputs.
+   */
+  private static long hashInputs(AprilTagFieldLayout layout, double horizontalFov, double verticalFov,
+                                 double maxDistance)
+  {
+    long hash = VERSION;
+    hash = 31 * hash + Double.hashCode(CELL_SIZE);
+    hash = 31 * hash + HEADINGS;
+    hash = 31 * hash + Double.hashCode(horizontalFov);
+    hash = 31 * hash + Double.hashCode(verticalFov);
+    hash = 31 * hash + Double.hashCode(maxDistance);
+    hash = 31 * hash + Double.hashCode(layout.getFieldLength());
+    hash = 31 * hash + Double.hashCode(layout.getFieldWidth());
+    for (AprilTag tag : layout.getTags())
+    {
+      hash = 31 * hash + tag.hashCode();
+    }
+    for (Cameras camera : Cameras.values())
+    {
+      hash = 31 * hash + camera.robotToCamTransform.hashCode();
+    }
+    return hash;
+  }
+
+  /**
+   * Read a cached map.
+   *
+   * @param file   Cache file.
+   * @param layout Field layout.
+   * @param hash   Expected hash of the inputs.
+   * @return Cached map, or null if it was built from different inputs.
+   * @throws IOException If the file cannot be read.
+   */
+  private static TagVisibilityMap read(Path file, AprilTagFieldLayout layout, long hash) throws IOException
+  {
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+    {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readLong() != hash)
+      {
+        return null;
+      }
+      TagVisibilityMap map = new TagVisibilityMap(layout.getFieldLength(), layout.getFieldWidth(), tagSlots(layout),
+                                                  hash);
+      for (int i = 0; i < map.visibleTags.length; i++)
+      {
+        map.visibleTags[i] = input.readLong();
+      }
+      input.readFully(map.bestCamera);
+      return map;
+    }
+  }
+
+  /**
+   * Write the map to a cache file, replacing it atomically so a partially written cache is never read.
+   *
+   * @param file Cache file.
+   * @throws IOException If the file cannot be written.
+   */
+  private void write(Path file) throws IOException
+  {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))
+    {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(inputHash);
+      for (long mask : visibleTags)
+      {
+        output.writeLong(mask);
+      }
+      output.write(bestCamera);
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,70 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import frc.robot.Constants.OperatorConstants;
+
+/**
+ * Joystick shaping of the teleop drive commands in {@link SwerveSubsystem}, kept apart from the drivetrain so it runs,
+ * and is checked for allocations, without any hardware. Nothing here allocates.
+ */
+final class TeleopDrive
+{
+
+  /**
+   * Fraction of the maximum chassis velocity reached at full joystick deflection.
+   */
+  static final double TRANSLATION_SCALE = 0.8;
+
+  /**
+   * Utility class.
+   */
+  private TeleopDrive()
+  {
+  }
+
+  /**
+   * Shape a rotation joystick input into an angular velocity, deadbanded and cubed for smoother controls.
+   *
+   * @param angularRotationX   Joystick input from -1 to 1.
+   * @param maxAngularVelocity Maximum chassis angular velocity in radians per second.
+   * @return Angular velocity in radians per second.
+   */
+  static double angularVelocity(double angularRotationX, double maxAngularVelocity)
+  {
+    double rotation = MathUtil.applyDeadband(angularRotationX, OperatorConstants.DEADBAND);
+    return rotation * rotation * rotation * maxAngularVelocity;
+  }
+
+  /**
+   * Deadband and scale field-relative joystick translation inputs, then rotate them into the robot frame. With
+   * cubeTranslation the magnitude of the scaled input is cubed, keeping its direction, as
+   * {@link swervelib.math.SwerveMath#cubeTranslation} does for {@link swervelib.SwerveController#getTargetSpeeds}.
+   *
+   * @param translationX    Joystick X input from -1 to 1.
+   * @param translationY    Joystick Y input from -1 to 1.
+   * @param rotation        Angular velocity in radians per second.
+   * @param heading         Robot heading.
+   * @param maxVelocity     Maximum chassis velocity in meters per second.
+   * @param cubeTranslation Cube the translation magnitude for finer control at low speed.
+   * @param robotRelative   Speeds to write the robot-relative result into.
+   */
+  static void robotRelativeSpeeds(double translationX, double translationY, double rotation, Rotation2d heading,
+                                  double maxVelocity, boolean cubeTranslation, ChassisSpeeds robotRelative)
+  {
+    double x = MathUtil.applyDeadband(translationX, OperatorConstants.DEADBAND) * TRANSLATION_SCALE;
+    double y = MathUtil.applyDeadband(translationY, OperatorConstants.DEADBAND) * TRANSLATION_SCALE;
+    if (cubeTranslation)
+    {
+      double magnitudeSquared = x * x + y * y;
+      x *= magnitudeSquared;
+      y *= magnitudeSquared;
+    }
+    x *= maxVelocity;
+    y *= maxVelocity;
+    robotRelative.vxMetersPerSecond = x * heading.getCos() + y * heading.getSin();
+    robotRelative.vyMetersPerSecond = -x * heading.getSin() + y * heading.getCos();
+    robotRelative.omegaRadiansPerSecond = rotation;
+  }
+}
@@ -9,7 +9,6 @@ import edu.wpi.first.apriltag.AprilTagFields;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Transform2d;
@@ -18,21 +17,34 @@ import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.math.util.Units;
+import edu.wpi.first.networktables.GenericSubscriber;
+import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.networktables.NetworkTablesJNI;
+import edu.wpi.first.networktables.PubSubOption;
 import edu.wpi.first.wpilibj.Alert;
 import edu.wpi.first.wpilibj.Alert.AlertType;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.smartdashboard.Field2d;
 import frc.robot.Robot;
 import java.awt.Desktop;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 import org.photonvision.EstimatedRobotPose;
 import org.photonvision.PhotonCamera;
 import org.photonvision.PhotonPoseEstimator;
 import org.photonvision.PhotonPoseEstimator.PoseStrategy;
-import org.photonvision.PhotonUtils;
 import org.photonvision.simulation.PhotonCameraSim;
 import org.photonvision.simulation.SimCameraProperties;
 import org.photonvision.simulation.VisionSystemSim;
@@ -55,17 +67,32 @@ public class Vision
   public static final AprilTagFieldLayout fieldLayout                     = AprilTagFieldLayout.loadField(
       AprilTagFields.k2025ReefscapeAndyMark);
   /**
-   * Ambiguity defined as a value between (0,1). Used in {@link Vision#filterPose}.
+   * Primitive lookup table of {@link Vision#fieldLayout} used for allocation-free per-frame tag queries.
    */
-  private final       double              maximumAmbiguity                = 0.25;
+  public static final AprilTagTable       tagTable                        = new AprilTagTable(fieldLayout);
+  /**
+   * Simulate cameras without rasterizing frames or opening camera views, for CI and batch simulation. Enabled on
+   * headless JVMs or with {@code -Dvision.headless=true}.
+   */
+  public static final boolean             headlessSimulation              = GraphicsEnvironment.isHeadless() ||
+                                                                            Boolean.getBoolean("vision.headless");
   /**
    * Photon Vision Simulation
    */
   public              VisionSystemSim     visionSim;
   /**
-   * Count of times that the odom thinks we're more than 10meters away from the april tag.
+   * Run {@link Vision#visionSim} on its own thread at the fastest simulated camera frame rate instead of on the main
+   * robot loop.
+   */
+  private final       boolean             backgroundVisionSim             = true;
+  /**
+   * Thread which updates {@link Vision#visionSim} when {@link Vision#backgroundVisionSim} is enabled.
    */
-  private             double              longDistangePoseEstimationCount = 0;
+  private             Notifier            visionSimThread;
+  /**
+   * Latest ground truth robot pose from maple-sim, read by {@link Vision#visionSimThread}.
+   */
+  private volatile    Pose2d              simulatedRobotPose;
   /**
    * Current pose from the pose estimator using wheel odometry.
    */
@@ -74,6 +101,91 @@ public class Vision
    * Field from {@link swervelib.SwerveDrive#field}
    */
   private             Field2d             field2d;
+  /**
+   * Where camera results are read and run through the {@link PhotonPoseEstimator}.
+   */
+  private             IngestionMode       ingestionMode                   = IngestionMode.BACKGROUND;
+  /**
+   * Period of the per-camera ingestion threads used by {@link IngestionMode#BACKGROUND}.
+   */
+  private final       double              ingestionPeriod                 = Milliseconds.of(5).in(Seconds);
+  /**
+   * Observations drained from each camera this loop, indexed by {@link Cameras#ordinal()}. Each list is sorted by
+   * timestamp.
+   */
+  private final       List<List<VisionObservation>> pendingObservations = new ArrayList<>();
+  /**
+   * Read position of the k-way merge into each list of {@link Vision#pendingObservations}.
+   */
+  private final       int[]               mergeCursors                    = new int[Cameras.values().length];
+  /**
+   * Solve one pose from the tag corners of every camera when several cameras capture frames within
+   * {@link Vision#jointSolveWindow}, instead of fusing a weak estimate from each camera.
+   */
+  private final       boolean             jointMultiCameraSolve           = true;
+  /**
+   * Capture time window in which observations from different cameras are solved jointly, in seconds. Robot motion
+   * within the window is taken from the odometry history given to {@link Vision#setPoseHistory}.
+   */
+  private final       double              jointSolveWindow                = Milliseconds.of(15).in(Seconds);
+  /**
+   * Joint pose solver used by {@link Vision#jointMultiCameraSolve}.
+   */
+  private final       MultiCameraPoseSolver poseSolver                    = new MultiCameraPoseSolver(fieldLayout);
+  /**
+   * Observations of the joint solve window being fused, reused every loop.
+   */
+  private final       List<VisionObservation> fusionWindow                = new ArrayList<>();
+  /**
+   * Observations of {@link Vision#fusionWindow} passed to the joint solve, reused every loop.
+   */
+  private final       List<VisionObservation> jointCandidates             = new ArrayList<>();
+  /**
+   * Measurements gathered by {@link Vision#updatePoseEstimation(SwerveDrive)} and applied to the pose estimator
+   * together.
+   */
+  private final       VisionMeasurementBatch measurementBatch             = new VisionMeasurementBatch();
+  /**
+   * Outlier rejection applied to every observation before it reaches the pose estimator.
+   */
+  private final       VisionMeasurementGate measurementGate               = new VisionMeasurementGate();
+  /**
+   * Number of worker threads used by {@link IngestionMode#PARALLEL}, the main robot loop also updates one camera.
+   */
+  private final       int                 parallelWorkers                 = 2;
+  /**
+   * Worker pool used by {@link IngestionMode#PARALLEL}, created on first use.
+   */
+  private             ExecutorService     workerPool;
+  /**
+   * Pending camera updates submitted to {@link Vision#workerPool}, indexed by {@link Cameras#ordinal()}.
+   */
+  private final       Future<?>[]         cameraUpdates                   = new Future<?>[Cameras.values().length];
+  /**
+   * Recording in progress, null when not recording.
+   */
+  private             VisionRecorder      recorder;
+  /**
+   * Skip pose estimation for cameras which cannot see any tag from the current pose according to
+   * {@link Vision#visibilityMap}.
+   */
+  private final       boolean             visibilityScheduling            = true;
+  /**
+   * Horizontal field of view of the cameras in radians, used to build {@link Vision#visibilityMap}.
+   */
+  private final       double              cameraHorizontalFov             = Units.degreesToRadians(88);
+  /**
+   * Vertical field of view of the cameras in radians, used to build {@link Vision#visibilityMap}.
+   */
+  private final       double              cameraVerticalFov               = Units.degreesToRadians(72);
+  /**
+   * Distance beyond which the cameras cannot detect tags in meters, used to build {@link Vision#visibilityMap}.
+   */
+  private final       double              maximumTagDistance              = 6.0;
+  /**
+   * Tags each camera can possibly see from every pose, null until it is loaded or built at boot.
+   */
+  private volatile    TagVisibilityMap    visibilityMap;
 
 
   /**
@@ -83,24 +195,128 @@ public class Vision
    * @param field       Current field, should be {@link SwerveDrive#field}
    */
   public Vision(Supplier<Pose2d> currentPose, Field2d field)
+  {
+    this(currentPose, field, false);
+  }
+
+  /**
+   * Constructor for the Vision class.
+   *
+   * @param currentPose Current pose supplier.
+   * @param field       Current field.
+   * @param replay      True to only set up the estimation pipeline for {@link VisionReplay}, without the vision
+   *                    simulation, the ingestion threads or the visibility map.
+   */
+  private Vision(Supplier<Pose2d> currentPose, Field2d field, boolean replay)
   {
     this.currentPose = currentPose;
     this.field2d = field;
+    for (int i = 0; i < Cameras.values().length; i++)
+    {
+      pendingObservations.add(new ArrayList<>());
+    }
+    if (replay)
+    {
+      ingestionMode = IngestionMode.SYNCHRONOUS;
+      return;
+    }
 
     if (Robot.isSimulation())
     {
       visionSim = new VisionSystemSim("Vision");
       visionSim.addAprilTags(fieldLayout);
 
+      double fastestFps = 0;
       for (Cameras c : Cameras.values())
       {
         c.addToVisionSim(visionSim);
+        fastestFps = Math.max(fastestFps, c.simProperties.getFPS());
+      }
+
+      if (backgroundVisionSim)
+      {
+        // VisionSystemSim skips cameras whose next frame is not due, so each camera still renders at its own FPS.
+        visionSimThread = new Notifier(this::updateVisionSim);
+        visionSimThread.setName("Vision Simulation");
+        visionSimThread.startPeriodic(1.0 / fastestFps);
+      }
+
+      if (!headlessSimulation)
+      {
+        openSimCameraViews();
       }
+    }
 
-      openSimCameraViews();
+    if (ingestionMode == IngestionMode.BACKGROUND)
+    {
+      for (Cameras c : Cameras.values())
+      {
+        c.startIngestionThread(ingestionPeriod);
+      }
+    }
+
+    if (visibilityScheduling)
+    {
+      // Building takes a moment on the roboRIO, every camera is processed until the map is ready. The cache goes in
+      // /home/lvuser on the robot, and in the ignored build directory instead of the project root in simulation.
+      Path cacheDirectory = Filesystem.getOperatingDirectory().toPath();
+      Path cacheFile      = (Robot.isReal() ? cacheDirectory : cacheDirectory.resolve("build"))
+          .resolve("tag-visibility.bin");
+      Thread visibilityLoader = new Thread(() -> {
+        visibilityMap = TagVisibilityMap.loadOrBuild(cacheFile, fieldLayout, cameraHorizontalFov, cameraVerticalFov,
+                                                     maximumTagDistance);
+      }, "Tag Visibility Map");
+      visibilityLoader.setDaemon(true);
+      visibilityLoader.start();
+    }
+  }
+
+  /**
+   * Create a Vision which only runs the estimation pipeline, for {@link VisionReplay}. Nothing is started in the
+   * background: there is no vision simulation, results are read synchronously and the visibility map is not loaded.
+   *
+   * @param currentPose Current pose supplier, should reference {@link VisionReplay#getOdometryPose()}.
+   * @return Vision for replay.
+   */
+  public static Vision forReplay(Supplier<Pose2d> currentPose)
+  {
+    return new Vision(currentPose, new Field2d(), true);
+  }
+
+  /**
+   * Select where camera results are read and run through the {@link PhotonPoseEstimator}.
+   *
+   * @param mode {@link IngestionMode} to use.
+   */
+  public void setIngestionMode(IngestionMode mode)
+  {
+    if (mode == ingestionMode)
+    {
+      return;
+    }
+    ingestionMode = mode;
+    for (Cameras c : Cameras.values())
+    {
+      if (mode == IngestionMode.BACKGROUND)
+      {
+        c.startIngestionThread(ingestionPeriod);
+      } else
+      {
+        c.stopIngestionThread();
+      }
     }
   }
 
+  /**
+   * Get where camera results are read and run through the {@link PhotonPoseEstimator}.
+   *
+   * @return Current {@link IngestionMode}.
+   */
+  public IngestionMode getIngestionMode()
+  {
+    return ingestionMode;
+  }
+
   /**
    * Calculates a target pose relative to an AprilTag on the field.
    *
@@ -111,10 +327,10 @@ public class Vision
    */
   public static Pose2d getAprilTagPose(int aprilTag, Transform2d robotOffset)
   {
-    Optional<Pose3d> aprilTagPose3d = fieldLayout.getTagPose(aprilTag);
-    if (aprilTagPose3d.isPresent())
+    Pose2d aprilTagPose2d = tagTable.getPose2d(aprilTag);
+    if (aprilTagPose2d != null)
     {
-      return aprilTagPose3d.get().toPose2d().transformBy(robotOffset);
+      return aprilTagPose2d.transformBy(robotOffset);
     } else
     {
       throw new RuntimeException("Cannot get AprilTag " + aprilTag + " from field " + fieldLayout.toString());
@@ -123,11 +339,39 @@ public class Vision
   }
 
   /**
-   * Update the pose estimation inside of {@link SwerveDrive} with all of the given poses.
+   * Update the pose estimation inside of {@link SwerveDrive} with all of the given poses. Every estimate from every
+   * camera is gathered into one {@link VisionMeasurementBatch} and applied in strict timestamp order, so the estimator
+   * never discards a correction because an older estimate arrived after it.
    *
    * @param swerveDrive {@link SwerveDrive} instance.
    */
   public void updatePoseEstimation(SwerveDrive swerveDrive)
+  {
+    updateSimulation(swerveDrive);
+    updatePoseEstimation(measurementBatch);
+    measurementBatch.apply(swerveDrive);
+  }
+
+  /**
+   * Update the pose estimation inside of a {@link PrimitivePoseEstimator} used in place of the {@link SwerveDrive}
+   * estimator, batching and ordering the estimates the same way.
+   *
+   * @param swerveDrive {@link SwerveDrive} instance, used for the simulated robot pose.
+   * @param estimator   Pose estimator to apply the estimates to.
+   */
+  public void updatePoseEstimation(SwerveDrive swerveDrive, PrimitivePoseEstimator estimator)
+  {
+    updateSimulation(swerveDrive);
+    updatePoseEstimation(measurementBatch);
+    measurementBatch.apply(estimator);
+  }
+
+  /**
+   * Hand the actual simulated robot pose to the vision simulation.
+   *
+   * @param swerveDrive {@link SwerveDrive} instance.
+   */
+  private void updateSimulation(SwerveDrive swerveDrive)
   {
     if (SwerveDriveTelemetry.isSimulation && swerveDrive.getSimulationDriveTrainPose().isPresent())
     {
@@ -138,20 +382,286 @@ public class Vision
        * (This is why teams implement vision system to correct odometry.)
        * Therefore, we must ensure that the actual robot pose is provided in the simulator when updating the vision simulation during the simulation.
        */
-      visionSim.update(swerveDrive.getSimulationDriveTrainPose().get());
+      if (visionSimThread != null)
+      {
+        simulatedRobotPose = swerveDrive.getSimulationDriveTrainPose().get();
+      } else
+      {
+        visionSim.update(swerveDrive.getSimulationDriveTrainPose().get());
+      }
+    }
+  }
+
+  /**
+   * Read every camera and pass every estimate which passes the {@link VisionMeasurementGate} to the consumer in strict
+   * timestamp order.
+   *
+   * @param consumer Destination of the fused measurements.
+   */
+  public void updatePoseEstimation(VisionMeasurementConsumer consumer)
+  {
+    Pose2d           odometryPose = currentPose.get();
+    TagVisibilityMap map          = visibilityMap;
+    for (Cameras camera : Cameras.values())
+    {
+      camera.visibleTags = map == null ? TagVisibilityMap.ALL_TAGS
+                                       : map.getVisibleTags(camera,
+                                                            odometryPose.getX(),
+                                                            odometryPose.getY(),
+                                                            odometryPose.getRotation().getRadians());
+    }
+
+    if (ingestionMode == IngestionMode.PARALLEL)
+    {
+      updateCamerasInParallel();
     }
     for (Cameras camera : Cameras.values())
     {
-      Optional<EstimatedRobotPose> poseEst = getEstimatedGlobalPose(camera);
-      if (poseEst.isPresent())
+      if (ingestionMode == IngestionMode.SYNCHRONOUS)
+      {
+        camera.updateUnreadResults();
+      }
+
+      List<VisionObservation> pending = pendingObservations.get(camera.ordinal());
+      pending.clear();
+      for (VisionObservation observation = camera.pollObservation();
+           observation != null;
+           observation = camera.pollObservation())
       {
-        var pose = poseEst.get();
-        swerveDrive.addVisionMeasurement(pose.estimatedPose.toPose2d(),
-                                         pose.timestampSeconds,
-                                         camera.curStdDevs);
+        pending.add(observation);
       }
+      mergeCursors[camera.ordinal()] = 0;
     }
 
+    if (recorder != null)
+    {
+      recorder.recordOdometry(VisionTelemetry.now(), odometryPose);
+    }
+    measurementGate.updateOdometry(odometryPose.getX(),
+                                   odometryPose.getY(),
+                                   odometryPose.getRotation().getRadians());
+
+    double            fusionTime = VisionTelemetry.now();
+    VisionObservation latest     = null;
+    VisionObservation next       = nextChronologicalObservation();
+    while (next != null)
+    {
+      // Group every observation captured within the joint solve window of the oldest one.
+      fusionWindow.clear();
+      fusionWindow.add(next);
+      double windowStart = next.getTimestampSeconds();
+      next = nextChronologicalObservation();
+      while (jointMultiCameraSolve && next != null && next.getTimestampSeconds() - windowStart <= jointSolveWindow)
+      {
+        fusionWindow.add(next);
+        next = nextChronologicalObservation();
+      }
+
+      // Multi-tag estimates are fused on their own, only single-tag estimates are solved jointly.
+      jointCandidates.clear();
+      for (int i = 0; i < fusionWindow.size(); i++)
+      {
+        VisionObservation observation = fusionWindow.get(i);
+        observation.camera.telemetry.recordFusion(observation.ingestTimestampSeconds, fusionTime);
+        if (jointMultiCameraSolve && MultiCameraPoseSolver.isJointCandidate(observation))
+        {
+          jointCandidates.add(observation);
+        } else
+        {
+          latest = fuseObservation(observation, consumer) ? observation : latest;
+        }
+      }
+      VisionObservation joint = poseSolver.solve(jointCandidates);
+      if (joint != null)
+      {
+        latest = fuseObservation(joint, consumer) ? joint : latest;
+      } else
+      {
+        for (int i = 0; i < jointCandidates.size(); i++)
+        {
+          VisionObservation observation = jointCandidates.get(i);
+          latest = fuseObservation(observation, consumer) ? observation : latest;
+        }
+      }
+    }
+    updateDebugField(latest == null ? Optional.empty() : Optional.of(latest.estimate));
+
+    for (Cameras camera : Cameras.values())
+    {
+      camera.telemetry.publish(fusionTime);
+    }
+  }
+
+  /**
+   * Pass an observation to the consumer if it passes the {@link VisionMeasurementGate}.
+   *
+   * @param observation Observation to fuse.
+   * @param consumer    Destination of the fused measurements.
+   * @return True if the observation was passed to the consumer.
+   */
+  private boolean fuseObservation(VisionObservation observation, VisionMeasurementConsumer consumer)
+  {
+    if (!measurementGate.test(observation))
+    {
+      return false;
+    }
+    consumer.accept(observation.estimate.estimatedPose.toPose2d(),
+                    observation.getTimestampSeconds(),
+                    observation.stdDevX,
+                    observation.stdDevY,
+                    observation.stdDevTheta);
+    return true;
+  }
+
+  /**
+   * Render the simulated cameras from the latest ground truth snapshot. Runs on {@link Vision#visionSimThread}.
+   */
+  private void updateVisionSim()
+  {
+    Pose2d robotPose = simulatedRobotPose;
+    if (robotPose != null)
+    {
+      visionSim.update(robotPose);
+    }
+  }
+
+  /**
+   * Set the thresholds which raise each camera's {@link Cameras#latencyAlert}.
+   *
+   * @param captureLatencyMs p95 capture-to-ingest latency in milliseconds.
+   * @param fusionLatencyMs  p95 ingest-to-fusion latency in milliseconds.
+   * @param stalenessMs      Time without a frame in milliseconds.
+   */
+  public void setLatencyAlertThresholds(double captureLatencyMs, double fusionLatencyMs, double stalenessMs)
+  {
+    for (Cameras camera : Cameras.values())
+    {
+      camera.telemetry.setLatencyThresholds(captureLatencyMs, fusionLatencyMs, stalenessMs);
+    }
+  }
+
+  /**
+   * Run {@link Cameras#updateUnreadResults()} for every camera concurrently on {@link Vision#workerPool}, updating the
+   * last camera on the calling thread, and wait for all of them to finish. Observations are merged by timestamp
+   * afterward so the result does not depend on which camera finishes first.
+   */
+  private void updateCamerasInParallel()
+  {
+    if (workerPool == null)
+    {
+      workerPool = Executors.newFixedThreadPool(parallelWorkers, runnable -> {
+        Thread thread = new Thread(runnable, "Vision Worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    Cameras[] cameras = Cameras.values();
+    for (int i = 0; i < cameras.length - 1; i++)
+    {
+      cameraUpdates[i] = workerPool.submit(cameras[i]::updateUnreadResults);
+    }
+    cameras[cameras.length - 1].updateUnreadResults();
+
+    for (int i = 0; i < cameras.length - 1; i++)
+    {
+      try
+      {
+        cameraUpdates[i].get();
+      } catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e)
+      {
+        DriverStation.reportError(e.getCause().toString(), e.getCause().getStackTrace());
+      }
+      cameraUpdates[i] = null;
+    }
+  }
+
+  /**
+   * Start recording every camera frame and the odometry used for fusion, replacing any recording in progress.
+   *
+   * @param file File to write, see {@link VisionRecorder} for the format.
+   * @throws IOException If the file cannot be created.
+   */
+  public void startRecording(Path file) throws IOException
+  {
+    stopRecording();
+    recorder = new VisionRecorder(file);
+    for (Cameras camera : Cameras.values())
+    {
+      camera.recorder = recorder;
+    }
+  }
+
+  /**
+   * Whether a recording is in progress.
+   *
+   * @return True while recording.
+   */
+  public boolean isRecording()
+  {
+    return recorder != null;
+  }
+
+  /**
+   * Stop recording and close the file, does nothing if no recording is in progress.
+   */
+  public void stopRecording()
+  {
+    if (recorder != null)
+    {
+      for (Cameras camera : Cameras.values())
+      {
+        camera.recorder = null;
+      }
+      recorder.close();
+      recorder = null;
+    }
+  }
+
+  /**
+   * Read camera results from {@link Cameras#addReplayResult} instead of the cameras, used by {@link VisionReplay}.
+   *
+   * @param replaying True to read replayed results.
+   */
+  void setReplaying(boolean replaying)
+  {
+    for (Cameras camera : Cameras.values())
+    {
+      camera.replaying = replaying;
+    }
+  }
+
+  /**
+   * Step of the k-way merge over {@link Vision#pendingObservations}. Each camera list is already sorted, so the next
+   * observation in time is always at the head of one of the lists.
+   *
+   * @return The oldest observation not yet merged, or null if every list is exhausted.
+   */
+  private VisionObservation nextChronologicalObservation()
+  {
+    int    nextCamera    = -1;
+    double nextTimestamp = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < mergeCursors.length; i++)
+    {
+      List<VisionObservation> pending = pendingObservations.get(i);
+      if (mergeCursors[i] < pending.size())
+      {
+        double timestamp = pending.get(mergeCursors[i]).getTimestampSeconds();
+        if (timestamp < nextTimestamp)
+        {
+          nextCamera = i;
+          nextTimestamp = timestamp;
+        }
+      }
+    }
+    if (nextCamera < 0)
+    {
+      return null;
+    }
+    return pendingObservations.get(nextCamera).get(mergeCursors[nextCamera]++);
   }
 
   /**
@@ -166,7 +676,18 @@ public class Vision
   public Optional<EstimatedRobotPose> getEstimatedGlobalPose(Cameras camera)
   {
     Optional<EstimatedRobotPose> poseEst = camera.getEstimatedGlobalPose();
-    if (Robot.isSimulation())
+    updateDebugField(poseEst);
+    return poseEst;
+  }
+
+  /**
+   * Show the vision estimate on the simulation debug field.
+   *
+   * @param poseEst Estimated robot pose, empty to clear the field object.
+   */
+  private void updateDebugField(Optional<EstimatedRobotPose> poseEst)
+  {
+    if (visionSim != null)
     {
       Field2d debugField = visionSim.getDebugField();
       // Uncomment to enable outputting of vision targets in sim.
@@ -179,54 +700,29 @@ public class Vision
             debugField.getObject("VisionEstimation").setPoses();
           });
     }
-    return poseEst;
   }
 
 
   /**
-   * Filter pose via the ambiguity and find best estimate between all of the camera's throwing out distances more than
-   * 10m for a short amount of time.
+   * Use an odometry history to compare estimates with the odometry at their capture time and to move frames of a
+   * joint solve window to the same instant.
    *
-   * @param pose Estimated robot pose.
-   * @return Could be empty if there isn't a good reading.
+   * @param history Odometry history, null to use the latest odometry pose and solve windows as one instant.
    */
-  @Deprecated(since = "2024", forRemoval = true)
-  private Optional<EstimatedRobotPose> filterPose(Optional<EstimatedRobotPose> pose)
+  public void setPoseHistory(PoseHistory history)
   {
-    if (pose.isPresent())
-    {
-      double bestTargetAmbiguity = 1; // 1 is max ambiguity
-      for (PhotonTrackedTarget target : pose.get().targetsUsed)
-      {
-        double ambiguity = target.getPoseAmbiguity();
-        if (ambiguity != -1 && ambiguity < bestTargetAmbiguity)
-        {
-          bestTargetAmbiguity = ambiguity;
-        }
-      }
-      //ambiguity to high dont use estimate
-      if (bestTargetAmbiguity > maximumAmbiguity)
-      {
-        return Optional.empty();
-      }
-
-      //est pose is very far from recorded robot pose
-      if (PhotonUtils.getDistanceToPose(currentPose.get(), pose.get().estimatedPose.toPose2d()) > 1)
-      {
-        longDistangePoseEstimationCount++;
+    measurementGate.setPoseHistory(history);
+    poseSolver.setPoseHistory(history);
+  }
 
-        //if it calculates that were 10 meter away for more than 10 times in a row its probably right
-        if (longDistangePoseEstimationCount < 10)
-        {
-          return Optional.empty();
-        }
-      } else
-      {
-        longDistangePoseEstimationCount = 0;
-      }
-      return pose;
-    }
-    return Optional.empty();
+  /**
+   * Get the outlier rejection stage used to gate observations before they reach the pose estimator.
+   *
+   * @return {@link VisionMeasurementGate} with per-camera accept and reject counters.
+   */
+  public VisionMeasurementGate getMeasurementGate()
+  {
+    return measurementGate;
   }
 
 
@@ -238,35 +734,73 @@ public class Vision
    */
   public double getDistanceFromAprilTag(int id)
   {
-    Optional<Pose3d> tag = fieldLayout.getTagPose(id);
-    return tag.map(pose3d -> PhotonUtils.getDistanceToPose(currentPose.get(), pose3d.toPose2d())).orElse(-1.0);
+    Pose2d robotPose = currentPose.get();
+    return tagTable.getDistance(id, robotPose.getX(), robotPose.getY());
   }
 
   /**
-   * Get tracked target from a camera of AprilTagID
+   * Get the newest tracked target from a camera of AprilTagID
    *
    * @param id     AprilTag ID
    * @param camera Camera to check.
-   * @return Tracked target.
+   * @return Tracked target, null if the camera did not see the tag in its latest results.
    */
   public PhotonTrackedTarget getTargetFromId(int id, Cameras camera)
   {
-    PhotonTrackedTarget target = null;
-    for (PhotonPipelineResult result : camera.resultsList)
+    return camera.fiducialIndex.getTarget(id);
+  }
+
+  /**
+   * Get the freshest observation of an AprilTag across every camera.
+   *
+   * @param id AprilTag ID
+   * @return Tracked target from the camera which saw the tag most recently, null if no camera sees it.
+   */
+  public PhotonTrackedTarget getFreshestTarget(int id)
+  {
+    PhotonTrackedTarget freshest          = null;
+    double              freshestTimestamp = Double.NEGATIVE_INFINITY;
+    for (Cameras camera : Cameras.values())
     {
-      if (result.hasTargets())
+      FiducialIndex index     = camera.fiducialIndex;
+      double        timestamp = index.getTimestamp(id);
+      if (timestamp > freshestTimestamp)
       {
-        for (PhotonTrackedTarget i : result.getTargets())
-        {
-          if (i.getFiducialId() == id)
-          {
-            return i;
-          }
-        }
+        freshest = index.getTarget(id);
+        freshestTimestamp = timestamp;
       }
     }
-    return target;
+    return freshest;
+  }
 
+  /**
+   * Get the camera with the best view of an AprilTag from the current pose, using the precomputed visibility map.
+   *
+   * @param id AprilTag ID
+   * @return Best camera, falls back to the camera which saw the tag most recently until the visibility map is ready.
+   *     Null if no camera can see the tag.
+   */
+  public Cameras getBestCamera(int id)
+  {
+    TagVisibilityMap map = visibilityMap;
+    if (map != null)
+    {
+      Pose2d robotPose = currentPose.get();
+      return map.getBestCamera(id, robotPose.getX(), robotPose.getY(), robotPose.getRotation().getRadians());
+    }
+
+    Cameras best          = null;
+    double  bestTimestamp = Double.NEGATIVE_INFINITY;
+    for (Cameras camera : Cameras.values())
+    {
+      double timestamp = camera.fiducialIndex.getTimestamp(id);
+      if (timestamp > bestTimestamp)
+      {
+        best = camera;
+        bestTimestamp = timestamp;
+      }
+    }
+    return best;
   }
 
   /**
@@ -307,9 +841,10 @@ public class Vision
     List<PhotonTrackedTarget> targets = new ArrayList<PhotonTrackedTarget>();
     for (Cameras c : Cameras.values())
     {
-      if (!c.resultsList.isEmpty())
+      List<PhotonPipelineResult> cachedResults = c.resultsList;
+      if (!cachedResults.isEmpty())
       {
-        PhotonPipelineResult latest = c.resultsList.get(0);
+        PhotonPipelineResult latest = cachedResults.get(0);
         if (latest.hasTargets())
         {
           targets.addAll(latest.targets);
@@ -320,9 +855,9 @@ public class Vision
     List<Pose2d> poses = new ArrayList<>();
     for (PhotonTrackedTarget target : targets)
     {
-      if (fieldLayout.getTagPose(target.getFiducialId()).isPresent())
+      Pose2d targetPose = tagTable.getPose2d(target.getFiducialId());
+      if (targetPose != null)
       {
-        Pose2d targetPose = fieldLayout.getTagPose(target.getFiducialId()).get().toPose2d();
         poses.add(targetPose);
       }
     }
@@ -330,6 +865,27 @@ public class Vision
     field2d.getObject("tracked targets").setPoses(poses);
   }
 
+  /**
+   * Where camera results are read and run through the {@link PhotonPoseEstimator}.
+   */
+  public enum IngestionMode
+  {
+    /**
+     * Results are read and estimated on the main robot loop inside {@link Vision#updatePoseEstimation}.
+     */
+    SYNCHRONOUS,
+    /**
+     * Each camera owns an ingestion thread which reads and estimates results as they arrive, the main robot loop only
+     * consumes the finished {@link VisionObservation}s.
+     */
+    BACKGROUND,
+    /**
+     * Results are read and estimated for all cameras concurrently on a small worker pool inside
+     * {@link Vision#updatePoseEstimation}, which waits for every camera before fusing.
+     */
+    PARALLEL
+  }
+
   /**
    * Camera Enum to select each camera
    */
@@ -367,6 +923,10 @@ public class Vision
      * Latency alert to use when high latency is detected.
      */
     public final  Alert                        latencyAlert;
+    /**
+     * Latency and staleness instrumentation, drives {@link Cameras#latencyAlert}.
+     */
+    final         VisionTelemetry              telemetry;
     /**
      * Camera instance for comms.
      */
@@ -376,38 +936,103 @@ public class Vision
      */
     public final  PhotonPoseEstimator          poseEstimator;
     /**
-     * Standard Deviation for single tag readings for pose estimation.
-     */
-    private final Matrix<N3, N1>               singleTagStdDevs;
-    /**
-     * Standard deviation for multi-tag readings for pose estimation.
+     * Standard deviation heuristic for pose estimation, holds the single and multi-tag standard deviations.
      */
-    private final Matrix<N3, N1>               multiTagStdDevs;
+    private final VisionStdDevEstimator        stdDevEstimator;
     /**
      * Transform of the camera rotation and translation relative to the center of the robot
      */
-    private final Transform3d                  robotToCamTransform;
-    /**
-     * Current standard deviations used.
-     */
-    public        Matrix<N3, N1>               curStdDevs;
+    final         Transform3d                  robotToCamTransform;
     /**
      * Estimated robot pose.
      */
-    public Optional<EstimatedRobotPose> estimatedRobotPose = Optional.empty();
+    public volatile Optional<EstimatedRobotPose> estimatedRobotPose = Optional.empty();
 
     /**
      * Simulated camera instance which only exists during simulations.
      */
     public        PhotonCameraSim              cameraSim;
     /**
-     * Results list to be updated periodically and cached to avoid unnecessary queries.
+     * Simulated camera properties which only exist during simulations.
      */
-    public        List<PhotonPipelineResult>   resultsList       = new ArrayList<>();
+    public        SimCameraProperties          simProperties;
+    /**
+     * Results list to be updated periodically and cached to avoid unnecessary queries. Replaced, never modified, once
+     * published.
+     */
+    public volatile List<PhotonPipelineResult>  resultsList       = new ArrayList<>();
+    /**
+     * Newest target for each fiducial ID in {@link Cameras#resultsList}, rebuilt whenever the list is replaced.
+     */
+    public volatile FiducialIndex               fiducialIndex     = FiducialIndex.EMPTY;
     /**
      * Last read from the camera timestamp to prevent lag due to slow data fetches.
      */
     private       double                       lastReadTimestamp = Microseconds.of(NetworkTablesJNI.now()).in(Seconds);
+    /**
+     * Subscriber to the camera's result topic, only used to detect new frames through
+     * {@link GenericSubscriber#getLastChange()}.
+     */
+    private final GenericSubscriber            resultSignal;
+    /**
+     * Value of {@link GenericSubscriber#getLastChange()} at the last read.
+     */
+    private       long                         lastResultChange      = 0;
+    /**
+     * Smoothed time between frames in seconds, the camera is read at least this often.
+     */
+    private       double                       expectedFrameInterval = 1.0 / 30.0;
+    /**
+     * Timestamp of the newest frame read in seconds.
+     */
+    private       double                       lastFrameTimestamp    = Double.NaN;
+    /**
+     * Frame intervals without a new frame after which {@link Cameras#resultsList} and {@link Cameras#fiducialIndex} are
+     * cleared, so a disconnected camera does not keep reporting its last targets.
+     */
+    private final int                          staleFrameIntervals   = 5;
+    /**
+     * Time the newest frames were read in seconds, NaN once they have expired.
+     */
+    private       double                       lastResultsTimestamp  = Double.NaN;
+    /**
+     * Maximum number of frames estimated per read, older frames in a backlog are dropped.
+     */
+    private final int                          maximumBacklogFrames  = 2;
+    /**
+     * Time in seconds after which frames are estimated again although no tag can be in view from the odometry pose, so
+     * a wrong odometry pose cannot lock vision out.
+     */
+    private final double                       visibilityOverride    = 1.0;
+    /**
+     * Time since which no tag could be in view from the odometry pose in seconds, NaN while tags can be in view.
+     */
+    private       double                       invisibleSince        = Double.NaN;
+    /**
+     * Estimates waiting to be fused, produced by {@link Cameras#updateUnreadResults()} and consumed by
+     * {@link Vision#updatePoseEstimation}.
+     */
+    private final VisionRingBuffer<VisionObservation> observations = new VisionRingBuffer<>(16);
+    /**
+     * Background ingestion thread, null when results are read on the main robot loop.
+     */
+    private volatile Notifier                  ingestionThread;
+    /**
+     * Recording every frame read from this camera, null when not recording.
+     */
+    volatile         VisionRecorder            recorder;
+    /**
+     * Read results from {@link Cameras#replayResults} instead of the camera.
+     */
+    volatile         boolean                   replaying;
+    /**
+     * Tags this camera can possibly see from the current pose, published by {@link Vision#updatePoseEstimation}.
+     */
+    volatile         long                      visibleTags = TagVisibilityMap.ALL_TAGS;
+    /**
+     * Results queued by {@link VisionReplay}.
+     */
+    private final ConcurrentLinkedQueue<PhotonPipelineResult> replayResults = new ConcurrentLinkedQueue<>();
 
     /**
      * Construct a Photon Camera class with help. Standard deviations are fake values, experiment and determine
@@ -423,8 +1048,14 @@ public class Vision
             Matrix<N3, N1> singleTagStdDevs, Matrix<N3, N1> multiTagStdDevsMatrix)
     {
       latencyAlert = new Alert("'" + name + "' Camera is experiencing high latency.", AlertType.kWarning);
+      telemetry = new VisionTelemetry(name, latencyAlert);
 
       camera = new PhotonCamera(name);
+      resultSignal = NetworkTableInstance.getDefault()
+                                         .getTable("photonvision")
+                                         .getSubTable(name)
+                                         .getTopic("rawBytes")
+                                         .genericSubscribe(PubSubOption.pollStorage(1));
 
       // https://docs.wpilib.org/en/stable/docs/software/basic-programming/coordinate-system.html
       robotToCamTransform = new Transform3d(robotToCamTranslation, robotToCamRotation);
@@ -434,8 +1065,7 @@ public class Vision
                                               robotToCamTransform);
       poseEstimator.setMultiTagFallbackStrategy(PoseStrategy.LOWEST_AMBIGUITY);
 
-      this.singleTagStdDevs = singleTagStdDevs;
-      this.multiTagStdDevs = multiTagStdDevsMatrix;
+      stdDevEstimator = new VisionStdDevEstimator(singleTagStdDevs, multiTagStdDevsMatrix);
 
       if (Robot.isSimulation())
       {
@@ -444,14 +1074,25 @@ public class Vision
         cameraProp.setCalibration(960, 720, Rotation2d.fromDegrees(100));
         // Approximate detection noise with average and standard deviation error in pixels.
         cameraProp.setCalibError(0.25, 0.08);
-        // Set the camera image capture framerate (Note: this is limited by robot loop rate).
+        // Set the camera image capture framerate (Note: this is limited by robot loop rate unless the vision simulation
+        // runs on its own thread).
         cameraProp.setFPS(30);
         // The average and standard deviation in milliseconds of image data latency.
         cameraProp.setAvgLatencyMs(35);
         cameraProp.setLatencyStdDevMs(5);
 
+        simProperties = cameraProp;
         cameraSim = new PhotonCameraSim(camera, cameraProp);
-        cameraSim.enableDrawWireframe(true);
+        if (headlessSimulation)
+        {
+          // Targets, corners, noise and latency are still simulated, only the image rendering is skipped.
+          cameraSim.enableRawStream(false);
+          cameraSim.enableProcessedStream(false);
+          cameraSim.enableDrawWireframe(false);
+        } else
+        {
+          cameraSim.enableDrawWireframe(true);
+        }
       }
     }
 
@@ -468,6 +1109,49 @@ public class Vision
       }
     }
 
+    /**
+     * Start a dedicated thread which reads and estimates results from this camera as they arrive. Only the main robot
+     * loop may call this.
+     *
+     * @param period Polling period of the thread in seconds.
+     */
+    public void startIngestionThread(double period)
+    {
+      if (ingestionThread != null)
+      {
+        return;
+      }
+      Notifier thread = new Notifier(this::updateUnreadResults);
+      thread.setName(camera.getName() + " Vision Ingestion");
+      ingestionThread = thread;
+      thread.startPeriodic(period);
+    }
+
+    /**
+     * Stop the dedicated ingestion thread, blocking until any in-progress read finishes. Results are then read on the
+     * main robot loop again.
+     */
+    public void stopIngestionThread()
+    {
+      Notifier thread = ingestionThread;
+      if (thread != null)
+      {
+        thread.stop();
+        thread.close();
+        ingestionThread = null;
+      }
+    }
+
+    /**
+     * Take the oldest estimate which has not been fused yet. Only the main robot loop may call this.
+     *
+     * @return Oldest unfused {@link VisionObservation}, or null if there are none.
+     */
+    public VisionObservation pollObservation()
+    {
+      return observations.poll();
+    }
+
     /**
      * Get the result with the least ambiguity from the best tracked target within the Cache. This may not be the most
      * recent result!
@@ -476,15 +1160,16 @@ public class Vision
      */
     public Optional<PhotonPipelineResult> getBestResult()
     {
-      if (resultsList.isEmpty())
+      List<PhotonPipelineResult> cachedResults = resultsList;
+      if (cachedResults.isEmpty())
       {
         return Optional.empty();
       }
 
-      PhotonPipelineResult bestResult       = resultsList.get(0);
+      PhotonPipelineResult bestResult       = cachedResults.get(0);
       double               amiguity         = bestResult.getBestTarget().getPoseAmbiguity();
       double               currentAmbiguity = 0;
-      for (PhotonPipelineResult result : resultsList)
+      for (PhotonPipelineResult result : cachedResults)
       {
         currentAmbiguity = result.getBestTarget().getPoseAmbiguity();
         if (currentAmbiguity < amiguity && currentAmbiguity > 0)
@@ -503,7 +1188,8 @@ public class Vision
      */
     public Optional<PhotonPipelineResult> getLatestResult()
     {
-      return resultsList.isEmpty() ? Optional.empty() : Optional.of(resultsList.get(0));
+      List<PhotonPipelineResult> cachedResults = resultsList;
+      return cachedResults.isEmpty() ? Optional.empty() : Optional.of(cachedResults.get(0));
     }
 
     /**
@@ -514,33 +1200,156 @@ public class Vision
      */
     public Optional<EstimatedRobotPose> getEstimatedGlobalPose()
     {
-      updateUnreadResults();
+      if (ingestionThread == null)
+      {
+        updateUnreadResults();
+      }
       return estimatedRobotPose;
     }
 
     /**
-     * Update the latest results, cached with a maximum refresh rate of 1req/15ms. Sorts the list by timestamp.
+     * Update the latest results, sorted by timestamp. The camera is only read once NetworkTables signals a new frame,
+     * or once the expected frame interval has elapsed with a maximum refresh rate of 1req/15ms. Only the newest
+     * {@link Cameras#maximumBacklogFrames} of a backlog are estimated, the rest are counted as dropped. Runs on the
+     * ingestion thread when one is started, otherwise on the main robot loop or a {@link IngestionMode#PARALLEL}
+     * worker.
+     */
+    void updateUnreadResults()
+    {
+      double currentTimestamp = Microseconds.of(NetworkTablesJNI.now()).in(Seconds);
+      double debounceTime     = Milliseconds.of(15).in(Seconds);
+      long   lastChange       = resultSignal.getLastChange();
+      if (!replaying && lastChange == lastResultChange &&
+          currentTimestamp - lastReadTimestamp < Math.max(debounceTime, expectedFrameInterval))
+      {
+        return;
+      }
+      lastResultChange = lastChange;
+
+      List<PhotonPipelineResult> unreadResults = readUnreadResults();
+      lastReadTimestamp = currentTimestamp;
+      // Cameras are polled faster than they produce frames, keep the last frames until they are several frames old.
+      if (unreadResults.isEmpty())
+      {
+        expireStaleResults(currentTimestamp);
+        return;
+      }
+      unreadResults.sort((PhotonPipelineResult a, PhotonPipelineResult b) -> {
+        return a.getTimestampSeconds() >= b.getTimestampSeconds() ? 1 : -1;
+      });
+      for (PhotonPipelineResult result : unreadResults)
+      {
+        telemetry.recordFrame(result, currentTimestamp);
+      }
+      updateExpectedFrameInterval(unreadResults);
+
+      // After a loop overrun only the newest frames matter, estimating the whole backlog would cause another overrun.
+      // A replay must estimate every recorded frame to reproduce the match.
+      int backlog = replaying ? 0 : unreadResults.size() - maximumBacklogFrames;
+      if (backlog > 0)
+      {
+        telemetry.recordDropped(backlog);
+        unreadResults = new ArrayList<>(unreadResults.subList(backlog, unreadResults.size()));
+      }
+      fiducialIndex = FiducialIndex.build(unreadResults, tagTable.getMaxId());
+      resultsList = unreadResults;
+      lastResultsTimestamp = currentTimestamp;
+      // No tag can be in view from the current pose, so a detection is most likely a false positive. Odometry may be
+      // the one that is wrong though, so frames are estimated again once that has lasted a while. A replay estimates
+      // every frame, so its result does not depend on the visibility map or on how long the map was loading.
+      if (replaying || visibleTags != 0)
+      {
+        invisibleSince = Double.NaN;
+      } else if (Double.isNaN(invisibleSince))
+      {
+        invisibleSince = currentTimestamp;
+        return;
+      } else if (currentTimestamp - invisibleSince < visibilityOverride)
+      {
+        return;
+      }
+      updateEstimatedGlobalPose(unreadResults, currentTimestamp);
+    }
+
+    /**
+     * Clear the cached results, target index and estimate once no frame has been read for
+     * {@link Cameras#staleFrameIntervals} frame intervals, which happens when the camera disconnects or stops
+     * publishing. The time frames were read is compared rather than their capture time, so replayed frames expire the
+     * same way.
+     *
+     * @param currentTimestamp Time of the read which returned no frames in seconds.
+     */
+    private void expireStaleResults(double currentTimestamp)
+    {
+      if (currentTimestamp - lastResultsTimestamp > staleFrameIntervals * expectedFrameInterval)
+      {
+        lastResultsTimestamp = Double.NaN;
+        fiducialIndex = FiducialIndex.EMPTY;
+        resultsList = new ArrayList<>();
+        estimatedRobotPose = Optional.empty();
+      }
+    }
+
+    /**
+     * Update {@link Cameras#expectedFrameInterval} from the spacing of consecutive frames.
+     *
+     * @param results Results sorted by timestamp.
+     */
+    private void updateExpectedFrameInterval(List<PhotonPipelineResult> results)
+    {
+      for (PhotonPipelineResult result : results)
+      {
+        double timestamp = result.getTimestampSeconds();
+        double interval  = timestamp - lastFrameTimestamp;
+        // Ignore the first frame and gaps where the camera stopped producing frames.
+        if (!Double.isNaN(lastFrameTimestamp) && interval > 0 && interval < 1.0)
+        {
+          expectedFrameInterval += 0.1 * (interval - expectedFrameInterval);
+        }
+        lastFrameTimestamp = timestamp;
+      }
+    }
+
+    /**
+     * Read every result received since the last read, from the camera or from {@link VisionReplay}, and record them
+     * if a recording is in progress.
+     *
+     * @return Unread results, unsorted.
      */
-    private void updateUnreadResults()
+    private List<PhotonPipelineResult> readUnreadResults()
     {
-      double mostRecentTimestamp = resultsList.isEmpty() ? 0.0 : resultsList.get(0).getTimestampSeconds();
-      double currentTimestamp    = Microseconds.of(NetworkTablesJNI.now()).in(Seconds);
-      double debounceTime        = Milliseconds.of(15).in(Seconds);
-      for (PhotonPipelineResult result : resultsList)
+      List<PhotonPipelineResult> unreadResults;
+      if (replaying)
+      {
+        unreadResults = new ArrayList<>();
+        for (PhotonPipelineResult result = replayResults.poll(); result != null; result = replayResults.poll())
+        {
+          unreadResults.add(result);
+        }
+      } else
       {
-        mostRecentTimestamp = Math.max(mostRecentTimestamp, result.getTimestampSeconds());
+        unreadResults = Robot.isReal() ? camera.getAllUnreadResults() : cameraSim.getCamera().getAllUnreadResults();
       }
 
-        resultsList = Robot.isReal() ? camera.getAllUnreadResults() : cameraSim.getCamera().getAllUnreadResults();
-        lastReadTimestamp = currentTimestamp;
-        resultsList.sort((PhotonPipelineResult a, PhotonPipelineResult b) -> {
-          return a.getTimestampSeconds() >= b.getTimestampSeconds() ? 1 : -1;
-        });
-        if (!resultsList.isEmpty())
+      VisionRecorder activeRecorder = recorder;
+      if (activeRecorder != null)
+      {
+        for (PhotonPipelineResult result : unreadResults)
         {
-          updateEstimatedGlobalPose();
+          activeRecorder.recordFrame(this, result);
         }
+      }
+      return unreadResults;
+    }
 
+    /**
+     * Queue a recorded result to be read on the next update while replaying.
+     *
+     * @param result Recorded result.
+     */
+    void addReplayResult(PhotonPipelineResult result)
+    {
+      replayResults.add(result);
     }
 
     /**
@@ -550,23 +1359,39 @@ public class Vision
      * <p>Also includes updates for the standard deviations, which can (optionally) be retrieved with
      * {@link Cameras#updateEstimationStdDevs}
      *
-     * @return An {@link EstimatedRobotPose} with an estimated pose, estimate timestamp, and targets used for
-     * estimation.
+     * <p>Every successful estimate is published to {@link Vision#updatePoseEstimation} through the observation ring
+     * buffer, estimates are dropped if the main robot loop falls too far behind.
+     *
+     * @param results    Unread results sorted by timestamp.
+     * @param ingestTime Time the results were read in seconds.
      */
-    private void updateEstimatedGlobalPose()
+    private void updateEstimatedGlobalPose(List<PhotonPipelineResult> results, double ingestTime)
     {
       Optional<EstimatedRobotPose> visionEst = Optional.empty();
-      for (var change : resultsList)
+      for (var change : results)
       {
+        long estimatorStart = System.nanoTime();
         visionEst = poseEstimator.update(change);
+        telemetry.recordEstimatorTime(System.nanoTime() - estimatorStart);
         updateEstimationStdDevs(visionEst, change.getTargets());
+        if (visionEst.isPresent() &&
+            !observations.offer(new VisionObservation(this,
+                                                      visionEst.get(),
+                                                      stdDevEstimator.get(VisionStdDevEstimator.X),
+                                                      stdDevEstimator.get(VisionStdDevEstimator.Y),
+                                                      stdDevEstimator.get(VisionStdDevEstimator.THETA),
+                                                      ingestTime)))
+        {
+          telemetry.recordDropped(1);
+        }
       }
       estimatedRobotPose = visionEst;
     }
 
     /**
      * Calculates new standard deviations This algorithm is a heuristic that creates dynamic standard deviations based
-     * on number of tags, estimation strategy, and distance from the tags.
+     * on number of tags, estimation strategy, and distance from the tags. Results are written into the camera's
+     * {@link VisionStdDevEstimator} without allocating.
      *
      * @param estimatedPose The estimated pose to guess standard deviations for.
      * @param targets       All targets in this camera frame
@@ -577,55 +1402,14 @@ public class Vision
       if (estimatedPose.isEmpty())
       {
         // No pose input. Default to single-tag std devs
-        curStdDevs = singleTagStdDevs;
-
+        stdDevEstimator.reset();
       } else
       {
         // Pose present. Start running Heuristic
-        var    estStdDevs = singleTagStdDevs;
-        int    numTags    = 0;
-        double avgDist    = 0;
-
-        // Precalculation - see how many tags we found, and calculate an average-distance metric
-        for (var tgt : targets)
-        {
-          var tagPose = poseEstimator.getFieldTags().getTagPose(tgt.getFiducialId());
-          if (tagPose.isEmpty())
-          {
-            continue;
-          }
-          numTags++;
-          avgDist +=
-              tagPose
-                  .get()
-                  .toPose2d()
-                  .getTranslation()
-                  .getDistance(estimatedPose.get().estimatedPose.toPose2d().getTranslation());
-        }
-
-        if (numTags == 0)
-        {
-          // No tags visible. Default to single-tag std devs
-          curStdDevs = singleTagStdDevs;
-        } else
-        {
-          // One or more tags visible, run the full heuristic.
-          avgDist /= numTags;
-          // Decrease std devs if multiple targets are visible
-          if (numTags > 1)
-          {
-            estStdDevs = multiTagStdDevs;
-          }
-          // Increase std devs based on (average) distance
-          if (numTags == 1 && avgDist > 4)
-          {
-            estStdDevs = VecBuilder.fill(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
-          } else
-          {
-            estStdDevs = estStdDevs.times(1 + (avgDist * avgDist / 30));
-          }
-          curStdDevs = estStdDevs;
-        }
+        stdDevEstimator.update(estimatedPose.get().estimatedPose.getX(),
+                               estimatedPose.get().estimatedPose.getY(),
+                               targets,
+                               tagTable);
       }
     }
 
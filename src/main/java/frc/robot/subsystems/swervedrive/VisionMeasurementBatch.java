@@ -0,0 +1,270 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.Arrays;
+import swervelib.SwerveDrive;
+
+/**
+ * Collects every vision measurement gathered in one loop and applies them to the {@link SwerveDrive} pose estimator
+ * together. Measurements are sorted by timestamp, measurements captured within
+ * {@link VisionMeasurementBatch#mergeWindow} of each other are combined by inverse variance, and the result is applied
+ * oldest first.
+ *
+ * <p>The pose estimator discards every correction newer than a measurement when an older measurement arrives, so
+ * applying a loop's measurements in strict order and as few of them as possible keeps every correction and minimizes
+ * the history lookups. Not thread safe, gather and apply on the main robot loop.
+ */
+public class VisionMeasurementBatch implements VisionMeasurementConsumer
+{
+
+  /**
+   * Capture time window in which measurements are combined into one, in seconds.
+   */
+  private       double         mergeWindow    = 0.005;
+  /**
+   * Number of measurements gathered.
+   */
+  private       int            size           = 0;
+  /**
+   * Capture timestamp of each measurement in seconds.
+   */
+  private       double[]       timestamps     = new double[16];
+  /**
+   * Pose X, Y, heading and variance X, Y, heading of each measurement, six values per measurement.
+   */
+  private       double[]       values         = new double[16 * 6];
+  /**
+   * Measurement indices sorted by timestamp.
+   */
+  private       int[]          order          = new int[16];
+  /**
+   * Standard deviations last handed to {@link SwerveDrive#addVisionMeasurement}, reused for every measurement.
+   */
+  private final Matrix<N3, N1> appliedStdDevs = new Matrix<>(Nat.N3(), Nat.N1());
+  /**
+   * Whether {@link VisionMeasurementBatch#appliedStdDevs} has been handed to the {@link SwerveDrive} yet. Nothing else
+   * sets the vision standard deviations of the {@link SwerveDrive}, so they are still in effect until they change.
+   */
+  private       boolean        stdDevsApplied = false;
+
+  /**
+   * Add a measurement to the batch. Measurements without information, with a non-finite or
+   * {@link Double#MAX_VALUE} standard deviation such as a rejected single tag, are skipped.
+   *
+   * @param robotPose        Robot pose estimated by vision.
+   * @param timestampSeconds Capture timestamp of the measurement in seconds.
+   * @param stdDevX          Standard deviation of the X estimate in meters.
+   * @param stdDevY          Standard deviation of the Y estimate in meters.
+   * @param stdDevTheta      Standard deviation of the heading estimate in radians.
+   */
+  @Override
+  public void accept(Pose2d robotPose, double timestampSeconds, double stdDevX, double stdDevY, double stdDevTheta)
+  {
+    double varianceX     = stdDevX * stdDevX;
+    double varianceY     = stdDevY * stdDevY;
+    double varianceTheta = stdDevTheta * stdDevTheta;
+    // Squaring Double.MAX_VALUE overflows to infinity, which would give the measurement no weight.
+    if (!isInformative(varianceX) || !isInformative(varianceY) || !isInformative(varianceTheta) ||
+        !Double.isFinite(timestampSeconds))
+    {
+      return;
+    }
+    if (size == timestamps.length)
+    {
+      timestamps = Arrays.copyOf(timestamps, size * 2);
+      values = Arrays.copyOf(values, size * 2 * 6);
+      order = Arrays.copyOf(order, size * 2);
+    }
+    timestamps[size] = timestampSeconds;
+    values[size * 6] = robotPose.getX();
+    values[size * 6 + 1] = robotPose.getY();
+    values[size * 6 + 2] = robotPose.getRotation().getRadians();
+    values[size * 6 + 3] = varianceX;
+    values[size * 6 + 4] = varianceY;
+    values[size * 6 + 5] = varianceTheta;
+    size++;
+  }
+
+  /**
+   * Check if a variance carries information which can be weighted by its inverse.
+   *
+   * @param variance Variance of a measurement.
+   * @return True if the variance is finite and positive.
+   */
+  private static boolean isInformative(double variance)
+  {
+    return Double.isFinite(variance) && variance > 0;
+  }
+
+  /**
+   * Number of measurements gathered since the last {@link VisionMeasurementBatch#apply}.
+   *
+   * @return Measurement count.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Discard every gathered measurement.
+   */
+  public void clear()
+  {
+    size = 0;
+  }
+
+  /**
+   * Set the capture time window in which measurements are combined into one.
+   *
+   * @param seconds Window in seconds, 0 to never combine measurements.
+   */
+  public void setMergeWindow(double seconds)
+  {
+    mergeWindow = seconds;
+  }
+
+  /**
+   * Apply every gathered measurement to the pose estimator oldest first and clear the batch.
+   *
+   * @param swerveDrive {@link SwerveDrive} to apply the measurements to.
+   * @return Number of measurements applied after combining.
+   */
+  public int apply(SwerveDrive swerveDrive)
+  {
+    return apply(swerveDrive, null);
+  }
+
+  /**
+   * Apply every gathered measurement to another pose estimator oldest first and clear the batch.
+   *
+   * @param estimator Estimator to pass the combined measurements to, such as a {@link PrimitivePoseEstimator}.
+   * @return Number of measurements applied after combining.
+   */
+  public int apply(VisionMeasurementConsumer estimator)
+  {
+    return apply(null, estimator);
+  }
+
+  /**
+   * Apply every gathered measurement oldest first and clear the batch.
+   *
+   * @param swerveDrive {@link SwerveDrive} to apply the measurements to, or null to use the estimator.
+   * @param estimator   Estimator to apply the measurements to when swerveDrive is null.
+   * @return Number of measurements applied after combining.
+   */
+  private int apply(SwerveDrive swerveDrive, VisionMeasurementConsumer estimator)
+  {
+    sortByTimestamp();
+    int applied = 0;
+    int start   = 0;
+    while (start < size)
+    {
+      int end = start + 1;
+      while (end < size && timestamps[order[end]] - timestamps[order[start]] <= mergeWindow)
+      {
+        end++;
+      }
+      if (applyCombined(swerveDrive, estimator, start, end))
+      {
+        applied++;
+      }
+      start = end;
+    }
+    size = 0;
+    return applied;
+  }
+
+  /**
+   * Sort {@link VisionMeasurementBatch#order} by timestamp. Measurements mostly arrive in order already, which insertion
+   * sort handles in linear time.
+   */
+  private void sortByTimestamp()
+  {
+    for (int i = 0; i < size; i++)
+    {
+      double timestamp = timestamps[i];
+      int    j         = i - 1;
+      while (j >= 0 && timestamps[order[j]] > timestamp)
+      {
+        order[j + 1] = order[j];
+        j--;
+      }
+      order[j + 1] = i;
+    }
+  }
+
+  /**
+   * Combine the sorted measurements in [start, end) by inverse variance and apply the result, unless an axis has no
+   * weight to divide by.
+   *
+   * @param swerveDrive {@link SwerveDrive} to apply the measurement to, or null to use the estimator.
+   * @param estimator   Estimator to apply the measurement to when swerveDrive is null.
+   * @param start       First sorted position to combine.
+   * @param end         Sorted position after the last one to combine.
+   * @return True if the combined measurement was applied.
+   */
+  private boolean applyCombined(SwerveDrive swerveDrive, VisionMeasurementConsumer estimator, int start, int end)
+  {
+    double timestamp   = 0;
+    double weightX     = 0;
+    double weightY     = 0;
+    double weightTheta = 0;
+    double sumX        = 0;
+    double sumY        = 0;
+    double sumCos      = 0;
+    double sumSin      = 0;
+    for (int i = start; i < end; i++)
+    {
+      int    m  = order[i] * 6;
+      double wx = 1.0 / values[m + 3];
+      double wy = 1.0 / values[m + 4];
+      double wt = 1.0 / values[m + 5];
+      timestamp += timestamps[order[i]];
+      sumX += wx * values[m];
+      sumY += wy * values[m + 1];
+      // Average headings on the unit circle so measurements either side of +-pi do not cancel out.
+      sumCos += wt * Math.cos(values[m + 2]);
+      sumSin += wt * Math.sin(values[m + 2]);
+      weightX += wx;
+      weightY += wy;
+      weightTheta += wt;
+    }
+    if (!(weightX > 0 && weightY > 0 && weightTheta > 0) || sumCos == 0 && sumSin == 0)
+    {
+      return false;
+    }
+
+    Pose2d pose        = new Pose2d(sumX / weightX, sumY / weightY, new Rotation2d(sumCos, sumSin));
+    double stdDevX     = Math.sqrt(1.0 / weightX);
+    double stdDevY     = Math.sqrt(1.0 / weightY);
+    double stdDevTheta = Math.sqrt(1.0 / weightTheta);
+    timestamp /= end - start;
+
+    if (swerveDrive == null)
+    {
+      estimator.accept(pose, timestamp, stdDevX, stdDevY, stdDevTheta);
+      return true;
+    }
+    // Handing over standard deviations recomputes the estimator's vision gain, skip it when they have not changed.
+    if (stdDevsApplied &&
+        appliedStdDevs.get(0, 0) == stdDevX &&
+        appliedStdDevs.get(1, 0) == stdDevY &&
+        appliedStdDevs.get(2, 0) == stdDevTheta)
+    {
+      swerveDrive.addVisionMeasurement(pose, timestamp);
+      return true;
+    }
+    appliedStdDevs.set(0, 0, stdDevX);
+    appliedStdDevs.set(1, 0, stdDevY);
+    appliedStdDevs.set(2, 0, stdDevTheta);
+    stdDevsApplied = true;
+    swerveDrive.addVisionMeasurement(pose, timestamp, appliedStdDevs);
+    return true;
+  }
+}
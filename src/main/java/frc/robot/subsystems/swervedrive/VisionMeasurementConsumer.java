@@ -0,0 +1,23 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+
+/**
+ * Destination for vision measurements which passed {@link Vision}'s fusion stage, such as a pose estimator or a replay
+ * analysis.
+ */
+@FunctionalInterface
+public interface VisionMeasurementConsumer
+{
+
+  /**
+   * Accept a vision measurement.
+   *
+   * @param robotPose        Robot pose estimated by vision.
+   * @param timestampSeconds Capture timestamp of the measurement in seconds.
+   * @param stdDevX          Standard deviation of the X estimate in meters.
+   * @param stdDevY          Standard deviation of the Y estimate in meters.
+   * @param stdDevTheta      Standard deviation of the heading estimate in radians.
+   */
+  void accept(Pose2d robotPose, double timestampSeconds, double stdDevX, double stdDevY, double stdDevTheta);
+}
@@ -0,0 +1,341 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.MathUtil;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.util.List;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Rejects vision estimates which are statistically inconsistent with odometry. The squared Mahalanobis distance between
+ * the estimate and the odometry pose at its capture time, using the combined odometry and vision variances, is compared
+ * against a chi-squared threshold with 3 degrees of freedom. Without a {@link PoseHistory} the latest odometry pose is
+ * used instead.
+ */
+public class VisionMeasurementGate
+{
+
+  /**
+   * Chi-squared value with 3 degrees of freedom for a 99% confidence interval.
+   */
+  public static final double CHI_SQUARED_3DOF_99 = 11.345;
+
+  /**
+   * Squared Mahalanobis distance above which an estimate is rejected.
+   */
+  private       double      chiSquaredThreshold       = CHI_SQUARED_3DOF_99;
+  /**
+   * Ambiguity defined as a value between (0,1). Single tag estimates above this are rejected.
+   */
+  private       double      maximumAmbiguity          = 0.25;
+  /**
+   * Odometry translation standard deviation right after an accepted estimate, in meters.
+   */
+  private       double      odometryStdDevTranslation = 0.1;
+  /**
+   * Odometry heading standard deviation right after an accepted estimate, in radians.
+   */
+  private       double      odometryStdDevHeading     = 0.1;
+  /**
+   * Odometry translation standard deviation gained per meter driven since the last accepted estimate.
+   */
+  private       double      odometryDriftPerMeter     = 0.05;
+  /**
+   * Number of consecutive rejections after which odometry may be assumed to be wrong and the next estimate accepted.
+   */
+  private       int         maximumConsecutiveRejects = 10;
+  /**
+   * Number of cameras which must have been rejected in a row for the recovery to accept an estimate early.
+   */
+  private       int         minimumRecoveryCameras    = 2;
+  /**
+   * Time in seconds a single camera must have been rejected in a row for the recovery to accept an estimate.
+   */
+  private       double      minimumRecoveryDuration   = 0.5;
+  /**
+   * Time in seconds without a rejection after which the consecutive rejections start over.
+   */
+  private       double      rejectStreakTimeout       = 1.0;
+  /**
+   * Distance driven since the last accepted estimate in meters.
+   */
+  private       double      distanceSinceAccepted     = 0;
+  /**
+   * Odometry X from the previous {@link VisionMeasurementGate#updateOdometry} call.
+   */
+  private       double      lastOdometryX             = Double.NaN;
+  /**
+   * Odometry Y from the previous {@link VisionMeasurementGate#updateOdometry} call.
+   */
+  private       double      lastOdometryY             = Double.NaN;
+  /**
+   * Current odometry heading in radians.
+   */
+  private       double      odometryHeading           = 0;
+  /**
+   * Count of consecutive rejected estimates across all cameras.
+   */
+  private       int         consecutiveRejects        = 0;
+  /**
+   * Cameras rejected since the consecutive rejections started, one bit per {@link Cameras#ordinal()}.
+   */
+  private       long        rejectingCameras          = 0;
+  /**
+   * Capture time of the first of the consecutive rejections in seconds.
+   */
+  private       double      firstRejectTime           = Double.NaN;
+  /**
+   * Capture time of the latest of the consecutive rejections in seconds.
+   */
+  private       double      lastRejectTime            = Double.NaN;
+  /**
+   * Odometry history looked up at the capture time of each estimate, null to use the latest odometry pose.
+   */
+  private       PoseHistory poseHistory;
+  /**
+   * Scratch output of {@link PoseHistory#sample}.
+   */
+  private final double[]    odometrySample            = new double[3];
+  /**
+   * Accepted estimates per camera, indexed by {@link Cameras#ordinal()}.
+   */
+  private final long[]      acceptedCount             = new long[Cameras.values().length];
+  /**
+   * Rejected estimates per camera, indexed by {@link Cameras#ordinal()}.
+   */
+  private final long[]      rejectedCount             = new long[Cameras.values().length];
+
+  /**
+   * Update the odometry pose estimates are compared against. Call once per loop before
+   * {@link VisionMeasurementGate#test}.
+   *
+   * @param x       Odometry X in meters.
+   * @param y       Odometry Y in meters.
+   * @param heading Odometry heading in radians.
+   */
+  public void updateOdometry(double x, double y, double heading)
+  {
+    if (!Double.isNaN(lastOdometryX))
+    {
+      distanceSinceAccepted += Math.hypot(x - lastOdometryX, y - lastOdometryY);
+    }
+    lastOdometryX = x;
+    lastOdometryY = y;
+    odometryHeading = heading;
+  }
+
+  /**
+   * Check if an observation should be fused, updating the per-camera counters. Observations without information, such
+   * as a single tag beyond the trusted distance, are rejected without counting towards or resetting the consecutive
+   * rejections, so they can neither trigger nor hold off the recovery from a wrong odometry pose.
+   *
+   * @param observation Vision observation to check.
+   * @return True if the observation should be passed to the pose estimator.
+   */
+  public boolean test(VisionObservation observation)
+  {
+    if (!hasInformation(observation))
+    {
+      rejectedCount[observation.camera.ordinal()]++;
+      return false;
+    }
+    boolean accepted = !isAmbiguous(observation.estimate.targetsUsed) && isConsistent(observation);
+    if (!accepted && recordReject(observation))
+    {
+      // The cameras disagree with odometry for a while, odometry is probably the one that is wrong.
+      accepted = !isAmbiguous(observation.estimate.targetsUsed);
+    }
+
+    if (accepted)
+    {
+      acceptedCount[observation.camera.ordinal()]++;
+      consecutiveRejects = 0;
+      rejectingCameras = 0;
+      distanceSinceAccepted = 0;
+    } else
+    {
+      rejectedCount[observation.camera.ordinal()]++;
+    }
+    return accepted;
+  }
+
+  /**
+   * Count a rejection towards the recovery from a wrong odometry pose. A few rejections from one camera can be a
+   * reflection or a mounting problem, so the recovery needs {@link VisionMeasurementGate#maximumConsecutiveRejects} in
+   * a row from several cameras, or from one camera for {@link VisionMeasurementGate#minimumRecoveryDuration}. The
+   * rejections start over when none has happened for {@link VisionMeasurementGate#rejectStreakTimeout}.
+   *
+   * @param observation Rejected observation.
+   * @return True if odometry should be assumed wrong and the observation accepted.
+   */
+  private boolean recordReject(VisionObservation observation)
+  {
+    double timestamp = observation.getTimestampSeconds();
+    if (consecutiveRejects == 0 || Math.abs(timestamp - lastRejectTime) > rejectStreakTimeout)
+    {
+      consecutiveRejects = 0;
+      rejectingCameras = 0;
+      firstRejectTime = timestamp;
+    }
+    consecutiveRejects++;
+    rejectingCameras |= 1L << observation.camera.ordinal();
+    lastRejectTime = timestamp;
+    return consecutiveRejects >= maximumConsecutiveRejects &&
+           (Long.bitCount(rejectingCameras) >= minimumRecoveryCameras ||
+            timestamp - firstRejectTime >= minimumRecoveryDuration);
+  }
+
+  /**
+   * Check if an observation carries information. Infinite or {@link Double#MAX_VALUE} standard deviations square to
+   * infinity, which would make every Mahalanobis distance 0 and accept anything.
+   *
+   * @param observation Vision observation to check.
+   * @return True if every variance of the observation is finite.
+   */
+  private static boolean hasInformation(VisionObservation observation)
+  {
+    return Double.isFinite(observation.stdDevX * observation.stdDevX) &&
+           Double.isFinite(observation.stdDevY * observation.stdDevY) &&
+           Double.isFinite(observation.stdDevTheta * observation.stdDevTheta);
+  }
+
+  /**
+   * Check if an estimate from a single tag is too ambiguous to trust.
+   *
+   * @param targetsUsed Targets used to create the estimate.
+   * @return True if the estimate relies on a single ambiguous tag.
+   */
+  private boolean isAmbiguous(List<PhotonTrackedTarget> targetsUsed)
+  {
+    if (targetsUsed.size() != 1)
+    {
+      return false;
+    }
+    double ambiguity = targetsUsed.get(0).getPoseAmbiguity();
+    return ambiguity != -1 && ambiguity > maximumAmbiguity;
+  }
+
+  /**
+   * Compare the squared Mahalanobis distance between the estimate and odometry against the threshold. The estimate is
+   * compared with the odometry pose at its capture time, tens of milliseconds before the latest one.
+   *
+   * @param observation Vision observation to check.
+   * @return True if the estimate is consistent with odometry.
+   */
+  private boolean isConsistent(VisionObservation observation)
+  {
+    double odometryX = lastOdometryX;
+    double odometryY = lastOdometryY;
+    double heading   = odometryHeading;
+    if (poseHistory != null && poseHistory.sample(observation.getTimestampSeconds(), odometrySample))
+    {
+      odometryX = odometrySample[0];
+      odometryY = odometrySample[1];
+      heading = odometrySample[2];
+    } else if (Double.isNaN(lastOdometryX))
+    {
+      return true;
+    }
+    double odometryTranslation = odometryStdDevTranslation + odometryDriftPerMeter * distanceSinceAccepted;
+    double varianceTranslation = odometryTranslation * odometryTranslation;
+    double varianceHeading     = odometryStdDevHeading * odometryStdDevHeading;
+
+    double dx     = observation.estimate.estimatedPose.getX() - odometryX;
+    double dy     = observation.estimate.estimatedPose.getY() - odometryY;
+    double dTheta = MathUtil.angleModulus(observation.estimate.estimatedPose.getRotation().getZ() - heading);
+
+    double distanceSquared = dx * dx / (varianceTranslation + observation.stdDevX * observation.stdDevX) +
+                             dy * dy / (varianceTranslation + observation.stdDevY * observation.stdDevY) +
+                             dTheta * dTheta / (varianceHeading + observation.stdDevTheta * observation.stdDevTheta);
+    return distanceSquared <= chiSquaredThreshold;
+  }
+
+  /**
+   * Set the squared Mahalanobis distance above which an estimate is rejected.
+   *
+   * @param threshold Chi-squared threshold, {@link VisionMeasurementGate#CHI_SQUARED_3DOF_99} by default.
+   */
+  public void setChiSquaredThreshold(double threshold)
+  {
+    chiSquaredThreshold = threshold;
+  }
+
+  /**
+   * Set the maximum ambiguity of single tag estimates.
+   *
+   * @param ambiguity Ambiguity between (0,1).
+   */
+  public void setMaximumAmbiguity(double ambiguity)
+  {
+    maximumAmbiguity = ambiguity;
+  }
+
+  /**
+   * Set the odometry uncertainty model.
+   *
+   * @param translationStdDev Translation standard deviation right after an accepted estimate, in meters.
+   * @param headingStdDev     Heading standard deviation right after an accepted estimate, in radians.
+   * @param driftPerMeter     Translation standard deviation gained per meter driven.
+   */
+  public void setOdometryStdDevs(double translationStdDev, double headingStdDev, double driftPerMeter)
+  {
+    odometryStdDevTranslation = translationStdDev;
+    odometryStdDevHeading = headingStdDev;
+    odometryDriftPerMeter = driftPerMeter;
+  }
+
+  /**
+   * Set the number of consecutive rejections after which the next estimate is accepted regardless of odometry.
+   *
+   * @param rejects Consecutive rejection limit.
+   */
+  public void setMaximumConsecutiveRejects(int rejects)
+  {
+    maximumConsecutiveRejects = rejects;
+  }
+
+  /**
+   * Set what the consecutive rejections must span before an estimate is accepted regardless of odometry.
+   *
+   * @param cameras       Number of rejected cameras which allow the recovery.
+   * @param duration      Time in seconds a single camera must be rejected for instead.
+   * @param streakTimeout Time in seconds without a rejection after which the rejections start over.
+   */
+  public void setRecoveryRequirements(int cameras, double duration, double streakTimeout)
+  {
+    minimumRecoveryCameras = cameras;
+    minimumRecoveryDuration = duration;
+    rejectStreakTimeout = streakTimeout;
+  }
+
+  /**
+   * Compare estimates with the odometry pose at their capture time instead of the latest one.
+   *
+   * @param history Odometry history, null to use the latest odometry pose.
+   */
+  public void setPoseHistory(PoseHistory history)
+  {
+    poseHistory = history;
+  }
+
+  /**
+   * Number of estimates accepted from a camera.
+   *
+   * @param camera Camera to check.
+   * @return Accepted count.
+   */
+  public long getAcceptedCount(Cameras camera)
+  {
+    return acceptedCount[camera.ordinal()];
+  }
+
+  /**
+   * Number of estimates rejected from a camera.
+   *
+   * @param camera Camera to check.
+   * @return Rejected count.
+   */
+  public long getRejectedCount(Cameras camera)
+  {
+    return rejectedCount[camera.ordinal()];
+  }
+}
@@ -0,0 +1,67 @@
+package frc.robot.subsystems.swervedrive;
+
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import org.photonvision.EstimatedRobotPose;
+
+/**
+ * A ready-to-fuse vision measurement produced by a {@link Cameras} entry.
+ */
+final class VisionObservation
+{
+
+  /**
+   * Camera which produced the observation.
+   */
+  public final Cameras            camera;
+  /**
+   * Robot pose estimated by the camera's {@link org.photonvision.PhotonPoseEstimator}.
+   */
+  public final EstimatedRobotPose estimate;
+  /**
+   * Standard deviation of the estimated X in meters.
+   */
+  public final double             stdDevX;
+  /**
+   * Standard deviation of the estimated Y in meters.
+   */
+  public final double             stdDevY;
+  /**
+   * Standard deviation of the estimated heading in radians.
+   */
+  public final double             stdDevTheta;
+  /**
+   * Time the frame was read from the camera in seconds, in the NetworkTables timebase.
+   */
+  public final double             ingestTimestampSeconds;
+
+  /**
+   * Construct a vision observation.
+   *
+   * @param camera      Camera which produced the observation.
+   * @param estimate    Estimated robot pose.
+   * @param stdDevX     Standard deviation of the estimated X in meters.
+   * @param stdDevY     Standard deviation of the estimated Y in meters.
+   * @param stdDevTheta Standard deviation of the estimated heading in radians.
+   * @param ingestTime  Time the frame was read from the camera in seconds.
+   */
+  VisionObservation(Cameras camera, EstimatedRobotPose estimate, double stdDevX, double stdDevY, double stdDevTheta,
+                    double ingestTime)
+  {
+    this.camera = camera;
+    this.estimate = estimate;
+    this.stdDevX = stdDevX;
+    this.stdDevY = stdDevY;
+    this.stdDevTheta = stdDevTheta;
+    this.ingestTimestampSeconds = ingestTime;
+  }
+
+  /**
+   * Capture timestamp of the estimate.
+   *
+   * @return Timestamp in seconds, in the same timebase as {@link edu.wpi.first.wpilibj.Timer#getFPGATimestamp()}.
+   */
+  public double getTimestampSeconds()
+  {
+    return estimate.timestampSeconds;
+  }
+}
@@ -0,0 +1,196 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.photonvision.common.dataflow.structures.Packet;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * Compact binary recorder of every {@link PhotonPipelineResult} read from each camera together with the odometry pose
+ * used for fusion, so a match can be fed back through {@link Vision} with {@link VisionReplay}.
+ *
+ * <p>Records are serialized on the calling thread and written to disk by a dedicated writer thread, records are
+ * dropped rather than blocking the caller if the writer falls behind.
+ *
+ * <p>File layout, big-endian: int magic, short version, then records of a one byte type followed by
+ * <ul>
+ *   <li>{@link VisionRecorder#FRAME}: byte camera ordinal, double timestamp seconds, int length, PhotonVision packet</li>
+ *   <li>{@link VisionRecorder#ODOMETRY}: double timestamp seconds, double x, double y, double heading radians</li>
+ * </ul>
+ */
+public class VisionRecorder implements AutoCloseable
+{
+
+  /**
+   * File magic, "PVRP".
+   */
+  static final     int                   MAGIC    = 0x50565250;
+  /**
+   * File format version.
+   */
+  static final     short                 VERSION  = 1;
+  /**
+   * Record type of a camera frame.
+   */
+  static final     byte                  FRAME    = 1;
+  /**
+   * Record type of an odometry sample.
+   */
+  static final     byte                  ODOMETRY = 2;
+  /**
+   * Output file stream, only used by {@link VisionRecorder#writer}.
+   */
+  private final    DataOutputStream      output;
+  /**
+   * Serialized records waiting to be written.
+   */
+  private final    BlockingQueue<byte[]> queue    = new ArrayBlockingQueue<>(1024);
+  /**
+   * Records dropped because the queue was full.
+   */
+  private final    AtomicLong            dropped  = new AtomicLong();
+  /**
+   * Writer thread.
+   */
+  private final    Thread                writer;
+  /**
+   * Whether the recorder is accepting records.
+   */
+  private volatile boolean               running  = true;
+
+  /**
+   * Create a recording.
+   *
+   * @param file File to write, replaced if it exists.
+   * @throws IOException If the file cannot be created.
+   */
+  public VisionRecorder(Path file) throws IOException
+  {
+    output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    output.writeInt(MAGIC);
+    output.writeShort(VERSION);
+    writer = new Thread(this::writeRecords, "Vision Recorder");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Record a frame read from a camera. Safe to call from any thread.
+   *
+   * @param camera Camera the frame was read from.
+   * @param result Frame to record.
+   */
+  void recordFrame(Cameras camera, PhotonPipelineResult result)
+  {
+    if (!running)
+    {
+      return;
+    }
+    Packet packet = new Packet(1024);
+    PhotonPipelineResult.photonStruct.pack(packet, result);
+    byte[] data = packet.getWrittenDataCopy();
+    enqueue(ByteBuffer.allocate(1 + 1 + Double.BYTES + Integer.BYTES + data.length)
+                      .put(FRAME)
+                      .put((byte) camera.ordinal())
+                      .putDouble(result.getTimestampSeconds())
+                      .putInt(data.length)
+                      .put(data)
+                      .array());
+  }
+
+  /**
+   * Record the odometry pose used for a fusion step. Safe to call from any thread.
+   *
+   * @param timestampSeconds Time of the sample in seconds.
+   * @param pose             Odometry pose.
+   */
+  void recordOdometry(double timestampSeconds, Pose2d pose)
+  {
+    if (!running)
+    {
+      return;
+    }
+    enqueue(ByteBuffer.allocate(1 + 4 * Double.BYTES)
+                      .put(ODOMETRY)
+                      .putDouble(timestampSeconds)
+                      .putDouble(pose.getX())
+                      .putDouble(pose.getY())
+                      .putDouble(pose.getRotation().getRadians())
+                      .array());
+  }
+
+  /**
+   * Queue a serialized record for the writer thread.
+   *
+   * @param record Serialized record.
+   */
+  private void enqueue(byte[] record)
+  {
+    if (!queue.offer(record))
+    {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Body of the writer thread.
+   */
+  private void writeRecords()
+  {
+    try (DataOutputStream out = output)
+    {
+      while (running || !queue.isEmpty())
+      {
+        byte[] record = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (record != null)
+        {
+          out.write(record);
+        }
+      }
+    } catch (IOException e)
+    {
+      running = false;
+      DriverStation.reportError("Vision recording failed: " + e, e.getStackTrace());
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Number of records dropped because the writer fell behind.
+   *
+   * @return Dropped record count.
+   */
+  public long getDroppedRecords()
+  {
+    return dropped.get();
+  }
+
+  /**
+   * Stop accepting records, write everything queued and close the file.
+   */
+  @Override
+  public void close()
+  {
+    running = false;
+    try
+    {
+      writer.join();
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
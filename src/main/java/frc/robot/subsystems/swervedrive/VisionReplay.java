@@ -0,0 +1,138 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import frc.robot.subsystems.swervedrive.Vision.IngestionMode;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.photonvision.common.dataflow.structures.Packet;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * Replays a {@link VisionRecorder} file through {@link Vision#updatePoseEstimation(VisionMeasurementConsumer)} as fast
+ * as possible, for tuning standard deviations and gating against recorded matches on a desktop JVM.
+ *
+ * <p>The {@link Vision} instance must be created by {@link Vision#forReplay} with
+ * {@link VisionReplay#getOdometryPose()} as its current pose supplier so gating sees the recorded odometry:
+ * <pre>{@code
+ * VisionReplay replay = new VisionReplay(file);
+ * Vision       vision = Vision.forReplay(replay::getOdometryPose);
+ * replay.replay(vision, (pose, timestamp, stdDevX, stdDevY, stdDevTheta) -> { ... });
+ * }</pre>
+ *
+ * <p>{@link Vision#forReplay} starts no notifiers or threads, so no HAL simulation or Driver Station is needed. The
+ * {@link Cameras} still create their {@link org.photonvision.PhotonCamera}, NetworkTables subscriptions and, in
+ * simulation, their simulated cameras, so WPILib's desktop native libraries must be on the library path, as they are
+ * for {@code ./gradlew test}.
+ */
+public class VisionReplay
+{
+
+  /**
+   * Recording to replay.
+   */
+  private final Path   file;
+  /**
+   * Odometry pose of the fusion step being replayed.
+   */
+  private       Pose2d odometryPose      = new Pose2d();
+  /**
+   * Timestamp of the fusion step being replayed in seconds.
+   */
+  private       double odometryTimestamp = 0;
+
+  /**
+   * Construct the replay driver.
+   *
+   * @param file {@link VisionRecorder} file to replay.
+   */
+  public VisionReplay(Path file)
+  {
+    this.file = file;
+  }
+
+  /**
+   * Recorded odometry pose of the fusion step being replayed.
+   *
+   * @return Odometry pose.
+   */
+  public Pose2d getOdometryPose()
+  {
+    return odometryPose;
+  }
+
+  /**
+   * Recorded timestamp of the fusion step being replayed.
+   *
+   * @return Timestamp in seconds.
+   */
+  public double getOdometryTimestamp()
+  {
+    return odometryTimestamp;
+  }
+
+  /**
+   * Feed every recorded frame back through the cameras' pose estimators and run one fusion step per recorded odometry
+   * sample. Switches the {@link Vision} to {@link IngestionMode#SYNCHRONOUS} so the replay is deterministic.
+   *
+   * @param vision   {@link Vision} created by {@link Vision#forReplay} with {@link VisionReplay#getOdometryPose()}.
+   * @param consumer Destination of the fused measurements.
+   * @return Number of fusion steps replayed.
+   * @throws IOException If the file cannot be read or is not a vision recording.
+   */
+  public int replay(Vision vision, VisionMeasurementConsumer consumer) throws IOException
+  {
+    vision.setIngestionMode(IngestionMode.SYNCHRONOUS);
+    vision.setReplaying(true);
+    int steps = 0;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+    {
+      if (input.readInt() != VisionRecorder.MAGIC || input.readShort() != VisionRecorder.VERSION)
+      {
+        throw new IOException(file + " is not a supported vision recording");
+      }
+
+      for (int type = input.read(); type >= 0; type = input.read())
+      {
+        if (type == VisionRecorder.FRAME)
+        {
+          Cameras camera    = Cameras.values()[input.readByte()];
+          double  timestamp = input.readDouble();
+          byte[]  data      = new byte[input.readInt()];
+          input.readFully(data);
+
+          PhotonPipelineResult result = PhotonPipelineResult.photonStruct.unpack(new Packet(data));
+          // Restore the receive time so getTimestampSeconds() matches the recorded capture time.
+          long captureToPublish = result.metadata.getPublishTimestampMicros() -
+                                  result.metadata.getCaptureTimestampMicros();
+          result.setReceiveTimestampMicros(Math.round(timestamp * 1.0e6) + captureToPublish);
+          camera.addReplayResult(result);
+        } else if (type == VisionRecorder.ODOMETRY)
+        {
+          odometryTimestamp = input.readDouble();
+          double x       = input.readDouble();
+          double y       = input.readDouble();
+          double heading = input.readDouble();
+          odometryPose = new Pose2d(x, y, new Rotation2d(heading));
+          vision.updatePoseEstimation(consumer);
+          steps++;
+        } else
+        {
+          throw new IOException("Unknown vision recording record type " + type + " in " + file);
+        }
+      }
+    } catch (EOFException e)
+    {
+      // A recording cut off mid-record, for example by a power loss, is replayed up to the last complete record.
+    } finally
+    {
+      vision.setReplaying(false);
+    }
+    return steps;
+  }
+}
@@ -0,0 +1,102 @@
+package frc.robot.subsystems.swervedrive;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer used to hand vision observations from a camera ingestion
+ * thread to the main robot loop. Exactly one thread may call {@link VisionRingBuffer#offer(Object)} and exactly one
+ * thread may call {@link VisionRingBuffer#poll()} at a time. The producer role may move between threads if the handoff
+ * is ordered, for example by waiting on the previous producer's {@link java.util.concurrent.Future}.
+ *
+ * @param <T> Element type.
+ */
+final class VisionRingBuffer<T>
+{
+
+  /**
+   * Backing storage, length is always a power of two.
+   */
+  private final Object[]   buffer;
+  /**
+   * Mask used to wrap the sequence counters into {@link VisionRingBuffer#buffer}.
+   */
+  private final int        mask;
+  /**
+   * Sequence of the next slot to be written, only advanced by the producer.
+   */
+  private final AtomicLong head = new AtomicLong();
+  /**
+   * Sequence of the next slot to be read, only advanced by the consumer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Construct the ring buffer.
+   *
+   * @param capacity Minimum number of elements the buffer can hold, rounded up to the next power of two.
+   */
+  VisionRingBuffer(int capacity)
+  {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    buffer = new Object[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Publish an element to the consumer. Must only be called from the producer thread.
+   *
+   * @param value Element to publish.
+   * @return False if the buffer is full and the element was dropped.
+   */
+  boolean offer(T value)
+  {
+    long currentHead = head.get();
+    if (currentHead - tail.get() >= buffer.length)
+    {
+      return false;
+    }
+    buffer[(int) (currentHead & mask)] = value;
+    head.lazySet(currentHead + 1);
+    return true;
+  }
+
+  /**
+   * Take the oldest published element. Must only be called from the consumer thread.
+   *
+   * @return Oldest element, or null if the buffer is empty.
+   */
+  @SuppressWarnings("unchecked")
+  T poll()
+  {
+    long currentTail = tail.get();
+    if (currentTail >= head.get())
+    {
+      return null;
+    }
+    int index = (int) (currentTail & mask);
+    T   value = (T) buffer[index];
+    buffer[index] = null;
+    tail.lazySet(currentTail + 1);
+    return value;
+  }
+
+  /**
+   * Number of elements currently waiting to be consumed.
+   *
+   * @return Element count, may be stale by the time it is returned.
+   */
+  int size()
+  {
+    return (int) (head.get() - tail.get());
+  }
+
+  /**
+   * Maximum number of elements the buffer can hold.
+   *
+   * @return Capacity.
+   */
+  int capacity()
+  {
+    return buffer.length;
+  }
+}
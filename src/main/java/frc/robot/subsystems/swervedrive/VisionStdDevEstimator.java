@@ -0,0 +1,126 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.List;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Allocation-free heuristic which creates dynamic standard deviations based on number of tags and distance from the
+ * tags. Results are written into a preallocated buffer owned by the estimator, one estimator is used per camera.
+ */
+final class VisionStdDevEstimator
+{
+
+  /**
+   * Index of the X standard deviation.
+   */
+  static final  int      X     = 0;
+  /**
+   * Index of the Y standard deviation.
+   */
+  static final  int      Y     = 1;
+  /**
+   * Index of the heading standard deviation.
+   */
+  static final  int      THETA = 2;
+  /**
+   * Standard deviations for single tag readings.
+   */
+  private final double[] singleTagStdDevs = new double[3];
+  /**
+   * Standard deviations for multi-tag readings.
+   */
+  private final double[] multiTagStdDevs  = new double[3];
+  /**
+   * Standard deviations computed by the last update.
+   */
+  private final double[] current          = new double[3];
+
+  /**
+   * Construct the estimator.
+   *
+   * @param singleTagStdDevs Single AprilTag standard deviations.
+   * @param multiTagStdDevs  Multi AprilTag standard deviations.
+   */
+  VisionStdDevEstimator(Matrix<N3, N1> singleTagStdDevs, Matrix<N3, N1> multiTagStdDevs)
+  {
+    for (int i = 0; i < 3; i++)
+    {
+      this.singleTagStdDevs[i] = singleTagStdDevs.get(i, 0);
+      this.multiTagStdDevs[i] = multiTagStdDevs.get(i, 0);
+    }
+    reset();
+  }
+
+  /**
+   * No pose input, default to single-tag standard deviations.
+   */
+  void reset()
+  {
+    System.arraycopy(singleTagStdDevs, 0, current, 0, 3);
+  }
+
+  /**
+   * Calculate new standard deviations for an estimated pose.
+   *
+   * @param robotX   Estimated robot field X in meters.
+   * @param robotY   Estimated robot field Y in meters.
+   * @param targets  All targets in the camera frame.
+   * @param tagTable Tag poses to measure distances against.
+   */
+  void update(double robotX, double robotY, List<PhotonTrackedTarget> targets, AprilTagTable tagTable)
+  {
+    int    numTags = 0;
+    double avgDist = 0;
+
+    // Precalculation - see how many tags we found, and calculate an average-distance metric
+    for (int i = 0; i < targets.size(); i++)
+    {
+      int id = targets.get(i).getFiducialId();
+      if (!tagTable.hasTag(id))
+      {
+        continue;
+      }
+      numTags++;
+      avgDist += tagTable.getDistance(id, robotX, robotY);
+    }
+
+    if (numTags == 0)
+    {
+      // No tags visible. Default to single-tag std devs
+      reset();
+      return;
+    }
+
+    // One or more tags visible, run the full heuristic.
+    avgDist /= numTags;
+    if (numTags == 1 && avgDist > 4)
+    {
+      current[X] = Double.MAX_VALUE;
+      current[Y] = Double.MAX_VALUE;
+      current[THETA] = Double.MAX_VALUE;
+      return;
+    }
+    // Decrease std devs if multiple targets are visible, increase std devs based on (average) distance
+    double[] base  = numTags > 1 ? multiTagStdDevs : singleTagStdDevs;
+    double   scale = 1 + (avgDist * avgDist / 30);
+    for (int i = 0; i < 3; i++)
+    {
+      current[i] = base[i] * scale;
+    }
+  }
+
+  /**
+   * Get a standard deviation computed by the last update.
+   *
+   * @param index {@link VisionStdDevEstimator#X}, {@link VisionStdDevEstimator#Y} or
+   *              {@link VisionStdDevEstimator#THETA}.
+   * @return Standard deviation.
+   */
+  double get(int index)
+  {
+    return current[index];
+  }
+}
@@ -0,0 +1,334 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.Alert;
+import edu.wpi.first.wpilibj.DataLogManager;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * Per-camera latency and staleness instrumentation. Tracks capture-to-ingest latency, ingest-to-fusion latency, frames
+ * per second, dropped frames and {@link org.photonvision.PhotonPoseEstimator} time, publishes rolling p50/p95/p99 to
+ * NetworkTables and the DataLog, and raises the camera's latency {@link Alert} when thresholds are exceeded.
+ *
+ * <p>Frame and estimator samples are recorded by the thread which ingests the camera, fusion samples and publishing
+ * happen on the main robot loop.
+ */
+final class VisionTelemetry
+{
+
+  /**
+   * Percentiles published for every latency metric.
+   */
+  private static final double[] PERCENTILES       = {0.50, 0.95, 0.99};
+  /**
+   * Topic suffixes matching {@link VisionTelemetry#PERCENTILES}.
+   */
+  private static final String[] PERCENTILE_NAMES  = {"p50", "p95", "p99"};
+  /**
+   * Index of the capture-to-ingest metric.
+   */
+  private static final int      CAPTURE_TO_INGEST = 0;
+  /**
+   * Index of the ingest-to-fusion metric.
+   */
+  private static final int      INGEST_TO_FUSION  = 1;
+  /**
+   * Index of the estimator time metric.
+   */
+  private static final int      ESTIMATOR_TIME    = 2;
+  /**
+   * Names of the latency metrics.
+   */
+  private static final String[] METRIC_NAMES      = {"CaptureToIngestMs", "IngestToFusionMs", "EstimatorMs"};
+  /**
+   * Number of samples kept per metric.
+   */
+  private static final int      WINDOW            = 128;
+  /**
+   * Minimum time between publishes in seconds.
+   */
+  private static final double   PUBLISH_PERIOD    = 0.2;
+
+  /**
+   * Name of the camera, used as the NetworkTables sub-table and DataLog prefix.
+   */
+  private final    String               name;
+  /**
+   * Alert raised when latency exceeds the thresholds.
+   */
+  private final    Alert                latencyAlert;
+  /**
+   * Rolling windows for each latency metric, in milliseconds.
+   */
+  private final    RollingPercentiles[] metrics                   = new RollingPercentiles[METRIC_NAMES.length];
+  /**
+   * Scratch output for percentile computations.
+   */
+  private final    double[]             percentiles               = new double[PERCENTILES.length];
+  /**
+   * NetworkTables publishers indexed by [metric][percentile].
+   */
+  private final    DoublePublisher[][]  metricPublishers;
+  /**
+   * Frames per second publisher.
+   */
+  private final    DoublePublisher      fpsPublisher;
+  /**
+   * Dropped frames publisher.
+   */
+  private final    DoublePublisher      droppedPublisher;
+  /**
+   * Milliseconds since the last frame publisher.
+   */
+  private final    DoublePublisher      stalenessPublisher;
+  /**
+   * DataLog entries indexed by [metric][percentile], created on first publish.
+   */
+  private          DoubleLogEntry[][]   metricEntries;
+  /**
+   * DataLog frames per second entry.
+   */
+  private          DoubleLogEntry       fpsEntry;
+  /**
+   * DataLog dropped frames entry.
+   */
+  private          DoubleLogEntry       droppedEntry;
+  /**
+   * DataLog staleness entry.
+   */
+  private          DoubleLogEntry       stalenessEntry;
+  /**
+   * Whether to also write the metrics to the DataLog.
+   */
+  private          boolean              logToDataLog              = true;
+  /**
+   * p95 capture-to-ingest latency above which the latency alert is raised, in milliseconds.
+   */
+  private          double               captureLatencyThresholdMs = 100;
+  /**
+   * p95 ingest-to-fusion latency above which the latency alert is raised, in milliseconds.
+   */
+  private          double               fusionLatencyThresholdMs  = 40;
+  /**
+   * Time without a frame above which the latency alert is raised, in milliseconds.
+   */
+  private          double               stalenessThresholdMs      = 500;
+  /**
+   * Total frames ingested, written only by the ingesting thread.
+   */
+  private volatile long                 frames                    = 0;
+  /**
+   * Total frames dropped, written only by the ingesting thread.
+   */
+  private volatile long                 dropped                   = 0;
+  /**
+   * Time the last frame was ingested in seconds, written only by the ingesting thread.
+   */
+  private volatile double               lastFrameTime             = Double.NaN;
+  /**
+   * Sequence ID of the last ingested frame, used to count frames lost before they reached the robot.
+   */
+  private          long                 lastSequenceId            = -1;
+  /**
+   * Frame count at the last publish.
+   */
+  private          long                 lastPublishFrames         = 0;
+  /**
+   * Time of the last publish in seconds.
+   */
+  private          double               lastPublishTime           = Double.NaN;
+
+  /**
+   * Construct the telemetry for a camera.
+   *
+   * @param name         Camera name.
+   * @param latencyAlert Alert to raise when latency exceeds the thresholds.
+   */
+  VisionTelemetry(String name, Alert latencyAlert)
+  {
+    this.name = name;
+    this.latencyAlert = latencyAlert;
+    NetworkTable table = NetworkTableInstance.getDefault().getTable("Vision").getSubTable(name);
+    metricPublishers = new DoublePublisher[METRIC_NAMES.length][PERCENTILES.length];
+    for (int m = 0; m < METRIC_NAMES.length; m++)
+    {
+      metrics[m] = new RollingPercentiles(WINDOW);
+      for (int p = 0; p < PERCENTILES.length; p++)
+      {
+        metricPublishers[m][p] = table.getDoubleTopic(METRIC_NAMES[m] + "/" + PERCENTILE_NAMES[p]).publish();
+      }
+    }
+    fpsPublisher = table.getDoubleTopic("FPS").publish();
+    droppedPublisher = table.getDoubleTopic("DroppedFrames").publish();
+    stalenessPublisher = table.getDoubleTopic("StalenessMs").publish();
+  }
+
+  /**
+   * Current time in the NetworkTables timebase, which matches {@link PhotonPipelineResult#getTimestampSeconds()}.
+   *
+   * @return Time in seconds.
+   */
+  static double now()
+  {
+    return NetworkTablesJNI.now() * 1.0e-6;
+  }
+
+  /**
+   * Record a frame read from the camera. Called by the ingesting thread.
+   *
+   * @param result     Frame read from the camera.
+   * @param ingestTime Time the frame was read in seconds.
+   */
+  void recordFrame(PhotonPipelineResult result, double ingestTime)
+  {
+    long sequenceId = result.metadata.getSequenceID();
+    if (lastSequenceId >= 0 && sequenceId > lastSequenceId + 1)
+    {
+      dropped += sequenceId - lastSequenceId - 1;
+    }
+    lastSequenceId = Math.max(lastSequenceId, sequenceId);
+    frames++;
+    lastFrameTime = ingestTime;
+    metrics[CAPTURE_TO_INGEST].add((ingestTime - result.getTimestampSeconds()) * 1000.0);
+  }
+
+  /**
+   * Record frames discarded on the robot before being fused. Called by the ingesting thread.
+   *
+   * @param count Number of frames discarded.
+   */
+  void recordDropped(int count)
+  {
+    dropped += count;
+  }
+
+  /**
+   * Record the time taken by one {@link org.photonvision.PhotonPoseEstimator#update} call. Called by the ingesting
+   * thread.
+   *
+   * @param nanos Duration in nanoseconds.
+   */
+  void recordEstimatorTime(long nanos)
+  {
+    metrics[ESTIMATOR_TIME].add(nanos * 1.0e-6);
+  }
+
+  /**
+   * Record an observation reaching the fusion stage. Called by the main robot loop.
+   *
+   * @param ingestTime Time the observation was produced in seconds.
+   * @param fusionTime Time the observation was fused in seconds.
+   */
+  void recordFusion(double ingestTime, double fusionTime)
+  {
+    metrics[INGEST_TO_FUSION].add((fusionTime - ingestTime) * 1000.0);
+  }
+
+  /**
+   * Publish the metrics and update the latency alert, at most once every {@link VisionTelemetry#PUBLISH_PERIOD}.
+   * Called by the main robot loop.
+   *
+   * @param now Current time in seconds.
+   */
+  void publish(double now)
+  {
+    if (!Double.isNaN(lastPublishTime) && now - lastPublishTime < PUBLISH_PERIOD)
+    {
+      return;
+    }
+    if (logToDataLog && metricEntries == null)
+    {
+      createLogEntries();
+    }
+
+    boolean highLatency = false;
+    for (int m = 0; m < METRIC_NAMES.length; m++)
+    {
+      if (!metrics[m].compute(PERCENTILES, percentiles))
+      {
+        continue;
+      }
+      for (int p = 0; p < PERCENTILES.length; p++)
+      {
+        metricPublishers[m][p].set(percentiles[p]);
+        if (logToDataLog)
+        {
+          metricEntries[m][p].append(percentiles[p]);
+        }
+      }
+      // Index 1 is the p95
+      highLatency |= (m == CAPTURE_TO_INGEST && percentiles[1] > captureLatencyThresholdMs) ||
+                     (m == INGEST_TO_FUSION && percentiles[1] > fusionLatencyThresholdMs);
+    }
+
+    long   currentFrames = frames;
+    double fps           = Double.isNaN(lastPublishTime) ? 0 : (currentFrames - lastPublishFrames) /
+                                                                (now - lastPublishTime);
+    double frameTime     = lastFrameTime;
+    double stalenessMs   = Double.isNaN(frameTime) ? Double.POSITIVE_INFINITY : (now - frameTime) * 1000.0;
+    fpsPublisher.set(fps);
+    droppedPublisher.set(dropped);
+    stalenessPublisher.set(stalenessMs);
+    if (logToDataLog)
+    {
+      fpsEntry.append(fps);
+      droppedEntry.append(dropped);
+      stalenessEntry.append(stalenessMs);
+    }
+    // Only treat missing frames as a latency problem once the camera has delivered at least one.
+    highLatency |= !Double.isNaN(frameTime) && stalenessMs > stalenessThresholdMs;
+    latencyAlert.set(highLatency);
+
+    lastPublishFrames = currentFrames;
+    lastPublishTime = now;
+  }
+
+  /**
+   * Create the DataLog entries, deferred until the first publish so the DataLog is only started when used.
+   */
+  private void createLogEntries()
+  {
+    DataLog log    = DataLogManager.getLog();
+    String  prefix = "Vision/" + name + "/";
+    metricEntries = new DoubleLogEntry[METRIC_NAMES.length][PERCENTILES.length];
+    for (int m = 0; m < METRIC_NAMES.length; m++)
+    {
+      for (int p = 0; p < PERCENTILES.length; p++)
+      {
+        metricEntries[m][p] = new DoubleLogEntry(log, prefix + METRIC_NAMES[m] + "/" + PERCENTILE_NAMES[p]);
+      }
+    }
+    fpsEntry = new DoubleLogEntry(log, prefix + "FPS");
+    droppedEntry = new DoubleLogEntry(log, prefix + "DroppedFrames");
+    stalenessEntry = new DoubleLogEntry(log, prefix + "StalenessMs");
+  }
+
+  /**
+   * Set the thresholds which raise the latency alert.
+   *
+   * @param captureLatencyMs p95 capture-to-ingest latency in milliseconds.
+   * @param fusionLatencyMs  p95 ingest-to-fusion latency in milliseconds.
+   * @param stalenessMs      Time without a frame in milliseconds.
+   */
+  void setLatencyThresholds(double captureLatencyMs, double fusionLatencyMs, double stalenessMs)
+  {
+    captureLatencyThresholdMs = captureLatencyMs;
+    fusionLatencyThresholdMs = fusionLatencyMs;
+    stalenessThresholdMs = stalenessMs;
+  }
+
+  /**
+   * Enable or disable writing the metrics to the DataLog.
+   *
+   * @param enabled True to write to the DataLog.
+   */
+  void setLogToDataLog(boolean enabled)
+  {
+    logToDataLog = enabled;
+  }
+}
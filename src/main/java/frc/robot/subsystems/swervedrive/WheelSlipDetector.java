@@ -0,0 +1,495 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Checks every odometry sample for wheel slip and collisions, and filters the module deltas before they reach the pose
+ * estimator. Module velocities are compared against the rigid-body motion implied by the gyro yaw rate and the module
+ * locations: a module which disagrees with the motion fitted to the other modules is slipping, and an acceleration
+ * spike or too few agreeing modules is a collision.
+ *
+ * <p>Velocities are compared rather than position deltas because drive encoder positions refresh slower than the
+ * odometry thread runs, so a single sample mixes modules which have moved with modules which have not. The yaw rate is
+ * measured over {@link WheelSlipDetector#rateWindow} for the same reason.
+ *
+ * <p>The delta of a slipping module is replaced by the delta the fitted motion gives at that module, or blended with it
+ * when {@link WheelSlipDetector#setSlipWeight(double)} keeps part of it.
+ * {@link WheelSlipDetector#getCorrectedPositions()} accumulates the filtered deltas into module positions to feed a
+ * pose estimator in place of the measured ones, and {@link WheelSlipDetector#getCorrectedDx()} and
+ * {@link WheelSlipDetector#getCorrectedDy()} give the robot-relative translation they produce. A collision leaves every
+ * delta as measured, since no subset of modules can be trusted more than all of them. Only the thread which updates
+ * odometry may use the detector.
+ */
+public class WheelSlipDetector
+{
+
+  /**
+   * Module X locations relative to the robot center in meters.
+   */
+  private final double[]               moduleX;
+  /**
+   * Module Y locations relative to the robot center in meters.
+   */
+  private final double[]               moduleY;
+  /**
+   * Measured module drive distances from the previous sample in meters.
+   */
+  private final double[]               previousDistance;
+  /**
+   * Measured drive distance of each module this sample in meters.
+   */
+  private final double[]               distanceDelta;
+  /**
+   * Robot-relative X displacement of each module this sample in meters, filtered once the sample is checked.
+   */
+  private final double[]               deltaX;
+  /**
+   * Robot-relative Y displacement of each module this sample in meters, filtered once the sample is checked.
+   */
+  private final double[]               deltaY;
+  /**
+   * Robot-relative X velocity of each module in meters per second.
+   */
+  private final double[]               velocityX;
+  /**
+   * Robot-relative Y velocity of each module in meters per second.
+   */
+  private final double[]               velocityY;
+  /**
+   * Whether each module agrees with the fitted rigid-body motion.
+   */
+  private final boolean[]              inlier;
+  /**
+   * Whether each module was flagged as slipping by the last sample.
+   */
+  private final boolean[]              slipping;
+  /**
+   * Module positions accumulated from the filtered deltas, reused every sample.
+   */
+  private final SwerveModulePosition[] correctedPositions;
+  /**
+   * Whether {@link WheelSlipDetector#correctedPositions} has been initialized from measured positions.
+   */
+  private       boolean                initialized     = false;
+  /**
+   * Gyro yaw from the previous sample in radians.
+   */
+  private       double                 previousYaw     = 0;
+  /**
+   * Timestamp of the previous sample in seconds.
+   */
+  private       double                 previousTime    = Double.NaN;
+  /**
+   * Window over which the gyro yaw rate is measured, in seconds.
+   */
+  private       double                 rateWindow      = 0.02;
+  /**
+   * Gyro yaw at the start of the yaw rate window in radians.
+   */
+  private       double                 rateYaw         = 0;
+  /**
+   * Timestamp of the start of the yaw rate window in seconds.
+   */
+  private       double                 rateTime        = Double.NaN;
+  /**
+   * Gyro yaw rate measured over the last complete window in radians per second.
+   */
+  private       double                 yawRate         = 0;
+  /**
+   * Velocity error from the rigid-body fit above which a module is slipping, in meters per second.
+   */
+  private       double                 slipVelocity    = 0.5;
+  /**
+   * Horizontal acceleration above which the robot is considered to have collided, in meters per second squared.
+   */
+  private       double                 collisionAccel  = 20.0;
+  /**
+   * Fraction of a slipping module's own delta kept, 0 to drop it and use the fitted motion only.
+   */
+  private       double                 slipWeight      = 0;
+  /**
+   * Whether the last sample was a collision.
+   */
+  private       boolean                collision       = false;
+  /**
+   * Robot-relative X velocity fitted to the agreeing modules in meters per second.
+   */
+  private       double                 fittedVx        = 0;
+  /**
+   * Robot-relative Y velocity fitted to the agreeing modules in meters per second.
+   */
+  private       double                 fittedVy        = 0;
+  /**
+   * Robot-relative X displacement of the filtered deltas of the last sample in meters.
+   */
+  private       double                 correctedDx     = 0;
+  /**
+   * Robot-relative Y displacement of the filtered deltas of the last sample in meters.
+   */
+  private       double                 correctedDy     = 0;
+  /**
+   * Gyro yaw change of the last sample in radians.
+   */
+  private       double                 correctedDTheta = 0;
+  /**
+   * Samples with at least one slipping module.
+   */
+  private       long                   slipCount       = 0;
+  /**
+   * Samples flagged as collisions.
+   */
+  private       long                   collisionCount  = 0;
+
+  /**
+   * Construct the detector.
+   *
+   * @param moduleLocations Module locations relative to the robot center, in the order module positions are given.
+   */
+  public WheelSlipDetector(Translation2d[] moduleLocations)
+  {
+    int modules = moduleLocations.length;
+    moduleX = new double[modules];
+    moduleY = new double[modules];
+    previousDistance = new double[modules];
+    distanceDelta = new double[modules];
+    deltaX = new double[modules];
+    deltaY = new double[modules];
+    velocityX = new double[modules];
+    velocityY = new double[modules];
+    inlier = new boolean[modules];
+    slipping = new boolean[modules];
+    correctedPositions = new SwerveModulePosition[modules];
+    for (int i = 0; i < modules; i++)
+    {
+      moduleX[i] = moduleLocations[i].getX();
+      moduleY[i] = moduleLocations[i].getY();
+      correctedPositions[i] = new SwerveModulePosition();
+    }
+  }
+
+  /**
+   * Start the corrected positions over from the measured ones, called whenever the pose estimator fed with
+   * {@link WheelSlipDetector#getCorrectedPositions()} is reset with measured positions.
+   *
+   * @param positions Measured module positions the estimator was reset with.
+   */
+  public void resetPositions(SwerveModulePosition[] positions)
+  {
+    for (int i = 0; i < positions.length; i++)
+    {
+      previousDistance[i] = positions[i].distanceMeters;
+      correctedPositions[i].distanceMeters = positions[i].distanceMeters;
+      correctedPositions[i].angle = positions[i].angle;
+    }
+    initialized = true;
+  }
+
+  /**
+   * Check an odometry sample and filter its module deltas.
+   *
+   * @param positions Measured module positions.
+   * @param states    Measured module states, for their velocities.
+   * @param yaw       Gyro yaw in radians.
+   * @param accelXY   Horizontal acceleration magnitude from the IMU in meters per second squared, 0 if unavailable.
+   * @param timestamp Time of the sample in seconds.
+   * @return True if a slipping module delta was replaced, so the corrected positions differ from the measured ones.
+   */
+  public boolean update(SwerveModulePosition[] positions, SwerveModuleState[] states, double yaw, double accelXY,
+                        double timestamp)
+  {
+    if (!initialized)
+    {
+      resetPositions(positions);
+    }
+    double dt = timestamp - previousTime;
+    for (int i = 0; i < positions.length; i++)
+    {
+      distanceDelta[i] = positions[i].distanceMeters - previousDistance[i];
+      deltaX[i] = distanceDelta[i] * positions[i].angle.getCos();
+      deltaY[i] = distanceDelta[i] * positions[i].angle.getSin();
+      velocityX[i] = states[i].speedMetersPerSecond * states[i].angle.getCos();
+      velocityY[i] = states[i].speedMetersPerSecond * states[i].angle.getSin();
+      previousDistance[i] = positions[i].distanceMeters;
+      inlier[i] = true;
+      slipping[i] = false;
+    }
+    correctedDTheta = Double.isNaN(previousTime) ? 0 : MathUtil.angleModulus(yaw - previousYaw);
+    previousYaw = yaw;
+    previousTime = timestamp;
+    updateYawRate(yaw, timestamp);
+    collision = false;
+
+    boolean corrected = false;
+    if (dt > 0)
+    {
+      int inliers = rejectSlippingModules();
+      // With half the modules or fewer agreeing, or a hard hit, no module subset can be trusted.
+      collision = accelXY > collisionAccel || inliers * 2 <= positions.length;
+      if (collision)
+      {
+        collisionCount++;
+      } else if (inliers < positions.length)
+      {
+        slipCount++;
+        replaceSlippingDeltas(dt);
+        corrected = true;
+      }
+    }
+    accumulate(positions);
+    return corrected;
+  }
+
+  /**
+   * Measure the gyro yaw rate once a full {@link WheelSlipDetector#rateWindow} has passed, so samples where the gyro
+   * has not refreshed do not read as a stopped robot.
+   *
+   * @param yaw       Gyro yaw in radians.
+   * @param timestamp Time of the sample in seconds.
+   */
+  private void updateYawRate(double yaw, double timestamp)
+  {
+    if (Double.isNaN(rateTime))
+    {
+      rateYaw = yaw;
+      rateTime = timestamp;
+      return;
+    }
+    double elapsed = timestamp - rateTime;
+    if (elapsed >= rateWindow)
+    {
+      yawRate = MathUtil.angleModulus(yaw - rateYaw) / elapsed;
+      rateYaw = yaw;
+      rateTime = timestamp;
+    }
+  }
+
+  /**
+   * Refit the robot velocity without the worst module until every remaining module agrees, keeping at least two.
+   *
+   * @return Number of agreeing modules.
+   */
+  private int rejectSlippingModules()
+  {
+    int inliers = inlier.length;
+    while (true)
+    {
+      fitInliers();
+      int    worst      = -1;
+      double worstError = slipVelocity;
+      for (int i = 0; i < inlier.length; i++)
+      {
+        if (inlier[i])
+        {
+          double error = Math.hypot(velocityX[i] - (fittedVx - yawRate * moduleY[i]),
+                                    velocityY[i] - (fittedVy + yawRate * moduleX[i]));
+          if (error > worstError)
+          {
+            worst = i;
+            worstError = error;
+          }
+        }
+      }
+      if (worst < 0 || inliers <= 2)
+      {
+        return inliers;
+      }
+      inlier[worst] = false;
+      slipping[worst] = true;
+      inliers--;
+    }
+  }
+
+  /**
+   * Least-squares fit of the robot velocity to the inlier modules, given the gyro yaw rate.
+   */
+  private void fitInliers()
+  {
+    double sumX  = 0;
+    double sumY  = 0;
+    int    count = 0;
+    for (int i = 0; i < inlier.length; i++)
+    {
+      if (inlier[i])
+      {
+        // A module at (x, y) moves with the robot velocity plus the rotation (-omega * y, omega * x).
+        sumX += velocityX[i] + yawRate * moduleY[i];
+        sumY += velocityY[i] - yawRate * moduleX[i];
+        count++;
+      }
+    }
+    fittedVx = sumX / count;
+    fittedVy = sumY / count;
+  }
+
+  /**
+   * Replace the delta of every slipping module with the delta of the fitted motion at that module, keeping
+   * {@link WheelSlipDetector#slipWeight} of its own.
+   *
+   * @param dt Time since the previous sample in seconds.
+   */
+  private void replaceSlippingDeltas(double dt)
+  {
+    for (int i = 0; i < inlier.length; i++)
+    {
+      if (slipping[i])
+      {
+        double fittedDx = fittedVx * dt - correctedDTheta * moduleY[i];
+        double fittedDy = fittedVy * dt + correctedDTheta * moduleX[i];
+        deltaX[i] = slipWeight * deltaX[i] + (1 - slipWeight) * fittedDx;
+        deltaY[i] = slipWeight * deltaY[i] + (1 - slipWeight) * fittedDy;
+      }
+    }
+  }
+
+  /**
+   * Accumulate the filtered deltas into the corrected positions and the corrected robot translation.
+   *
+   * @param positions Measured module positions, whose angles are kept for modules which were not replaced.
+   */
+  private void accumulate(SwerveModulePosition[] positions)
+  {
+    double sumX = 0;
+    double sumY = 0;
+    for (int i = 0; i < positions.length; i++)
+    {
+      SwerveModulePosition corrected = correctedPositions[i];
+      if (slipping[i] && !collision)
+      {
+        double distance = Math.hypot(deltaX[i], deltaY[i]);
+        corrected.distanceMeters += distance;
+        if (distance > 1e-9)
+        {
+          corrected.angle = new Rotation2d(deltaX[i], deltaY[i]);
+        }
+      } else
+      {
+        corrected.distanceMeters += distanceDelta[i];
+        corrected.angle = positions[i].angle;
+      }
+      sumX += deltaX[i] + correctedDTheta * moduleY[i];
+      sumY += deltaY[i] - correctedDTheta * moduleX[i];
+    }
+    correctedDx = sumX / positions.length;
+    correctedDy = sumY / positions.length;
+  }
+
+  /**
+   * Module positions accumulated from the filtered deltas. Feed these to the pose estimator in place of the measured
+   * positions, the array and its elements are reused by the next sample.
+   *
+   * @return Corrected module positions.
+   */
+  public SwerveModulePosition[] getCorrectedPositions()
+  {
+    return correctedPositions;
+  }
+
+  /**
+   * Robot-relative X displacement of the filtered deltas of the last sample.
+   *
+   * @return Displacement in meters.
+   */
+  public double getCorrectedDx()
+  {
+    return correctedDx;
+  }
+
+  /**
+   * Robot-relative Y displacement of the filtered deltas of the last sample.
+   *
+   * @return Displacement in meters.
+   */
+  public double getCorrectedDy()
+  {
+    return correctedDy;
+  }
+
+  /**
+   * Gyro yaw change of the last sample.
+   *
+   * @return Yaw change in radians.
+   */
+  public double getCorrectedDTheta()
+  {
+    return correctedDTheta;
+  }
+
+  /**
+   * Whether the last sample was flagged as a collision rather than wheel slip.
+   *
+   * @return True for a collision.
+   */
+  public boolean isCollision()
+  {
+    return collision;
+  }
+
+  /**
+   * Whether a module was slipping in the last sample.
+   *
+   * @param module Module index.
+   * @return True if the module disagreed with the others.
+   */
+  public boolean isSlipping(int module)
+  {
+    return slipping[module];
+  }
+
+  /**
+   * Number of samples with at least one slipping module.
+   *
+   * @return Slip count.
+   */
+  public long getSlipCount()
+  {
+    return slipCount;
+  }
+
+  /**
+   * Number of samples flagged as collisions.
+   *
+   * @return Collision count.
+   */
+  public long getCollisionCount()
+  {
+    return collisionCount;
+  }
+
+  /**
+   * Set the thresholds for flagging samples.
+   *
+   * @param slipVelocityMps     Velocity error from the rigid-body fit above which a module is slipping, in meters per
+   *                            second.
+   * @param collisionAccelMpsSq Horizontal acceleration above which the robot has collided, in meters per second
+   *                            squared.
+   */
+  public void setThresholds(double slipVelocityMps, double collisionAccelMpsSq)
+  {
+    slipVelocity = slipVelocityMps;
+    collisionAccel = collisionAccelMpsSq;
+  }
+
+  /**
+   * Set how much of a slipping module's own delta is kept.
+   *
+   * @param weight 0 to drop the delta and use the fitted motion, up to 1 to keep the delta as measured.
+   */
+  public void setSlipWeight(double weight)
+  {
+    slipWeight = MathUtil.clamp(weight, 0, 1);
+  }
+
+  /**
+   * Set the window over which the gyro yaw rate is measured, at least the gyro and drive encoder refresh period.
+   *
+   * @param seconds Window in seconds.
+   */
+  public void setRateWindow(double seconds)
+  {
+    rateWindow = seconds;
+  }
+}
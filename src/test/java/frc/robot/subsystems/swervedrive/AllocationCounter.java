@@ -0,0 +1,57 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap allocated by the current thread, for tests asserting that a loop hot path does not allocate.
+ */
+final class AllocationCounter
+{
+
+  /**
+   * Iterations run before measuring, so the hot path is compiled as it would be on the robot.
+   */
+  private static final int WARMUP_ITERATIONS   = 20_000;
+  /**
+   * Iterations measured.
+   */
+  private static final int MEASURED_ITERATIONS = 10_000;
+
+  /**
+   * Utility class.
+   */
+  private AllocationCounter()
+  {
+  }
+
+  /**
+   * Run a hot path until it is compiled, then count the bytes it allocates over many iterations. Skips the calling
+   * test if the JVM cannot count allocations per thread.
+   *
+   * @param hotPath Code to measure.
+   * @return Bytes allocated per iteration, rounded down.
+   */
+  static long bytesPerIteration(Runnable hotPath)
+  {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+    {
+      hotPath.run();
+    }
+    long threadId = Thread.currentThread().getId();
+    long before   = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_ITERATIONS; i++)
+    {
+      hotPath.run();
+    }
+    long after = threads.getThreadAllocatedBytes(threadId);
+    return (after - before) / MEASURED_ITERATIONS;
+  }
+}
@@ -0,0 +1,195 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.PhotonPoseEstimator.PoseStrategy;
+import org.photonvision.estimation.TargetModel;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Checks the pose {@link MultiCameraPoseSolver} recovers from tag corners projected through two cameras from a known
+ * robot pose.
+ */
+class MultiCameraPoseSolverTest
+{
+
+  /**
+   * Focal length of the synthetic cameras in pixels.
+   */
+  private static final double FOCAL_LENGTH = 900;
+  /**
+   * Principal point X of the synthetic cameras in pixels.
+   */
+  private static final double CENTER_X     = 640;
+  /**
+   * Principal point Y of the synthetic cameras in pixels.
+   */
+  private static final double CENTER_Y     = 400;
+  /**
+   * Distance of each tag in front of its camera in meters.
+   */
+  private static final double TAG_DISTANCE = 2.5;
+
+  /**
+   * Field pose of a camera on the robot.
+   *
+   * @param robotPose Robot pose.
+   * @param camera    Camera.
+   * @return Camera pose on the field.
+   */
+  private static Pose3d cameraPose(Pose2d robotPose, Cameras camera)
+  {
+    return new Pose3d(robotPose).transformBy(camera.robotToCamTransform);
+  }
+
+  /**
+   * Place a tag facing a camera, on its optical axis.
+   *
+   * @param id        Tag ID.
+   * @param robotPose Robot pose the camera sees the tag from.
+   * @param camera    Camera which sees the tag.
+   * @return Tag facing the camera.
+   */
+  private static AprilTag tagInFrontOf(int id, Pose2d robotPose, Cameras camera)
+  {
+    return new AprilTag(id, cameraPose(robotPose, camera).transformBy(
+        new Transform3d(new Translation3d(TAG_DISTANCE, 0, 0), new Rotation3d(0, 0, Math.PI))));
+  }
+
+  /**
+   * Project the corners of a tag through a pinhole camera, in the order PhotonVision reports detected corners.
+   *
+   * @param tag       Tag to project.
+   * @param robotPose Robot pose when the frame was captured.
+   * @param camera    Camera which captured the frame.
+   * @return Target with the projected corners.
+   */
+  private static PhotonTrackedTarget project(AprilTag tag, Pose2d robotPose, Cameras camera)
+  {
+    Pose3d             cameraPose = cameraPose(robotPose, camera);
+    List<TargetCorner> corners    = new ArrayList<>();
+    for (Translation3d vertex : TargetModel.kAprilTag36h11.getFieldVertices(tag.pose))
+    {
+      // Camera frame is X forward, Y left, Z up, image X grows right and image Y grows down.
+      Translation3d point = new Pose3d(vertex, new Rotation3d()).relativeTo(cameraPose).getTranslation();
+      corners.add(new TargetCorner(CENTER_X - FOCAL_LENGTH * point.getY() / point.getX(),
+                                   CENTER_Y - FOCAL_LENGTH * point.getZ() / point.getX()));
+    }
+    return new PhotonTrackedTarget(0, 0, 1, 0, tag.ID, -1, -1, new Transform3d(), new Transform3d(), 0.1, corners,
+                                   corners);
+  }
+
+  /**
+   * Create a single-tag observation whose own estimate is off by several centimeters, as a seed for the solve.
+   *
+   * @param camera    Camera which captured the frame.
+   * @param target    Target seen in the frame.
+   * @param robotPose Robot pose when the frame was captured.
+   * @param timestamp Capture time in seconds.
+   * @return Observation.
+   */
+  private static VisionObservation observation(Cameras camera, PhotonTrackedTarget target, Pose2d robotPose,
+                                               double timestamp)
+  {
+    Pose3d seed = new Pose3d(robotPose.getX() + 0.15,
+                             robotPose.getY() - 0.1,
+                             0,
+                             new Rotation3d(0, 0, robotPose.getRotation().getRadians() + 0.05));
+    EstimatedRobotPose estimate = new EstimatedRobotPose(seed, timestamp, List.of(target),
+                                                         PoseStrategy.LOWEST_AMBIGUITY);
+    return new VisionObservation(camera, estimate, 0.3, 0.3, 0.6, timestamp);
+  }
+
+  /**
+   * Create a solver for a layout with calibrated left and right cameras.
+   *
+   * @param tags Tags on the field.
+   * @return Solver.
+   */
+  private static MultiCameraPoseSolver solver(AprilTag... tags)
+  {
+    MultiCameraPoseSolver solver = new MultiCameraPoseSolver(new AprilTagFieldLayout(List.of(tags), 16.5, 8.0));
+    solver.setIntrinsics(Cameras.LEFT_CAM, FOCAL_LENGTH, FOCAL_LENGTH, CENTER_X, CENTER_Y);
+    solver.setIntrinsics(Cameras.RIGHT_CAM, FOCAL_LENGTH, FOCAL_LENGTH, CENTER_X, CENTER_Y);
+    return solver;
+  }
+
+  /**
+   * Assert a solved pose matches the true pose.
+   *
+   * @param expected True robot pose.
+   * @param actual   Joint observation.
+   */
+  private static void assertPose(Pose2d expected, VisionObservation actual)
+  {
+    assertNotNull(actual);
+    Pose2d pose = actual.estimate.estimatedPose.toPose2d();
+    assertEquals(expected.getX(), pose.getX(), 1e-3);
+    assertEquals(expected.getY(), pose.getY(), 1e-3);
+    assertEquals(0, expected.getRotation().minus(pose.getRotation()).getRadians(), 1e-4);
+  }
+
+  /**
+   * Two cameras which each see one tag in the same instant recover the robot pose, with more confidence than either
+   * camera alone.
+   */
+  @Test
+  void recoversPoseFromTwoCameras()
+  {
+    Pose2d                robotPose = new Pose2d(3, 4, new Rotation2d(0.2));
+    AprilTag              leftTag   = tagInFrontOf(1, robotPose, Cameras.LEFT_CAM);
+    AprilTag              rightTag  = tagInFrontOf(2, robotPose, Cameras.RIGHT_CAM);
+    MultiCameraPoseSolver solver    = solver(leftTag, rightTag);
+
+    VisionObservation joint = solver.solve(List.of(
+        observation(Cameras.LEFT_CAM, project(leftTag, robotPose, Cameras.LEFT_CAM), robotPose, 1.0),
+        observation(Cameras.RIGHT_CAM, project(rightTag, robotPose, Cameras.RIGHT_CAM), robotPose, 1.0)));
+
+    assertPose(robotPose, joint);
+    assertEquals(1.0, joint.getTimestampSeconds(), 1e-9);
+    assertTrue(joint.stdDevX < 0.3 && joint.stdDevY < 0.3 && joint.stdDevTheta < 0.6);
+  }
+
+  /**
+   * Frames captured 15 ms apart by a robot driving and turning are solved at the newest capture time, with the older
+   * frame moved back along the odometry. The odometry frame differs from the field, only its motion is used.
+   */
+  @Test
+  void compensatesMotionWithinWindow()
+  {
+    Pose2d                earlyPose = new Pose2d(3, 4, new Rotation2d(0.2));
+    Pose2d                latePose  = new Pose2d(3.06, 4.01, new Rotation2d(0.24));
+    AprilTag              leftTag   = tagInFrontOf(1, earlyPose, Cameras.LEFT_CAM);
+    AprilTag              rightTag  = tagInFrontOf(2, latePose, Cameras.RIGHT_CAM);
+    MultiCameraPoseSolver solver    = solver(leftTag, rightTag);
+
+    Pose2d      odometryOrigin = new Pose2d(-1, 2, new Rotation2d(1.0));
+    PoseHistory history        = new PoseHistory(16);
+    history.add(1.0, odometryOrigin.plus(earlyPose.minus(Pose2d.kZero)));
+    history.add(1.015, odometryOrigin.plus(latePose.minus(Pose2d.kZero)));
+    solver.setPoseHistory(history);
+
+    VisionObservation joint = solver.solve(List.of(
+        observation(Cameras.LEFT_CAM, project(leftTag, earlyPose, Cameras.LEFT_CAM), earlyPose, 1.0),
+        observation(Cameras.RIGHT_CAM, project(rightTag, latePose, Cameras.RIGHT_CAM), latePose, 1.015)));
+
+    assertPose(latePose, joint);
+    assertEquals(1.015, joint.getTimestampSeconds(), 1e-9);
+  }
+}
@@ -0,0 +1,63 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the online actuation latency estimate of {@link PosePredictor} against a drivetrain with a known delay.
+ */
+class PosePredictorTest
+{
+
+  /**
+   * Robot loop period in seconds.
+   */
+  private static final double LOOP_PERIOD = 0.02;
+  /**
+   * Loops simulated, enough for the blended estimate to settle.
+   */
+  private static final int    LOOPS       = 2000;
+
+  /**
+   * Run the predictor in robot loop order: the update before the commands of a loop, then the command. The measured
+   * velocity follows the command a fixed number of loops later.
+   *
+   * @param delayLoops Loops between a command and the measurement which shows it.
+   * @return Estimated latency in seconds.
+   */
+  private static double estimateLatency(int delayLoops)
+  {
+    PosePredictor predictor = new PosePredictor(0, 0.4);
+    Random        random    = new Random(42);
+    double[]      commands  = new double[LOOPS];
+    double        command   = 0;
+    for (int k = 0; k < LOOPS; k++)
+    {
+      double timestamp = k * LOOP_PERIOD;
+      double measured  = k >= delayLoops ? commands[k - delayLoops] : 0;
+      predictor.update(timestamp, new PoseSnapshot(timestamp, new Pose2d(), new ChassisSpeeds(measured, 0, 0)));
+
+      if (k % 5 == 0)
+      {
+        command = random.nextDouble() * 4 - 2;
+      }
+      commands[k] = command;
+      predictor.recordCommand(command, 0, 0);
+    }
+    return predictor.getLatency();
+  }
+
+  /**
+   * A command shown by the measurement N loops later is an N loop latency, not N - 1.
+   */
+  @Test
+  void latencyMatchesKnownDelay()
+  {
+    assertEquals(4 * LOOP_PERIOD, estimateLatency(4), 0.004);
+    assertEquals(1 * LOOP_PERIOD, estimateLatency(1), 0.004);
+  }
+}
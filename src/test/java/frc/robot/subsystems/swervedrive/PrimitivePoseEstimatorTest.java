@@ -0,0 +1,216 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link PrimitivePoseEstimator} against WPILib's {@link SwerveDrivePoseEstimator} fed the same odometry and
+ * vision.
+ */
+class PrimitivePoseEstimatorTest
+{
+
+  /**
+   * Odometry period in seconds.
+   */
+  private static final double          PERIOD           = 0.02;
+  /**
+   * Robot-relative chassis X velocity in meters per second.
+   */
+  private static final double          VX               = 1.5;
+  /**
+   * Robot-relative chassis Y velocity in meters per second.
+   */
+  private static final double          VY               = 0.5;
+  /**
+   * Chassis angular velocity in radians per second.
+   */
+  private static final double          OMEGA            = 0.8;
+  /**
+   * Module locations, front left, front right, back left, back right.
+   */
+  private static final Translation2d[] MODULE_LOCATIONS = {new Translation2d(0.3, 0.3),
+                                                           new Translation2d(0.3, -0.3),
+                                                           new Translation2d(-0.3, 0.3),
+                                                           new Translation2d(-0.3, -0.3)};
+  /**
+   * Trust in the odometry X, Y and heading.
+   */
+  private static final Matrix<N3, N1>  STATE_STD_DEVS   = VecBuilder.fill(0.1, 0.1, 0.1);
+  /**
+   * Default trust in vision X, Y and heading.
+   */
+  private static final Matrix<N3, N1>  VISION_STD_DEVS  = VecBuilder.fill(0.9, 0.9, 0.9);
+
+  /**
+   * Advance module positions by one period of the constant chassis motion.
+   *
+   * @param positions Module positions, updated in place.
+   */
+  private static void drive(SwerveModulePosition[] positions)
+  {
+    for (int i = 0; i < positions.length; i++)
+    {
+      double moduleVx = VX - OMEGA * MODULE_LOCATIONS[i].getY();
+      double moduleVy = VY + OMEGA * MODULE_LOCATIONS[i].getX();
+      positions[i].distanceMeters += Math.hypot(moduleVx, moduleVy) * PERIOD;
+      positions[i].angle = new Rotation2d(moduleVx, moduleVy);
+    }
+  }
+
+  /**
+   * Copy module positions, since WPILib keeps the arrays it is given.
+   *
+   * @param positions Module positions.
+   * @return Copies of the module positions.
+   */
+  private static SwerveModulePosition[] copy(SwerveModulePosition[] positions)
+  {
+    SwerveModulePosition[] copy = new SwerveModulePosition[positions.length];
+    for (int i = 0; i < positions.length; i++)
+    {
+      copy[i] = positions[i].copy();
+    }
+    return copy;
+  }
+
+  /**
+   * Create module positions at the start of a run.
+   *
+   * @return Module positions with no distance driven.
+   */
+  private static SwerveModulePosition[] startPositions()
+  {
+    SwerveModulePosition[] positions = new SwerveModulePosition[MODULE_LOCATIONS.length];
+    for (int i = 0; i < positions.length; i++)
+    {
+      positions[i] = new SwerveModulePosition();
+    }
+    return positions;
+  }
+
+  /**
+   * Vision measurement of a pose near the driven path, so corrections are small but not zero.
+   *
+   * @param timestamp Capture time in seconds.
+   * @return Measured robot pose.
+   */
+  private static Pose2d visionPose(double timestamp)
+  {
+    return new Pose2d(1.3 + VX * timestamp, 1.8 + VY * timestamp, new Rotation2d(0.6 + OMEGA * timestamp));
+  }
+
+  /**
+   * Assert the two estimators agree.
+   *
+   * @param expected WPILib estimate.
+   * @param actual   Primitive estimate.
+   * @param step     Odometry step, for the failure message.
+   */
+  private static void assertAgrees(Pose2d expected, Pose2d actual, int step)
+  {
+    assertEquals(expected.getX(), actual.getX(), 1e-6, "X at step " + step);
+    assertEquals(expected.getY(), actual.getY(), 1e-6, "Y at step " + step);
+    assertEquals(0,
+                 expected.getRotation().minus(actual.getRotation()).getRadians(),
+                 1e-6,
+                 "Heading at step " + step);
+  }
+
+  /**
+   * Odometry, delayed vision with per-measurement standard deviations, a measurement older than a previous one and
+   * one older than the history all produce the same estimate as WPILib. Like WPILib, a measurement captured before
+   * an earlier applied correction discards that correction instead of reapplying it.
+   */
+  @Test
+  void matchesWpilibEstimator()
+  {
+    Pose2d                   initialPose = new Pose2d(1, 2, Rotation2d.fromDegrees(30));
+    SwerveModulePosition[]   positions   = startPositions();
+    SwerveDrivePoseEstimator reference   = new SwerveDrivePoseEstimator(new SwerveDriveKinematics(MODULE_LOCATIONS),
+                                                                        Rotation2d.kZero,
+                                                                        copy(positions),
+                                                                        initialPose,
+                                                                        STATE_STD_DEVS,
+                                                                        VISION_STD_DEVS);
+    PrimitivePoseEstimator   estimator   = new PrimitivePoseEstimator(MODULE_LOCATIONS, 0, copy(positions),
+                                                                      initialPose, STATE_STD_DEVS, VISION_STD_DEVS);
+
+    for (int step = 1; step <= 200; step++)
+    {
+      double timestamp = step * PERIOD;
+      double gyroAngle = OMEGA * timestamp;
+      drive(positions);
+      reference.updateWithTime(timestamp, new Rotation2d(gyroAngle), copy(positions));
+      estimator.update(timestamp, gyroAngle, copy(positions));
+      assertAgrees(reference.getEstimatedPosition(), estimator.getPose(), step);
+
+      if (step % 10 == 5)
+      {
+        // Captured three loops ago, alternating trust.
+        double captured = timestamp - 3 * PERIOD;
+        double stdDev   = step % 20 == 5 ? 0.5 : 1.5;
+        reference.addVisionMeasurement(visionPose(captured), captured, VecBuilder.fill(stdDev, stdDev, stdDev * 2));
+        estimator.accept(visionPose(captured), captured, stdDev, stdDev, stdDev * 2);
+        assertAgrees(reference.getEstimatedPosition(), estimator.getPose(), step);
+      }
+      if (step == 96)
+      {
+        // A slower camera reports a frame captured before the correction just applied.
+        double captured = timestamp - 6 * PERIOD;
+        reference.addVisionMeasurement(visionPose(captured), captured);
+        estimator.addVisionMeasurement(visionPose(captured), captured);
+        assertAgrees(reference.getEstimatedPosition(), estimator.getPose(), step);
+      }
+      if (step == 150)
+      {
+        // Older than the odometry history, ignored by both.
+        double captured = timestamp - 2.0;
+        reference.addVisionMeasurement(visionPose(captured), captured);
+        estimator.addVisionMeasurement(visionPose(captured), captured);
+        assertAgrees(reference.getEstimatedPosition(), estimator.getPose(), step);
+      }
+    }
+  }
+
+  /**
+   * The odometry update and vision measurement run at the odometry rate and must not create garbage.
+   */
+  @Test
+  void updatesDoNotAllocate()
+  {
+    SwerveModulePosition[] positions  = startPositions();
+    PrimitivePoseEstimator estimator  = new PrimitivePoseEstimator(MODULE_LOCATIONS, 0, positions, new Pose2d(),
+                                                                   STATE_STD_DEVS, VISION_STD_DEVS);
+    Pose2d                 visionPose = new Pose2d(0.5, 0.5, Rotation2d.kZero);
+    double[]               pose       = new double[3];
+    double[]               timestamp  = {0};
+    for (SwerveModulePosition position : positions)
+    {
+      position.angle = Rotation2d.kZero;
+    }
+
+    long bytes = AllocationCounter.bytesPerIteration(() -> {
+      timestamp[0] += PERIOD;
+      for (SwerveModulePosition position : positions)
+      {
+        position.distanceMeters += VX * PERIOD;
+      }
+      estimator.update(timestamp[0], OMEGA * timestamp[0], positions);
+      estimator.accept(visionPose, timestamp[0] - 3 * PERIOD, 0.5, 0.5, 1.0);
+      estimator.getPose(pose);
+    });
+    assertEquals(0, bytes, "Pose estimation allocated " + bytes + " bytes per update");
+  }
+}
@@ -0,0 +1,154 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.pathplanner.lib.config.ModuleConfig;
+import com.pathplanner.lib.config.RobotConfig;
+import com.pathplanner.lib.util.DriveFeedforwards;
+import com.pathplanner.lib.util.swerve.SwerveSetpoint;
+import com.pathplanner.lib.util.swerve.SwerveSetpointGenerator;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.system.plant.DCMotor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the step {@link SetpointGeneratorService} hands the setpoint generator for each measured loop time.
+ */
+class SetpointGeneratorServiceTest
+{
+
+  /**
+   * Nominal loop period in seconds.
+   */
+  private static final double        LOOP_PERIOD        = 0.02;
+  /**
+   * Maximum module steering velocity in radians per second.
+   */
+  private static final double        MAX_STEER_VELOCITY = 10 * Math.PI;
+  /**
+   * Target speeds, far enough from rest that every step is acceleration limited.
+   */
+  private static final ChassisSpeeds TARGET             = new ChassisSpeeds(4.0, 0, 0);
+
+  /**
+   * Robot config of the test robot.
+   */
+  private RobotConfig              config;
+  /**
+   * Service under test.
+   */
+  private SetpointGeneratorService service;
+
+  /**
+   * Create the robot config matching the PathPlanner GUI settings in the deploy directory.
+   *
+   * @return Robot config of a four module drive.
+   */
+  private static RobotConfig robotConfig()
+  {
+    return new RobotConfig(74.088,
+                           6.883,
+                           new ModuleConfig(0.048,
+                                            5.45,
+                                            1.2,
+                                            DCMotor.getNEO(1).withReduction(5.143),
+                                            60.0,
+                                            1),
+                           new Translation2d(0.273, 0.273),
+                           new Translation2d(0.273, -0.273),
+                           new Translation2d(-0.273, 0.273),
+                           new Translation2d(-0.273, -0.273));
+  }
+
+  /**
+   * Create module states of a stopped robot.
+   *
+   * @return Stopped module states.
+   */
+  private static SwerveModuleState[] stoppedStates()
+  {
+    SwerveModuleState[] states = new SwerveModuleState[4];
+    for (int i = 0; i < states.length; i++)
+    {
+      states[i] = new SwerveModuleState();
+    }
+    return states;
+  }
+
+  /**
+   * Create the service and reset it to a stopped robot.
+   */
+  @BeforeEach
+  void setup()
+  {
+    config = robotConfig();
+    service = new SetpointGeneratorService(config, MAX_STEER_VELOCITY, LOOP_PERIOD, 4);
+    service.reset(new ChassisSpeeds(), stoppedStates());
+  }
+
+  /**
+   * The first update after a reset has no previous time and steps one nominal period, however long the command
+   * waited to start.
+   */
+  @Test
+  void firstUpdateAfterResetUsesNominalPeriod()
+  {
+    service.update(TARGET, 100.0);
+    assertEquals(LOOP_PERIOD, service.getLastPeriod(), 1e-9);
+
+    service.update(TARGET, 100.02);
+    service.reset(new ChassisSpeeds(), stoppedStates());
+    service.update(TARGET, 250.0);
+    assertEquals(LOOP_PERIOD, service.getLastPeriod(), 1e-9);
+  }
+
+  /**
+   * A loop a few milliseconds late is stepped by its measured time.
+   */
+  @Test
+  void lateLoopUsesMeasuredPeriod()
+  {
+    service.update(TARGET, 1.0);
+    service.update(TARGET, 1.023);
+    assertEquals(0.023, service.getLastPeriod(), 1e-9);
+  }
+
+  /**
+   * An overrun loop is stepped by at most 2.5 nominal periods, and the setpoint accelerates no further than that
+   * step allows.
+   */
+  @Test
+  void overrunIsClamped()
+  {
+    service.update(TARGET, 1.0);
+    SwerveSetpoint setpoint = service.update(TARGET, 1.2);
+    assertEquals(2.5 * LOOP_PERIOD, service.getLastPeriod(), 1e-9);
+
+    SwerveSetpointGenerator generator = new SwerveSetpointGenerator(config, MAX_STEER_VELOCITY);
+    SwerveSetpoint          expected  = new SwerveSetpoint(new ChassisSpeeds(),
+                                                       stoppedStates(),
+                                                       DriveFeedforwards.zeros(4));
+    expected = generator.generateSetpoint(expected, TARGET, LOOP_PERIOD);
+    expected = generator.generateSetpoint(expected, TARGET, 2.5 * LOOP_PERIOD);
+    assertEquals(expected.robotRelativeSpeeds().vxMetersPerSecond,
+                 setpoint.robotRelativeSpeeds().vxMetersPerSecond,
+                 1e-9);
+  }
+
+  /**
+   * A loop run right after the previous one still steps half a nominal period, so the setpoint keeps moving.
+   */
+  @Test
+  void shortLoopIsClamped()
+  {
+    service.update(TARGET, 1.0);
+    double         before   = service.getSetpoint().robotRelativeSpeeds().vxMetersPerSecond;
+    SwerveSetpoint setpoint = service.update(TARGET, 1.0005);
+    assertEquals(0.5 * LOOP_PERIOD, service.getLastPeriod(), 1e-9);
+    assertTrue(setpoint.robotRelativeSpeeds().vxMetersPerSecond > before);
+  }
+}
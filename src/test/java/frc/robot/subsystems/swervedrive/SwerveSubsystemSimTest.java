@@ -0,0 +1,78 @@
+package frc.robot.subsystems.swervedrive;
+
+import static edu.wpi.first.units.Units.Seconds;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import java.io.File;
+import org.ironmaple.simulation.SimulatedArena;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives the simulated {@link SwerveSubsystem} through its own odometry update, which replaces
+ * {@link swervelib.SwerveDrive#updateOdometry()} with the wheel slip filtered one.
+ */
+class SwerveSubsystemSimTest
+{
+
+  /**
+   * Odometry samples to drive for.
+   */
+  private static final int    SAMPLES = 250;
+  /**
+   * Time between odometry samples in seconds.
+   */
+  private static final double PERIOD  = 0.004;
+
+  /**
+   * Start the simulated HAL with simulated time paused, step the simulated arena once per odometry sample, and enable
+   * the robot so the simulated motors are driven.
+   */
+  @BeforeEach
+  void setup()
+  {
+    HAL.initialize(500, 0);
+    SimulatedArena.overrideSimulationTimings(Seconds.of(PERIOD), 1);
+    SimHooks.pauseTiming();
+    DriverStationSim.setEnabled(true);
+    DriverStationSim.notifyNewData();
+  }
+
+  /**
+   * Let simulated time run again for the next test.
+   */
+  @AfterEach
+  void teardown()
+  {
+    SimHooks.resumeTiming();
+  }
+
+  /**
+   * The simulated robot moves under a drive command, so every sample steps the simulation and reads fresh module
+   * positions.
+   */
+  @Test
+  void poseMovesUnderDriveCommand()
+  {
+    SwerveSubsystem drivebase = new SwerveSubsystem(new File(Filesystem.getDeployDirectory(), "swerve/neo"));
+    drivebase.getSwerveDrive().stopOdometryThread();
+    Pose2d start = drivebase.getSwerveDrive().getPose();
+
+    for (int i = 0; i < SAMPLES; i++)
+    {
+      drivebase.drive(new ChassisSpeeds(1.0, 0, 0));
+      SimHooks.stepTiming(PERIOD);
+      drivebase.updateOdometry();
+    }
+
+    double distance = drivebase.getSwerveDrive().getPose().getTranslation().getDistance(start.getTranslation());
+    assertTrue(distance > 0.5, "Simulated robot moved " + distance + " m in " + SAMPLES * PERIOD + " s");
+  }
+}
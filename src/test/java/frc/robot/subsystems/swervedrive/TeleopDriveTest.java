@@ -0,0 +1,98 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the joystick shaping run every loop by the teleop drive commands of {@link SwerveSubsystem}.
+ */
+class TeleopDriveTest
+{
+
+  /**
+   * Maximum chassis velocity in meters per second.
+   */
+  private static final double MAX_VELOCITY         = 4.0;
+  /**
+   * Maximum chassis angular velocity in radians per second.
+   */
+  private static final double MAX_ANGULAR_VELOCITY = 10.0;
+
+  /**
+   * Field-relative input is scaled and rotated into the robot frame.
+   */
+  @Test
+  void translationIsRobotRelative()
+  {
+    ChassisSpeeds speeds = new ChassisSpeeds();
+    TeleopDrive.robotRelativeSpeeds(1, 0, 2, Rotation2d.fromDegrees(90), MAX_VELOCITY, false, speeds);
+
+    // Full field X while facing field Y is robot right.
+    assertEquals(0, speeds.vxMetersPerSecond, 1e-9);
+    assertEquals(-TeleopDrive.TRANSLATION_SCALE * MAX_VELOCITY, speeds.vyMetersPerSecond, 1e-9);
+    assertEquals(2, speeds.omegaRadiansPerSecond, 1e-9);
+  }
+
+  /**
+   * Inputs inside the deadband do not move the robot and the rotation input is cubed.
+   */
+  @Test
+  void inputsAreShaped()
+  {
+    ChassisSpeeds speeds = new ChassisSpeeds();
+    TeleopDrive.robotRelativeSpeeds(0.05, -0.05, 0, Rotation2d.kZero, MAX_VELOCITY, false, speeds);
+
+    assertEquals(0, speeds.vxMetersPerSecond, 1e-9);
+    assertEquals(0, speeds.vyMetersPerSecond, 1e-9);
+    assertEquals(0, TeleopDrive.angularVelocity(0.05, MAX_ANGULAR_VELOCITY), 1e-9);
+    assertEquals(-MAX_ANGULAR_VELOCITY, TeleopDrive.angularVelocity(-1, MAX_ANGULAR_VELOCITY), 1e-9);
+  }
+
+  /**
+   * The heading command cubes the magnitude of the scaled translation like YAGSL's
+   * {@link swervelib.SwerveController#getTargetSpeeds}, keeping its direction.
+   */
+  @Test
+  void headingTranslationIsCubed()
+  {
+    ChassisSpeeds linear = new ChassisSpeeds();
+    ChassisSpeeds cubed  = new ChassisSpeeds();
+    TeleopDrive.robotRelativeSpeeds(0.3, 0.4, 0, Rotation2d.kZero, MAX_VELOCITY, false, linear);
+    TeleopDrive.robotRelativeSpeeds(0.3, 0.4, 0, Rotation2d.kZero, MAX_VELOCITY, true, cubed);
+
+    double linearSpeed = Math.hypot(linear.vxMetersPerSecond, linear.vyMetersPerSecond);
+    double magnitude   = linearSpeed / MAX_VELOCITY;
+    assertEquals(Math.pow(magnitude, 3) * MAX_VELOCITY,
+                 Math.hypot(cubed.vxMetersPerSecond, cubed.vyMetersPerSecond),
+                 1e-9);
+    assertEquals(Math.atan2(linear.vyMetersPerSecond, linear.vxMetersPerSecond),
+                 Math.atan2(cubed.vyMetersPerSecond, cubed.vxMetersPerSecond),
+                 1e-9);
+
+    // The scale is applied before cubing, as the baseline command scaled the inputs before YAGSL cubed them.
+    TeleopDrive.robotRelativeSpeeds(1, 0, 0, Rotation2d.kZero, MAX_VELOCITY, true, cubed);
+    assertEquals(Math.pow(TeleopDrive.TRANSLATION_SCALE, 3) * MAX_VELOCITY, cubed.vxMetersPerSecond, 1e-9);
+  }
+
+  /**
+   * The teleop commands run every loop and must not create garbage before the speeds are handed to YAGSL.
+   */
+  @Test
+  void teleopLoopDoesNotAllocate()
+  {
+    ChassisSpeeds speeds  = new ChassisSpeeds();
+    Rotation2d    heading = Rotation2d.fromDegrees(30);
+    double[]      phase   = {0};
+
+    long bytes = AllocationCounter.bytesPerIteration(() -> {
+      phase[0] += 0.01;
+      double rotation = TeleopDrive.angularVelocity(Math.sin(phase[0] * 0.5), MAX_ANGULAR_VELOCITY);
+      TeleopDrive.robotRelativeSpeeds(Math.sin(phase[0]), Math.cos(phase[0]), rotation, heading, MAX_VELOCITY,
+                                      true, speeds);
+    });
+    assertEquals(0, bytes, "Teleop drive shaping allocated " + bytes + " bytes per loop");
+  }
+}
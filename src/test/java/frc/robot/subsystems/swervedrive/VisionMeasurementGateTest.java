@@ -0,0 +1,106 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.PhotonPoseEstimator.PoseStrategy;
+
+/**
+ * Checks which vision estimates {@link VisionMeasurementGate} lets through to the pose estimator.
+ */
+class VisionMeasurementGateTest
+{
+
+  /**
+   * Robot speed along field X in meters per second.
+   */
+  private static final double SPEED = 4.0;
+
+  /**
+   * Create a multi-tag observation of a pose on the field X axis.
+   *
+   * @param camera    Camera the estimate came from.
+   * @param x         Estimated X in meters.
+   * @param timestamp Capture time in seconds.
+   * @return Observation with 5 cm translation standard deviations.
+   */
+  private static VisionObservation observation(Cameras camera, double x, double timestamp)
+  {
+    EstimatedRobotPose estimate = new EstimatedRobotPose(new Pose3d(x, 0, 0, new Rotation3d()), timestamp, List.of(),
+                                                         PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR);
+    return new VisionObservation(camera, estimate, 0.05, 0.05, 0.1, timestamp);
+  }
+
+  /**
+   * Record one second of the robot driving along field X into a history.
+   *
+   * @return History of the drive.
+   */
+  private static PoseHistory driveHistory()
+  {
+    PoseHistory history = new PoseHistory(64);
+    for (int i = 0; i <= 50; i++)
+    {
+      double timestamp = i * 0.02;
+      history.add(timestamp, SPEED * timestamp, 0, 0);
+    }
+    return history;
+  }
+
+  /**
+   * An estimate captured 100 ms ago matches where odometry was then, not where it is now.
+   */
+  @Test
+  void estimateIsComparedAtCaptureTime()
+  {
+    VisionObservation delayed = observation(Cameras.CENTER_CAM, SPEED * 0.9, 0.9);
+
+    VisionMeasurementGate latestOnly = new VisionMeasurementGate();
+    latestOnly.updateOdometry(SPEED, 0, 0);
+    assertFalse(latestOnly.test(delayed));
+
+    VisionMeasurementGate timeMatched = new VisionMeasurementGate();
+    timeMatched.setPoseHistory(driveHistory());
+    timeMatched.updateOdometry(SPEED, 0, 0);
+    assertTrue(timeMatched.test(delayed));
+  }
+
+  /**
+   * A burst of rejections from one camera does not override odometry, but a sustained disagreement or one shared by
+   * several cameras does.
+   */
+  @Test
+  void recoveryNeedsSeveralCamerasOrTime()
+  {
+    VisionMeasurementGate gate = new VisionMeasurementGate();
+    gate.updateOdometry(0, 0, 0);
+    for (int i = 0; i < 20; i++)
+    {
+      assertFalse(gate.test(observation(Cameras.CENTER_CAM, 2, 0.01 * i)));
+    }
+    // Half a second after the first rejection the camera is believed.
+    assertTrue(gate.test(observation(Cameras.CENTER_CAM, 2, 0.5)));
+
+    gate = new VisionMeasurementGate();
+    gate.updateOdometry(0, 0, 0);
+    for (int i = 0; i < 9; i++)
+    {
+      assertFalse(gate.test(observation(i % 2 == 0 ? Cameras.CENTER_CAM : Cameras.LEFT_CAM, 2, 0.01 * i)));
+    }
+    assertTrue(gate.test(observation(Cameras.LEFT_CAM, 2, 0.09)));
+
+    // Rejections far apart in time start over instead of adding up.
+    gate = new VisionMeasurementGate();
+    gate.updateOdometry(0, 0, 0);
+    for (int i = 0; i < 20; i++)
+    {
+      assertFalse(gate.test(observation(i % 2 == 0 ? Cameras.CENTER_CAM : Cameras.LEFT_CAM, 2, 2.0 * i)));
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Records frames and odometry with {@link VisionRecorder} and feeds them back through {@link Vision} with
+ * {@link VisionReplay}.
+ */
+class VisionReplayTest
+{
+
+  /**
+   * Directory the recording is written to.
+   */
+  @TempDir
+  Path directory;
+
+  /**
+   * Create a frame seeing one tag, received now and captured 30 ms earlier.
+   *
+   * @param fiducialId Tag ID.
+   * @return Pipeline result.
+   */
+  private static PhotonPipelineResult frame(int fiducialId)
+  {
+    List<TargetCorner> corners = List.of(new TargetCorner(), new TargetCorner(),
+                                         new TargetCorner(), new TargetCorner());
+    PhotonTrackedTarget target = new PhotonTrackedTarget(0, 0, 1, 0, fiducialId, -1, -1, new Transform3d(),
+                                                         new Transform3d(), 0.1, corners, corners);
+    long                 now    = NetworkTablesJNI.now();
+    PhotonPipelineResult result = new PhotonPipelineResult(1, now - 30000, now - 5000, 0, List.of(target));
+    result.setReceiveTimestampMicros(now);
+    return result;
+  }
+
+  /**
+   * Every recorded odometry sample is replayed as one fusion step, and every recorded frame reaches its camera with
+   * its capture time.
+   *
+   * @throws IOException If the recording cannot be written or read.
+   */
+  @Test
+  void recordingRoundTrips() throws IOException
+  {
+    Path                 file  = directory.resolve("vision.bin");
+    PhotonPipelineResult frame = frame(18);
+    Pose2d               pose  = new Pose2d(2, 3, Rotation2d.fromDegrees(45));
+    try (VisionRecorder recorder = new VisionRecorder(file))
+    {
+      recorder.recordFrame(Cameras.CENTER_CAM, frame);
+      recorder.recordOdometry(frame.getTimestampSeconds() + 0.02, new Pose2d());
+      recorder.recordOdometry(frame.getTimestampSeconds() + 0.04, pose);
+    }
+
+    VisionReplay replay = new VisionReplay(file);
+    Vision       vision = Vision.forReplay(replay::getOdometryPose);
+    int          steps  = replay.replay(vision, (robotPose, timestamp, stdDevX, stdDevY, stdDevTheta) -> {
+    });
+
+    assertEquals(2, steps);
+    assertEquals(pose, replay.getOdometryPose());
+    assertEquals(frame.getTimestampSeconds() + 0.04, replay.getOdometryTimestamp(), 1e-9);
+    assertNotNull(Cameras.CENTER_CAM.fiducialIndex.getTarget(18));
+    assertEquals(frame.getTimestampSeconds(), Cameras.CENTER_CAM.fiducialIndex.getTimestamp(18), 1e-6);
+  }
+}
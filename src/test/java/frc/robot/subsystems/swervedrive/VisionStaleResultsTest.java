@@ -0,0 +1,82 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+import frc.robot.subsystems.swervedrive.Vision.Cameras;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Checks that a camera which stops producing frames stops reporting its last targets. Frames are fed through the
+ * replay queue so no simulated camera has to publish them.
+ */
+class VisionStaleResultsTest
+{
+
+  /**
+   * Camera under test.
+   */
+  private final Cameras camera = Cameras.CENTER_CAM;
+
+  /**
+   * Read from the camera again for the other tests.
+   */
+  @AfterEach
+  void teardown()
+  {
+    camera.replaying = false;
+  }
+
+  /**
+   * Create a frame seeing one tag, captured now.
+   *
+   * @param fiducialId Tag ID.
+   * @return Pipeline result.
+   */
+  private static PhotonPipelineResult frame(int fiducialId)
+  {
+    List<TargetCorner> corners = List.of(new TargetCorner(), new TargetCorner(),
+                                         new TargetCorner(), new TargetCorner());
+    PhotonTrackedTarget target = new PhotonTrackedTarget(0, 0, 1, 0, fiducialId, -1, -1, new Transform3d(),
+                                                         new Transform3d(), 0.1, corners, corners);
+    long                 now    = NetworkTablesJNI.now();
+    PhotonPipelineResult result = new PhotonPipelineResult(1, now, now, 0, List.of(target));
+    result.setReceiveTimestampMicros(now);
+    return result;
+  }
+
+  /**
+   * Results are kept between frames, and cleared once no frame has arrived for several frame intervals.
+   *
+   * @throws InterruptedException If interrupted while waiting for the results to expire.
+   */
+  @Test
+  void resultsExpireWhenCameraDisconnects() throws InterruptedException
+  {
+    camera.replaying = true;
+    camera.addReplayResult(frame(18));
+    camera.updateUnreadResults();
+    assertTrue(camera.getLatestResult().isPresent());
+    assertNotNull(camera.fiducialIndex.getTarget(18));
+
+    // Polled again before the next frame, the last frame is kept.
+    camera.updateUnreadResults();
+    assertTrue(camera.getLatestResult().isPresent());
+
+    // No frame for far longer than a frame interval.
+    Thread.sleep(500);
+    camera.updateUnreadResults();
+    assertFalse(camera.getLatestResult().isPresent());
+    assertFalse(camera.getBestResult().isPresent());
+    assertNull(camera.fiducialIndex.getTarget(18));
+  }
+}
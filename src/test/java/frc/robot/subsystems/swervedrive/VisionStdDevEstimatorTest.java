@@ -0,0 +1,91 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.apriltag.AprilTagFields;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Transform3d;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Checks the standard deviation heuristic run for every camera result: its output, and that it does not allocate once
+ * compiled.
+ */
+class VisionStdDevEstimatorTest
+{
+
+  /**
+   * Tag poses of the field used by {@link Vision}.
+   */
+  private final AprilTagTable         tagTable  = new AprilTagTable(AprilTagFieldLayout.loadField(
+      AprilTagFields.k2025ReefscapeAndyMark));
+  /**
+   * Heuristic with the default camera standard deviations.
+   */
+  private final VisionStdDevEstimator estimator = new VisionStdDevEstimator(VecBuilder.fill(4, 4, 8),
+                                                                            VecBuilder.fill(0.5, 0.5, 1));
+
+  /**
+   * Create a target seeing a tag, only the fiducial ID is read by the heuristic.
+   *
+   * @param fiducialId Tag ID.
+   * @return Tracked target.
+   */
+  private static PhotonTrackedTarget target(int fiducialId)
+  {
+    List<TargetCorner> corners = List.of(new TargetCorner(), new TargetCorner(),
+                                         new TargetCorner(), new TargetCorner());
+    return new PhotonTrackedTarget(0, 0, 1, 0, fiducialId, -1, -1, new Transform3d(), new Transform3d(), 0.1,
+                                   corners, corners);
+  }
+
+  /**
+   * Several close tags use the multi-tag standard deviations, scaled by the distance.
+   */
+  @Test
+  void multiTagScalesWithDistance()
+  {
+    List<PhotonTrackedTarget> targets = List.of(target(18), target(19));
+    double                    robotX  = tagTable.getX(18) - 1.0;
+    double                    robotY  = tagTable.getY(18);
+    estimator.update(robotX, robotY, targets, tagTable);
+
+    double distance = (tagTable.getDistance(18, robotX, robotY) + tagTable.getDistance(19, robotX, robotY)) / 2;
+    assertEquals(0.5 * (1 + distance * distance / 30), estimator.get(VisionStdDevEstimator.X), 1e-9);
+    assertEquals(1.0 * (1 + distance * distance / 30), estimator.get(VisionStdDevEstimator.THETA), 1e-9);
+  }
+
+  /**
+   * A single far tag is not trusted, and unknown tags fall back to the single-tag standard deviations.
+   */
+  @Test
+  void farSingleTagIsRejected()
+  {
+    estimator.update(tagTable.getX(18) - 6.0, tagTable.getY(18), List.of(target(18)), tagTable);
+    assertEquals(Double.MAX_VALUE, estimator.get(VisionStdDevEstimator.X));
+
+    estimator.update(0, 0, List.of(target(tagTable.getMaxId() + 1)), tagTable);
+    assertEquals(4, estimator.get(VisionStdDevEstimator.X));
+  }
+
+  /**
+   * The heuristic runs for every camera result on the main loop and must not create garbage.
+   */
+  @Test
+  void updateDoesNotAllocate()
+  {
+    List<PhotonTrackedTarget> single   = List.of(target(18));
+    List<PhotonTrackedTarget> multiple = new ArrayList<>(List.of(target(17), target(18), target(19), target(22)));
+
+    long bytes = AllocationCounter.bytesPerIteration(() -> {
+      estimator.update(3.5, 4.0, single, tagTable);
+      estimator.update(3.5, 4.0, multiple, tagTable);
+    });
+    assertEquals(0, bytes, "VisionStdDevEstimator.update allocated " + bytes + " bytes per call");
+  }
+}
@@ -0,0 +1,154 @@
+package frc.robot.subsystems.swervedrive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives {@link WheelSlipDetector} with sampled odometry the way the high-rate odometry thread sees it: samples every
+ * 4 ms, while each drive encoder only refreshes every 20 ms, staggered between modules.
+ */
+class WheelSlipDetectorTest
+{
+
+  /**
+   * Odometry thread period in seconds.
+   */
+  private static final double          PERIOD           = 0.004;
+  /**
+   * Drive encoder refresh period in seconds.
+   */
+  private static final double          ENCODER_PERIOD   = 0.02;
+  /**
+   * Module locations of a square robot.
+   */
+  private static final Translation2d[] MODULE_LOCATIONS = {new Translation2d(0.273, 0.273),
+                                                           new Translation2d(0.273, -0.273),
+                                                           new Translation2d(-0.273, 0.273),
+                                                           new Translation2d(-0.273, -0.273)};
+
+  /**
+   * Module positions as last refreshed by each encoder.
+   */
+  private final SwerveModulePosition[] positions = new SwerveModulePosition[4];
+  /**
+   * Module states as last refreshed by each encoder.
+   */
+  private final SwerveModuleState[]    states    = new SwerveModuleState[4];
+
+  /**
+   * Create the modules at rest.
+   */
+  WheelSlipDetectorTest()
+  {
+    for (int i = 0; i < 4; i++)
+    {
+      positions[i] = new SwerveModulePosition(0, Rotation2d.kZero);
+      states[i] = new SwerveModuleState(0, Rotation2d.kZero);
+    }
+  }
+
+  /**
+   * Run the detector over one second of driving straight ahead, accelerating from rest.
+   *
+   * @param detector     Detector to feed.
+   * @param slipSpeed    Extra wheel speed of module 0 in meters per second, 0 for no slip.
+   * @param accelReading IMU horizontal acceleration reported every sample.
+   * @return Distance actually travelled in meters.
+   */
+  private double drive(WheelSlipDetector detector, double slipSpeed, double accelReading)
+  {
+    double acceleration = 3.0;
+    double time         = 0;
+    detector.update(positions, states, 0, accelReading, time);
+    for (int sample = 1; sample <= 250; sample++)
+    {
+      time = sample * PERIOD;
+      for (int i = 0; i < 4; i++)
+      {
+        // Each encoder refreshes on its own 20 ms schedule, offset by 5 ms from the previous module.
+        double refresh = Math.floor((time - i * 0.005) / ENCODER_PERIOD) * ENCODER_PERIOD + i * 0.005;
+        if (refresh > 0)
+        {
+          double distance = 0.5 * acceleration * refresh * refresh;
+          double speed    = acceleration * refresh;
+          if (i == 0)
+          {
+            distance += slipSpeed * refresh;
+            speed += slipSpeed;
+          }
+          positions[i].distanceMeters = distance;
+          states[i].speedMetersPerSecond = speed;
+        }
+      }
+      detector.update(positions, states, 0, accelReading, time);
+    }
+    return 0.5 * acceleration * time * time;
+  }
+
+  /**
+   * Modules which refresh on different samples are not slipping, and their positions pass through unchanged.
+   */
+  @Test
+  void staleEncodersAreNotSlip()
+  {
+    WheelSlipDetector detector = new WheelSlipDetector(MODULE_LOCATIONS);
+    drive(detector, 0, 0);
+
+    assertEquals(0, detector.getSlipCount());
+    assertEquals(0, detector.getCollisionCount());
+    for (int i = 0; i < 4; i++)
+    {
+      assertEquals(positions[i].distanceMeters, detector.getCorrectedPositions()[i].distanceMeters, 1e-9);
+    }
+  }
+
+  /**
+   * A spinning wheel is flagged and its corrected distance follows the other modules instead of the wheel.
+   */
+  @Test
+  void slippingModuleIsReplaced()
+  {
+    WheelSlipDetector detector  = new WheelSlipDetector(MODULE_LOCATIONS);
+    double            travelled = drive(detector, 1.5, 0);
+
+    assertTrue(detector.getSlipCount() > 200);
+    assertEquals(0, detector.getCollisionCount());
+    assertTrue(detector.isSlipping(0));
+    assertTrue(positions[0].distanceMeters - travelled > 1.0);
+    assertEquals(travelled, detector.getCorrectedPositions()[0].distanceMeters, 0.05);
+  }
+
+  /**
+   * A collision keeps the measured motion instead of pinning the robot in place.
+   */
+  @Test
+  void collisionKeepsMotion()
+  {
+    WheelSlipDetector detector = new WheelSlipDetector(MODULE_LOCATIONS);
+    double            dx       = 0;
+    double            time     = 0;
+    detector.update(positions, states, 0, 0, time);
+    for (int sample = 1; sample <= 10; sample++)
+    {
+      time = sample * PERIOD;
+      for (int i = 0; i < 4; i++)
+      {
+        positions[i].distanceMeters += 2.0 * PERIOD;
+        states[i].speedMetersPerSecond = 2.0;
+      }
+      assertFalse(detector.update(positions, states, 0, 30.0, time));
+      assertTrue(detector.isCollision());
+      dx += detector.getCorrectedDx();
+    }
+
+    assertEquals(10, detector.getCollisionCount());
+    assertEquals(10 * 2.0 * PERIOD, dx, 1e-9);
+  }
+}